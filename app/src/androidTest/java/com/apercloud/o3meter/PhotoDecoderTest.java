@@ -0,0 +1,65 @@
+package com.apercloud.o3meter;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumented tests for {@link PhotoDecoder}, executed on an Android device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PhotoDecoderTest {
+
+    @Test
+    public void decodeRegion_smallAfterLargeHasItsOwnSizeAndPixels() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        //Red left half, blue right half
+        Bitmap image = Bitmap.createBitmap(400, 300, Bitmap.Config.ARGB_8888);
+        image.eraseColor(Color.BLUE);
+        Canvas canvas = new Canvas(image);
+        canvas.clipRect(0, 0, 200, 300);
+        canvas.drawColor(Color.RED);
+        File file = new File(context.getCacheDir(), "region.jpg");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            image.compress(Bitmap.CompressFormat.JPEG, 100, out);
+        } finally {
+            out.close();
+        }
+
+        try {
+            PhotoDecoder decoder = new PhotoDecoder(context.getContentResolver(), 100, 100,
+                    new BitmapPool(16 * 1024 * 1024));
+            Photo photo = decoder.decode(Uri.fromFile(file));
+            //The pool gets back a bitmap of the whole image, mostly blue
+            decoder.recycle(decoder.decodeTile(photo, new Rect(0, 0, 400, 300), 1));
+
+            Bitmap region = decoder.decodeTile(photo, new Rect(40, 50, 50, 57), 1);
+            assertEquals(10, region.getWidth());
+            assertEquals(7, region.getHeight());
+            for (int y = 0; y < region.getHeight(); y++) {
+                for (int x = 0; x < region.getWidth(); x++) {
+                    int color = region.getPixel(x, y);
+                    assertTrue(Color.red(color) > 200 && Color.blue(color) < 50);
+                }
+            }
+            decoder.release();
+        } finally {
+            file.delete();
+        }
+    }
+}
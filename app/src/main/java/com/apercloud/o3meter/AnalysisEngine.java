@@ -0,0 +1,671 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Background engine to analyze photos.
+ *
+ * Photo decoding and analysis jobs run one at a time in a worker thread and their results are
+ * posted back to the UI thread. Submitting a new job cancels the one of the same kind that is
+ * running or waiting, so only the latest photo and selection rectangle are ever reported.
+ * Readings are kept in a {@link ResultCache}, so photos and regions analyzed before are not
+ * scanned again. With adaptive sampling only as many pixels as needed are read, and the
+ * approximate readings are not cached. The glare filter reads the trimmed mean color of a
+ * {@link ColorHistogram} instead of the mean.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class AnalysisEngine {
+
+    private static final String TAG = "AnalysisEngine";
+    //Added to the cache keys of circular mean hue readings
+    private static final String CIRCULAR_HUE_KEY = "/circular";
+    //Added to the cache keys of glare filtered readings
+    private static final String TRIMMED_MEAN_KEY = "/trimmed";
+    //Fraction of the darkest and brightest pixels the glare filter leaves out
+    private static final double TRIM_FRACTION = 0.1;
+
+    private final ExecutorService mExecutor;
+    private final ExecutorService mScanExecutor;
+    private final TiledColorAnalyzer mTiledAnalyzer;
+    private final ResultCache mCache;
+    //Strip buffer of the worker thread for regions scanned together
+    private final StripScanner mRegionScanner =
+            new StripScanner(StripScanner.DEFAULT_STRIP_PIXELS);
+    //Runs on the worker thread too, so it shares its strip buffer for full scans
+    private final AdaptiveSampler mSampler =
+            new AdaptiveSampler(AdaptiveSampler.DEFAULT_TOLERANCE, mRegionScanner);
+    private volatile boolean mAdaptiveSampling = false;
+    private volatile boolean mCircularHue = false;
+    private volatile boolean mTrimmedMean = false;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private final AtomicInteger mLoadGeneration = new AtomicInteger();
+    private Future<?> mPending = null;
+    private Future<?> mPendingLoad = null;
+    private Future<?> mPendingIndex = null;
+
+    //Newest preview waiting for the worker, and the task that runs it
+    private final AtomicReference<Runnable> mLatestPreview = new AtomicReference<>();
+    private final Runnable mDrainPreview = new Runnable() {
+        @Override
+        public void run() {
+            Runnable task = mLatestPreview.getAndSet(null);
+            if (task != null) {
+                task.run();
+            }
+        }
+    };
+
+    public interface Callback {
+        void onAnalysisFinished(ColorReading reading);
+    }
+
+    public interface RegionsCallback {
+        /**
+         * Called with the readings of several regions analyzed together
+         *
+         * @param readings {@link ColorReading}[]: one per region, in the order given
+         */
+        void onRegionsAnalyzed(ColorReading[] readings);
+    }
+
+    public interface PhotoCallback {
+        /**
+         * Called before the photo is decoded if the reading of the whole photo is cached
+         */
+        void onCachedReading(ColorReading reading);
+
+        void onPhotoLoaded(Photo photo);
+    }
+
+    public interface IndexCallback {
+        void onIndexBuilt(ColorIndex index);
+    }
+
+    /**
+     * Work done in the worker thread
+     */
+    private interface Job<T> {
+        T run() throws IOException, InterruptedException;
+    }
+
+    /**
+     * Delivery of a job result in the UI thread
+     */
+    private interface Delivery<T> {
+        void deliver(T result);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param cache {@link ResultCache}: readings of photos analyzed before
+     */
+    public AnalysisEngine(ResultCache cache) {
+        mCache = cache;
+        mExecutor = Executors.newSingleThreadExecutor(backgroundThreads(TAG));
+        //Big photos are scanned in bands using every core
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        mScanExecutor = Executors.newFixedThreadPool(parallelism,
+                backgroundThreads(TAG + "-scan"));
+        mTiledAnalyzer = new TiledColorAnalyzer(mScanExecutor, parallelism,
+                TiledColorAnalyzer.DEFAULT_SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * Method to create threads with background priority, so analysis never slows down the UI
+     *
+     * @param name String: thread name
+     * @return factory ThreadFactory
+     */
+    static ThreadFactory backgroundThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name);
+            }
+        };
+    }
+
+    /**
+     * Method to choose between scanning the pixels of every analysis or sampling them with an
+     * {@link AdaptiveSampler}. Applies to the analyses submitted after it.
+     *
+     * @param adaptiveSampling boolean: <code>true</code> to sample adaptively
+     */
+    public void setAdaptiveSampling(boolean adaptiveSampling) {
+        mAdaptiveSampling = adaptiveSampling;
+    }
+
+    /**
+     * Method to choose between the hue of the mean color and the circular mean of the hue of
+     * every pixel, from a {@link HueHistogram}. Applies to the analyses submitted after it
+     * that scan the pixels; adaptive sampling always uses the hue of the mean color.
+     *
+     * @param circularHue boolean: <code>true</code> for the circular mean hue
+     */
+    public void setCircularHue(boolean circularHue) {
+        mCircularHue = circularHue;
+    }
+
+    /**
+     * Method to choose between the mean color and the trimmed mean color, which leaves out
+     * the darkest and brightest tenth of the pixels so glare spots and shadows don't skew the
+     * reading. Applies to the analyses submitted after it that scan the pixels, and takes
+     * precedence over the circular mean hue; adaptive sampling always uses the mean color.
+     *
+     * @param trimmedMean boolean: <code>true</code> for the trimmed mean color
+     */
+    public void setTrimmedMean(boolean trimmedMean) {
+        mTrimmedMean = trimmedMean;
+    }
+
+    /**
+     * Method to get the cache key of a reading with the current color and hue methods, as
+     * every method gives different readings of the same pixels
+     *
+     * @param cacheKey String: {@link ResultCache} key, null if not cached
+     * @return key String, null if not cached
+     */
+    private String methodKey(String cacheKey) {
+        if (cacheKey == null) {
+            return null;
+        }
+        if (mTrimmedMean) {
+            return cacheKey + TRIMMED_MEAN_KEY;
+        }
+        return mCircularHue ? cacheKey + CIRCULAR_HUE_KEY : cacheKey;
+    }
+
+    /**
+     * Method to decode a photo in background. Must be called from the UI thread. Cancels any
+     * photo still loading and any analysis of the previous photo. The photo is hashed first,
+     * so if the reading of the whole photo is cached it is reported before decoding.
+     *
+     * @param decoder {@link PhotoDecoder} to decode the photo with
+     * @param uri Uri: photo from gallery or camera
+     * @param callback {@link PhotoCallback} called in the UI thread with the decoded photo
+     */
+    public void loadPhoto(final PhotoDecoder decoder, final Uri uri, final PhotoCallback callback) {
+        cancel();
+        mLoadGeneration.incrementAndGet();
+        if (mPendingLoad != null) {
+            mPendingLoad.cancel(true);
+        }
+        if (mPendingIndex != null) {
+            mPendingIndex.cancel(true);
+            mPendingIndex = null;
+        }
+        final int generation = mLoadGeneration.get();
+        mPendingLoad = submit(mLoadGeneration, new Job<Photo>() {
+            @Override
+            public Photo run() throws IOException, InterruptedException {
+                long hash = decoder.hash(uri);
+                ColorReading cached = mCache.get(methodKey(ResultCache.photoKey(hash,
+                        decoder.getReqWidth(), decoder.getReqHeight())));
+                if (cached != null) {
+                    post(mLoadGeneration, generation, new Delivery<ColorReading>() {
+                        @Override
+                        public void deliver(ColorReading reading) {
+                            callback.onCachedReading(reading);
+                        }
+                    }, cached);
+                }
+                long start = PerformanceTrace.begin(PerformanceTrace.DECODE);
+                try {
+                    return decoder.decode(uri, hash);
+                } finally {
+                    PerformanceTrace.end(PerformanceTrace.DECODE, start);
+                }
+            }
+        }, new Delivery<Photo>() {
+            @Override
+            public void deliver(Photo photo) {
+                callback.onPhotoLoaded(photo);
+            }
+        });
+    }
+
+    /**
+     * Method to build the {@link ColorIndex} of a photo in background. Must be called from the
+     * UI thread. The build is cancelled if another photo is loaded.
+     *
+     * @param photo {@link Photo} to index
+     * @param callback {@link IndexCallback} called in the UI thread with the index
+     */
+    public void buildIndex(final Photo photo, final IndexCallback callback) {
+        mPendingIndex = submit(mLoadGeneration, new Job<ColorIndex>() {
+            @Override
+            public ColorIndex run() throws InterruptedException {
+                Bitmap bitmap = photo.getBitmap();
+                int width = bitmap.getWidth();
+                int height = bitmap.getHeight();
+                ColorIndex.Builder builder = new ColorIndex.Builder(width, height);
+                int[] row = new int[width];
+                for (int y = 0; y < height; y += builder.getStep()) {
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    bitmap.getPixels(row, 0, width, 0, y, width, 1);
+                    builder.addRow(row);
+                }
+                return builder.build();
+            }
+        }, new Delivery<ColorIndex>() {
+            @Override
+            public void deliver(ColorIndex index) {
+                callback.onIndexBuilt(index);
+            }
+        });
+    }
+
+    /**
+     * Method to analyze a part of a photo in background. Must be called from the UI thread.
+     *
+     * @param bitmap Bitmap: photo
+     * @param left int: rect coordinates from left. Default is 0
+     * @param top int: rect coordinates from top. Default is 0
+     * @param right int: rect coordinates from right. Default is bitmap width
+     * @param bottom int: rect coordinates from bottom. Default is bitmap height
+     * @param cacheKey String: {@link ResultCache} key of the reading, null to not cache it
+     * @param callback {@link Callback} called in the UI thread with the result
+     */
+    public void analyze(final Bitmap bitmap, final int left, final int top, final int right,
+                        final int bottom, String cacheKey, final Callback callback) {
+        cancel();
+        final String key = methodKey(cacheKey);
+        mPending = submit(mGeneration, new Job<ColorReading>() {
+            @Override
+            public ColorReading run() throws InterruptedException {
+                ColorReading reading = key != null ? mCache.get(key) : null;
+                if (reading == null) {
+                    reading = analyzeImg(bitmap, left, top, right, bottom);
+                    if (key != null && !mAdaptiveSampling) {
+                        mCache.put(key, reading);
+                    }
+                }
+                return reading;
+            }
+        }, readingDelivery(callback));
+    }
+
+    /**
+     * Method to analyze several parts of a photo in background, in a single scan of the rows
+     * under them. Must be called from the UI thread. Every part gets the mean color reading
+     * of its pixels, as if it was analyzed alone; the readings are not cached, and neither
+     * adaptive sampling nor the circular mean hue apply to them.
+     *
+     * @param bitmap Bitmap: photo
+     * @param regions int[]: left, top, right and bottom of every part, in bitmap coordinates
+     *                inside the photo
+     * @param callback {@link RegionsCallback} called in the UI thread with the results
+     */
+    public void analyzeRegions(final Bitmap bitmap, final int[] regions,
+                               final RegionsCallback callback) {
+        cancel();
+        mPending = submit(mGeneration, new Job<ColorReading[]>() {
+            @Override
+            public ColorReading[] run() throws InterruptedException {
+                final AtomicLong pixelsNanos = new AtomicLong();
+                PixelSource pixels = new PixelSource() {
+                    @Override
+                    public void getPixels(int[] buffer, int x, int y, int w, int h) {
+                        long start = PerformanceTrace.begin(PerformanceTrace.PIXELS);
+                        bitmap.getPixels(buffer, 0, w, x, y, w, h);
+                        pixelsNanos.addAndGet(PerformanceTrace.stop(start));
+                    }
+                };
+                long start = PerformanceTrace.begin(PerformanceTrace.SCAN);
+                try {
+                    return mRegionScanner.analyzeRegions(pixels, regions);
+                } finally {
+                    PerformanceTrace.end(PerformanceTrace.SCAN, start);
+                    PerformanceTrace.PIXELS.record(pixelsNanos.get());
+                }
+            }
+        }, new Delivery<ColorReading[]>() {
+            @Override
+            public void deliver(ColorReading[] readings) {
+                callback.onRegionsAnalyzed(readings);
+            }
+        });
+    }
+
+    /**
+     * Method to analyze a region of the original image in background, decoded at full
+     * resolution. Must be called from the UI thread.
+     *
+     * @param decoder {@link PhotoDecoder} to decode the region with
+     * @param photo {@link Photo}: photo the region belongs to
+     * @param region Rect: region in original image coordinates
+     * @param callback {@link Callback} called in the UI thread with the result
+     */
+    public void analyzeRegion(final PhotoDecoder decoder, final Photo photo, final Rect region,
+                              final Callback callback) {
+        cancel();
+        mPending = submit(mGeneration, regionJob(decoder, photo, region),
+                readingDelivery(callback));
+    }
+
+    /**
+     * Method to analyze a region of the original image in background while the selection
+     * rectangle is still changing. Must be called from the UI thread. Unlike
+     * {@link #analyzeRegion} the running analysis is not interrupted, so readings keep coming
+     * while dragging; regions waiting for it are replaced, so only the newest one is analyzed.
+     *
+     * @param decoder {@link PhotoDecoder} to decode the region with
+     * @param photo {@link Photo}: photo the region belongs to
+     * @param region Rect: region in original image coordinates
+     * @param callback {@link Callback} called in the UI thread with the result
+     */
+    public void previewRegion(final PhotoDecoder decoder, final Photo photo, final Rect region,
+                              final Callback callback) {
+        final Runnable task = task(mGeneration, regionJob(decoder, photo, region),
+                readingDelivery(callback));
+        //If a preview was already waiting, the waiting drain will run this one instead
+        if (mLatestPreview.getAndSet(task) == null) {
+            mExecutor.execute(mDrainPreview);
+        }
+    }
+
+    /**
+     * Method to create the job that decodes a region of the original image and analyzes it
+     *
+     * @param decoder {@link PhotoDecoder} to decode the region with
+     * @param photo {@link Photo}: photo the region belongs to
+     * @param region Rect: region in original image coordinates
+     * @return job {@link Job}
+     */
+    private Job<ColorReading> regionJob(final PhotoDecoder decoder, final Photo photo,
+                                               final Rect region) {
+        final String cacheKey = photo.getContentHash() == 0 ? null :
+                methodKey(ResultCache.regionKey(photo.getContentHash(), region.left,
+                        region.top, region.right, region.bottom));
+        return new Job<ColorReading>() {
+            @Override
+            public ColorReading run() throws IOException, InterruptedException {
+                ColorReading reading = cacheKey != null ? mCache.get(cacheKey) : null;
+                if (reading != null) {
+                    return reading;
+                }
+                long start = PerformanceTrace.begin(PerformanceTrace.DECODE_REGION);
+                Bitmap bitmap;
+                try {
+                    bitmap = decoder.decodeRegion(photo, region);
+                } finally {
+                    PerformanceTrace.end(PerformanceTrace.DECODE_REGION, start);
+                }
+                try {
+                    reading = analyzeImg(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight());
+                } finally {
+                    decoder.recycle(bitmap);
+                }
+                if (cacheKey != null && !mAdaptiveSampling) {
+                    mCache.put(cacheKey, reading);
+                }
+                return reading;
+            }
+        };
+    }
+
+    private static Delivery<ColorReading> readingDelivery(final Callback callback) {
+        return new Delivery<ColorReading>() {
+            @Override
+            public void deliver(ColorReading reading) {
+                callback.onAnalysisFinished(reading);
+            }
+        };
+    }
+
+    /**
+     * Method to give back to the decoder the bitmap of a photo that is not displayed anymore.
+     * It is done in the worker thread, after the jobs that may still be using it.
+     *
+     * @param decoder {@link PhotoDecoder} that decoded the photo
+     * @param photo {@link Photo} not needed anymore
+     */
+    public void recyclePhoto(final PhotoDecoder decoder, final Photo photo) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                decoder.recycle(photo.getBitmap());
+            }
+        });
+    }
+
+    /**
+     * Method to read the readings cached in previous runs. It is done in the worker thread,
+     * before any photo submitted later is looked up.
+     *
+     * @param file File: cache file
+     */
+    public void loadCache(final File file) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mCache.load(file);
+            }
+        });
+    }
+
+    /**
+     * Method to save the cached readings for the next runs. It is done in the worker thread,
+     * after the jobs that may still add readings.
+     *
+     * @param file File: cache file
+     */
+    public void saveCache(final File file) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mCache.save(file);
+                } catch (IOException e) {
+                    Log.e(TAG, e.toString());
+                }
+            }
+        });
+    }
+
+    /**
+     * Method to cancel the running or waiting analysis, if any. Its result will never be
+     * reported.
+     */
+    public void cancel() {
+        mGeneration.incrementAndGet();
+        mLatestPreview.set(null);
+        if (mPending != null) {
+            mPending.cancel(true);
+            mPending = null;
+        }
+    }
+
+    /**
+     * Method to cancel pending jobs and stop the worker thread once photos waiting to be
+     * recycled are given back
+     */
+    public void shutdown() {
+        cancel();
+        mLoadGeneration.incrementAndGet();
+        if (mPendingLoad != null) {
+            mPendingLoad.cancel(true);
+        }
+        if (mPendingIndex != null) {
+            mPendingIndex.cancel(true);
+        }
+        //Every job was cancelled, let the worker give back the photos it was asked to
+        mExecutor.shutdown();
+        mScanExecutor.shutdownNow();
+    }
+
+    /**
+     * Method to run a job in the worker thread and deliver its result in the UI thread, unless
+     * a newer job of the same kind was submitted in the meantime
+     *
+     * @param generations AtomicInteger: counter of submitted jobs of this kind
+     * @param job {@link Job} to run
+     * @param delivery {@link Delivery} of the result
+     * @return future Future: to cancel the job
+     */
+    private <T> Future<?> submit(AtomicInteger generations, Job<T> job, Delivery<T> delivery) {
+        return mExecutor.submit(task(generations, job, delivery));
+    }
+
+    /**
+     * Method to wrap a job in a task for the worker thread, which delivers its result in the
+     * UI thread unless a newer job of the same kind was submitted in the meantime
+     *
+     * @param generations AtomicInteger: counter of submitted jobs of this kind
+     * @param job {@link Job} to run
+     * @param delivery {@link Delivery} of the result
+     * @return task Runnable
+     */
+    private <T> Runnable task(final AtomicInteger generations, final Job<T> job,
+                              final Delivery<T> delivery) {
+        final int generation = generations.get();
+        return new Runnable() {
+            @Override
+            public void run() {
+                final T result;
+                try {
+                    result = job.run();
+                } catch (InterruptedException e) {
+                    //Superseded by a newer job
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, e.toString());
+                    return;
+                }
+                post(generations, generation, delivery, result);
+            }
+        };
+    }
+
+    /**
+     * Method to deliver a result in the UI thread unless a newer job of the same kind was
+     * submitted in the meantime
+     *
+     * @param generations AtomicInteger: counter of submitted jobs of this kind
+     * @param generation int: counter when the job was submitted
+     * @param delivery {@link Delivery} of the result
+     * @param result T: result of the job
+     */
+    private <T> void post(final AtomicInteger generations, final int generation,
+                          final Delivery<T> delivery, final T result) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                //Drop results that arrive after a newer job was submitted
+                if (generation == generations.get()) {
+                    delivery.deliver(result);
+                }
+            }
+        });
+    }
+
+    /**
+     * Method to analyze the selection rectangle of the photo
+     *
+     * @param bitmap Bitmap: photo
+     * @param left int: rect coordinates from left
+     * @param top int: rect coordinates from top
+     * @param right int: rect coordinates from right
+     * @param bottom int: rect coordinates from bottom
+     * @return reading {@link ColorReading}
+     * @throws InterruptedException if the job is cancelled
+     */
+    private ColorReading analyzeImg(final Bitmap bitmap, int left, int top, int right,
+                                    int bottom) throws InterruptedException {
+        int height; int width;
+
+        //Keep selection rectangle inside the photo
+        left = Math.max(0, Math.min(left, bitmap.getWidth() - 1));
+        top = Math.max(0, Math.min(top, bitmap.getHeight() - 1));
+        right = Math.min(right, bitmap.getWidth());
+        bottom = Math.min(bottom, bitmap.getHeight());
+
+        if(bottom-top < 1) {
+            height = bitmap.getHeight() - top;
+        } else {
+            height = bottom-top;
+        }
+        if(right-left < 1) {
+            width = bitmap.getWidth() - left;
+        } else {
+            width = right-left;
+        }
+        //Read the selection rectangle straight from the photo in strips, without copying it
+        final int regionLeft = left;
+        final int regionTop = top;
+        final AtomicLong pixelsNanos = new AtomicLong();
+        PixelSource pixels = new PixelSource() {
+            @Override
+            public void getPixels(int[] buffer, int x, int y, int w, int h) {
+                long start = PerformanceTrace.begin(PerformanceTrace.PIXELS);
+                bitmap.getPixels(buffer, 0, w, regionLeft + x, regionTop + y, w, h);
+                //Strips of every thread add up to a single sample per analysis
+                pixelsNanos.addAndGet(PerformanceTrace.stop(start));
+            }
+        };
+        long start = PerformanceTrace.begin(PerformanceTrace.SCAN);
+        try {
+            if (mAdaptiveSampling) {
+                SampledReading sampled = mSampler.analyze(pixels, width, height);
+                Log.d(TAG, "Adaptive sampling: " + sampled);
+                return sampled.getReading();
+            }
+            if (mTrimmedMean) {
+                return mTiledAnalyzer.histogram(pixels, width, height, ColorAnalyzer.THRESHOLD)
+                        .getStatistics().toTrimmedReading(TRIM_FRACTION);
+            }
+            if (mCircularHue) {
+                return mTiledAnalyzer.hueHistogram(pixels, width, height).toReading();
+            }
+            return mTiledAnalyzer.analyze(pixels, width, height);
+        } finally {
+            PerformanceTrace.end(PerformanceTrace.SCAN, start);
+            PerformanceTrace.PIXELS.record(pixelsNanos.get());
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.content.ClipData;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * Batch activity.
+ *
+ * In this activity many photos from the gallery are analyzed at once, and their results are
+ * displayed in a table as they finish, with the progress and the photos analyzed per second.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class BatchActivity extends AppCompatActivity {
+
+    static final int REQUEST_IMAGES_PICK = 3;
+    //Part of the app memory that photos being analyzed can use
+    static final int MEMORY_BUDGET_FRACTION = 2;
+    private static final String TAG = "BatchActivity";
+
+    private BatchPipeline<Uri, Bitmap> mPipeline = null;
+    private PhotoDecoder mPhotoDecoder = null;
+    private BitmapPool mBitmapPool = null;
+    private ArrayAdapter<String> mResults;
+
+    /**
+     * Constructor
+     *
+     * Initialize batch activity and launch the gallery to select the photos
+     *
+     * @param savedInstanceState Bundle
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_batch);
+        mResults = new ArrayAdapter<>(this, R.layout.item_batch_result);
+        ListView resultsView = findViewById(R.id.batchResults);
+        resultsView.setAdapter(mResults);
+
+        Intent intentGallery = new Intent();
+        // Show only images, no videos or anything else
+        intentGallery.setType("image/*");
+        intentGallery.setAction(Intent.ACTION_GET_CONTENT);
+        intentGallery.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+        startActivityForResult(Intent.createChooser(intentGallery, "Select Pictures"),
+                REQUEST_IMAGES_PICK);
+    }
+
+    /**
+     * Called when the gallery exits with the selected photos
+     *
+     * @param requestCode int: The integer request code originally supplied to
+     *                    startActivityForResult()
+     * @param resultCode int: The integer result code returned by the gallery
+     * @param data Intent: selected photos, in its data or its clip data if many
+     */
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+
+        //If no photos selected return to main activity
+        if (requestCode != REQUEST_IMAGES_PICK || resultCode != RESULT_OK || data == null) {
+            finish();
+            return;
+        }
+
+        List<Uri> uris = new ArrayList<>();
+        ClipData clip = data.getClipData();
+        if (clip != null) {
+            for (int i = 0; i < clip.getItemCount(); i++) {
+                uris.add(clip.getItemAt(i).getUri());
+            }
+        } else if (data.getData() != null) {
+            uris.add(data.getData());
+        }
+        if (uris.isEmpty()) {
+            finish();
+            return;
+        }
+        startBatch(uris);
+    }
+
+    /**
+     * Stop the batch when the activity is destroyed
+     */
+    @Override
+    protected void onDestroy() {
+        if (mPipeline != null) {
+            mPipeline.cancel();
+        }
+        if (mBitmapPool != null) {
+            Log.i(TAG, mBitmapPool.toString());
+            mBitmapPool.clear();
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Method to analyze photos in background, with as many decoders and analyzers as the
+     * cores and memory allow
+     *
+     * @param uris List: photos to analyze
+     */
+    private void startBatch(List<Uri> uris) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        long budget = Runtime.getRuntime().maxMemory() / MEMORY_BUDGET_FRACTION;
+        int[] stages = BatchPipeline.sizeStages(cores, budget,
+                Subsampling.BYTES_PER_ANALYZED_PHOTO);
+        Log.i(TAG, "Decoders " + stages[0] + ", analyzers " + stages[1] + ", queue " +
+                stages[2]);
+
+        //Photos are only decoded with the pixels the analysis needs, reusing bitmaps
+        mBitmapPool = new BitmapPool(budget / 2);
+        mPhotoDecoder = new PhotoDecoder(getContentResolver(), 0, 0, mBitmapPool);
+        final ProgressBar progressBar = findViewById(R.id.batchProgress);
+        progressBar.setMax(uris.size());
+        final TextView statusView = findViewById(R.id.batchStatus);
+        final long start = System.nanoTime();
+
+        mPipeline = new BatchPipeline<>(new BatchPipeline.Decoder<Uri, Bitmap>() {
+            @Override
+            public Bitmap decode(Uri uri) throws IOException, InterruptedException {
+                return mPhotoDecoder.decode(uri).getBitmap();
+            }
+        }, new BatchPipeline.Analyzer<Bitmap>() {
+            //Strip buffer of every analyzer
+            private final ThreadLocal<StripScanner> mScanners = new ThreadLocal<StripScanner>() {
+                @Override
+                protected StripScanner initialValue() {
+                    return new StripScanner(StripScanner.DEFAULT_STRIP_PIXELS);
+                }
+            };
+
+            @Override
+            public ColorReading analyze(final Bitmap bitmap) throws InterruptedException {
+                return mScanners.get().analyze(new PixelSource() {
+                    @Override
+                    public void getPixels(int[] buffer, int x, int y, int width, int height) {
+                        bitmap.getPixels(buffer, 0, width, x, y, width, height);
+                    }
+                }, bitmap.getWidth(), bitmap.getHeight());
+            }
+
+            @Override
+            public void release(Bitmap bitmap) {
+                mPhotoDecoder.recycle(bitmap);
+            }
+        }, new BatchPipeline.Listener<Uri>() {
+            private final MeasurementHistory mHistory =
+                    MeasurementHistory.getInstance(BatchActivity.this);
+
+            @Override
+            public void onRecorded(final BatchResult<Uri> result, final int done,
+                                   final int total) {
+                if (result.getReading() != null) {
+                    mHistory.record(new Measurement(0, System.currentTimeMillis(),
+                            result.getKey().toString(), null, result.getReading()));
+                }
+                final double seconds = (System.nanoTime() - start) / 1e9;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mResults.add(formatResult(result));
+                        progressBar.setProgress(done);
+                        statusView.setText(getString(R.string.batch_progress, done, total,
+                                done / seconds));
+                    }
+                });
+            }
+
+            @Override
+            public void onFinished(final int total, long elapsedNanos) {
+                mHistory.flush();
+                final double seconds = elapsedNanos / 1e9;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        statusView.setText(getString(R.string.batch_finished, total, seconds,
+                                total / seconds));
+                    }
+                });
+            }
+        }, AnalysisEngine.backgroundThreads(TAG), stages[0], stages[1], stages[2]);
+        mPipeline.start(uris);
+    }
+
+    /**
+     * Method to format a result as a row of the table, with the same columns as the header
+     *
+     * @param result {@link BatchResult}
+     * @return row String
+     */
+    private String formatResult(BatchResult<Uri> result) {
+        String name = result.getKey().getLastPathSegment();
+        ColorReading reading = result.getReading();
+        if (reading == null) {
+            Log.w(TAG, name + ": " + result.getError());
+            return String.format(Locale.US, "%-18.18s %s", name, getString(R.string.batch_failed));
+        }
+        String scale = reading.hasValue() ? String.valueOf(reading.getScale()) : "N/A";
+        return String.format(Locale.US, "%-18.18s %5s %3d %3d %3d", name, scale,
+                reading.getRed(), reading.getGreen(), reading.getBlue());
+    }
+}
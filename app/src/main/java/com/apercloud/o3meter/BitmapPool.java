@@ -0,0 +1,198 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+
+/**
+ * Pool of bitmaps to reuse their memory.
+ *
+ * Bitmaps that are not needed anymore are kept in buckets by size (powers of 2 of their byte
+ * count) and given back when a bitmap of the same size or a bit smaller is needed, to decode
+ * into with inBitmap or to draw into. The pool never keeps more than its maximum size; the
+ * least recently returned bitmaps are recycled first. Hits and misses are counted to know
+ * how many bitmaps are still allocated.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class BitmapPool {
+
+    //Bitmaps are only reused for sizes of their bucket or up to two buckets below, so big
+    //bitmaps are not taken for small ones
+    private static final int MAX_BUCKET_SPAN = 2;
+    private static final int BUCKETS = 32;
+
+    private final long mMaxBytes;
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Bitmap>[] mBuckets = new ArrayDeque[BUCKETS];
+    //Every pooled bitmap, least recently returned first
+    private final ArrayDeque<Bitmap> mLru = new ArrayDeque<>();
+    private long mBytes = 0;
+    private int mHits = 0;
+    private int mMisses = 0;
+    private int mEvictions = 0;
+
+    /**
+     * Constructor
+     *
+     * @param maxBytes long: maximum size of the pooled bitmaps
+     */
+    public BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+        for (int i = 0; i < BUCKETS; i++) {
+            mBuckets[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Method to get a bitmap to decode into with inBitmap. It can be bigger than the size
+     * asked, which BitmapFactory changes to the decoded dimensions. BitmapRegionDecoder
+     * doesn't, it decodes into the top left corner and keeps the old pixels around, so
+     * regions must be decoded into a bitmap of their size from {@link #get}.
+     *
+     * @param width int: width of the decoded bitmap
+     * @param height int: height of the decoded bitmap
+     * @param config Bitmap.Config: configuration of the decoded bitmap
+     * @return bitmap Bitmap: mutable bitmap with enough memory, null if there is none
+     */
+    public synchronized Bitmap getReusable(int width, int height, Bitmap.Config config) {
+        long bytes = (long) width * height * bytesPerPixel(config);
+        int first = bucket(bytes);
+        for (int i = first; i < BUCKETS && i <= first + MAX_BUCKET_SPAN; i++) {
+            Iterator<Bitmap> bucket = mBuckets[i].iterator();
+            while (bucket.hasNext()) {
+                Bitmap bitmap = bucket.next();
+                if (bitmap.getAllocationByteCount() >= bytes) {
+                    bucket.remove();
+                    mLru.removeFirstOccurrence(bitmap);
+                    mBytes -= bitmap.getAllocationByteCount();
+                    mHits++;
+                    return bitmap;
+                }
+            }
+        }
+        mMisses++;
+        return null;
+    }
+
+    /**
+     * Method to get a bitmap to draw into, from the pool if there is one big enough
+     *
+     * @param width int: bitmap width
+     * @param height int: bitmap height
+     * @param config Bitmap.Config: bitmap configuration
+     * @return bitmap Bitmap: mutable bitmap of that size, its pixels are not cleared
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = getReusable(width, height, config);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.reconfigure(width, height, config);
+        return bitmap;
+    }
+
+    /**
+     * Method to give a bitmap back to the pool. Bitmaps that can't be reused are recycled.
+     * The bitmap must not be used anymore after this.
+     *
+     * @param bitmap Bitmap: bitmap not needed anymore, can be null
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        long bytes = bitmap.getAllocationByteCount();
+        if (!bitmap.isMutable() || bytes > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        mBuckets[bucket(bytes)].addLast(bitmap);
+        mLru.addLast(bitmap);
+        mBytes += bytes;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Method to recycle the least recently returned bitmaps until the pool fits a size
+     *
+     * @param maxBytes long: size the pool must fit
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        while (mBytes > maxBytes && !mLru.isEmpty()) {
+            Bitmap bitmap = mLru.removeFirst();
+            mBuckets[bucket(bitmap.getAllocationByteCount())].remove(bitmap);
+            mBytes -= bitmap.getAllocationByteCount();
+            mEvictions++;
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Method to recycle every pooled bitmap
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized int getHits() {
+        return mHits;
+    }
+
+    public synchronized int getMisses() {
+        return mMisses;
+    }
+
+    public synchronized int getEvictions() {
+        return mEvictions;
+    }
+
+    public synchronized long getSize() {
+        return mBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool[hits=" + mHits + ", misses=" + mMisses + ", evictions=" +
+                mEvictions + ", size=" + mBytes + "/" + mMaxBytes + "]";
+    }
+
+    /**
+     * Method to get the bucket of a size
+     *
+     * @param bytes long: size in bytes
+     * @return bucket int: log2 of the size
+     */
+    private static int bucket(long bytes) {
+        return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, bytes)));
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        }
+        return 4;
+    }
+}
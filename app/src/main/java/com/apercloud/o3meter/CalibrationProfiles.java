@@ -0,0 +1,142 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Calibration profiles of the indicator paper.
+ *
+ * Every batch of paper has a CSV file of reference points (see {@link Calibration#read}) in
+ * the calibrations folder of the app external files, named after the batch. The chosen
+ * profile is remembered, and is fitted once when it is chosen or the app starts; readings
+ * then only read its table.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class CalibrationProfiles {
+
+    private static final String TAG = "CalibrationProfiles";
+    private static final String DIRECTORY = "calibrations";
+    private static final String EXTENSION = ".csv";
+    private static final String PREFERENCES = "calibration";
+    private static final String KEY_SELECTED = "selected";
+
+    private final File mDirectory;
+    private final SharedPreferences mPreferences;
+
+    /**
+     * Constructor
+     *
+     * @param context Context: to find the profiles and the chosen one
+     */
+    public CalibrationProfiles(Context context) {
+        mDirectory = context.getExternalFilesDir(DIRECTORY);
+        mPreferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Method to get the names of the available profiles, sorted
+     *
+     * @return names List: profile names, without the default calibration
+     */
+    public List<String> list() {
+        List<String> names = new ArrayList<>();
+        File[] files = mDirectory != null ? mDirectory.listFiles() : null;
+        if (files == null) {
+            return names;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && name.endsWith(EXTENSION)) {
+                names.add(name.substring(0, name.length() - EXTENSION.length()));
+            }
+        }
+        String[] sorted = names.toArray(new String[names.size()]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    /**
+     * Method to get the name of the chosen profile
+     *
+     * @return name String: profile name, null for the default calibration
+     */
+    public String getSelected() {
+        return mPreferences.getString(KEY_SELECTED, null);
+    }
+
+    /**
+     * Method to fit a profile and make it the calibration of readings. The choice is
+     * remembered only if the profile is valid.
+     *
+     * @param name String: profile name, null for the default calibration
+     * @throws IOException if the profile can't be read or is not valid
+     */
+    public void select(String name) throws IOException {
+        Calibration.setActive(load(name));
+        mPreferences.edit().putString(KEY_SELECTED, name).apply();
+    }
+
+    /**
+     * Method to make the chosen profile the calibration of readings. If it can't be loaded,
+     * readings use the default calibration.
+     */
+    public void activateSelected() {
+        String name = getSelected();
+        try {
+            Calibration.setActive(load(name));
+        } catch (IOException e) {
+            Log.e(TAG, "Can't load calibration " + name, e);
+            Calibration.setActive(Calibration.DEFAULT);
+        }
+    }
+
+    /**
+     * Method to read and fit a profile
+     *
+     * @param name String: profile name, null for the default calibration
+     * @return calibration {@link Calibration}
+     * @throws IOException if the profile can't be read or is not valid
+     */
+    private Calibration load(String name) throws IOException {
+        if (name == null) {
+            return Calibration.DEFAULT;
+        }
+        if (mDirectory == null) {
+            throw new IOException("No external storage");
+        }
+        Reader in = new FileReader(new File(mDirectory, name + EXTENSION));
+        try {
+            return Calibration.read(name, in);
+        } finally {
+            in.close();
+        }
+    }
+}
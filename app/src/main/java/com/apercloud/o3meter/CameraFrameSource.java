@@ -0,0 +1,272 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Frames of the camera preview.
+ *
+ * The back camera streams YUV_420_888 frames to an ImageReader, and also to a SurfaceTexture
+ * to display the preview. Frames are handed to the listener in a background thread straight
+ * from the camera buffers, without copying; if the listener is still busy with a frame when
+ * new ones arrive, only the newest one is sent.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class CameraFrameSource implements FrameSource {
+
+    private static final String TAG = "CameraFrameSource";
+    //Frames are streamed at the size closest to this, plenty of pixels for the mean color
+    static final int FRAME_PIXELS = 640 * 480;
+    //Frames the camera can fill while one is analyzed
+    private static final int MAX_IMAGES = 3;
+
+    private final CameraManager mCameraManager;
+    private final SurfaceTexture mPreview;
+    private final YuvFrame mFrame = new YuvFrame();
+    private HandlerThread mThread = null;
+    private Handler mHandler = null;
+    private ImageReader mReader = null;
+    private CameraDevice mCamera = null;
+    private CameraCaptureSession mSession = null;
+    private Size mSize = null;
+
+    /**
+     * Constructor
+     *
+     * @param context Context
+     * @param preview SurfaceTexture: where the preview is displayed, null to not display it
+     */
+    public CameraFrameSource(Context context, SurfaceTexture preview) {
+        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mPreview = preview;
+    }
+
+    @Override
+    public synchronized void start(final Listener listener) throws IOException {
+        String cameraId;
+        try {
+            cameraId = backCamera();
+            StreamConfigurationMap map = mCameraManager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            mSize = frameSize(map.getOutputSizes(ImageFormat.YUV_420_888));
+        } catch (CameraAccessException e) {
+            throw new IOException(e);
+        }
+
+        mThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mReader = ImageReader.newInstance(mSize.getWidth(), mSize.getHeight(),
+                ImageFormat.YUV_420_888, MAX_IMAGES);
+        mReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(ImageReader reader) {
+                //Frames that arrived meanwhile are skipped
+                Image image = reader.acquireLatestImage();
+                if (image == null) {
+                    return;
+                }
+                try {
+                    Image.Plane[] planes = image.getPlanes();
+                    mFrame.set(image.getWidth(), image.getHeight(), planes[0].getBuffer(),
+                            planes[0].getRowStride(), planes[1].getBuffer(),
+                            planes[2].getBuffer(), planes[1].getRowStride(),
+                            planes[1].getPixelStride(), image.getTimestamp());
+                    listener.onFrame(mFrame);
+                } finally {
+                    image.close();
+                }
+            }
+        }, mHandler);
+
+        try {
+            mCameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(CameraDevice camera) {
+                    synchronized (CameraFrameSource.this) {
+                        //Stopped while the camera was opening
+                        if (mThread == null) {
+                            camera.close();
+                            return;
+                        }
+                        mCamera = camera;
+                        startSession();
+                    }
+                }
+
+                @Override
+                public void onDisconnected(CameraDevice camera) {
+                    camera.close();
+                }
+
+                @Override
+                public void onError(CameraDevice camera, int error) {
+                    Log.e(TAG, "Camera error " + error);
+                    camera.close();
+                }
+            }, mHandler);
+        } catch (CameraAccessException | SecurityException e) {
+            stop();
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        HandlerThread thread;
+        synchronized (this) {
+            if (mSession != null) {
+                mSession.close();
+                mSession = null;
+            }
+            if (mCamera != null) {
+                mCamera.close();
+                mCamera = null;
+            }
+            thread = mThread;
+            mThread = null;
+        }
+        if (thread != null) {
+            //Wait for the frame being analyzed before the reader frees the camera buffers
+            thread.quitSafely();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (mReader != null) {
+                mReader.close();
+                mReader = null;
+            }
+        }
+    }
+
+    /**
+     * Method to stream the frames of the opened camera to the reader and the preview
+     */
+    private void startSession() {
+        final List<Surface> surfaces = new ArrayList<>();
+        surfaces.add(mReader.getSurface());
+        if (mPreview != null) {
+            mPreview.setDefaultBufferSize(mSize.getWidth(), mSize.getHeight());
+            surfaces.add(new Surface(mPreview));
+        }
+        try {
+            mCamera.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession session) {
+                    synchronized (CameraFrameSource.this) {
+                        if (mCamera == null) {
+                            session.close();
+                            return;
+                        }
+                        mSession = session;
+                        try {
+                            CaptureRequest.Builder request = mCamera.createCaptureRequest(
+                                    CameraDevice.TEMPLATE_PREVIEW);
+                            for (Surface surface : surfaces) {
+                                request.addTarget(surface);
+                            }
+                            request.set(CaptureRequest.CONTROL_AF_MODE,
+                                    CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+                            session.setRepeatingRequest(request.build(), null, mHandler);
+                        } catch (CameraAccessException | IllegalStateException e) {
+                            Log.e(TAG, e.toString());
+                        }
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession session) {
+                    Log.e(TAG, "Can't configure camera session");
+                }
+            }, mHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, e.toString());
+        }
+    }
+
+    /**
+     * Method to find the back camera
+     *
+     * @return cameraId String: back camera, or the first one if there is none
+     * @throws CameraAccessException if the cameras can't be listed
+     * @throws IOException if there is no camera
+     */
+    private String backCamera() throws CameraAccessException, IOException {
+        String[] ids = mCameraManager.getCameraIdList();
+        if (ids.length == 0) {
+            throw new IOException("No camera");
+        }
+        for (String id : ids) {
+            Integer facing = mCameraManager.getCameraCharacteristics(id)
+                    .get(CameraCharacteristics.LENS_FACING);
+            if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                return id;
+            }
+        }
+        return ids[0];
+    }
+
+    /**
+     * Method to choose the frame size with the number of pixels closest to
+     * {@link #FRAME_PIXELS}
+     *
+     * @param sizes Size[]: sizes the camera can stream
+     * @return size Size
+     */
+    static Size frameSize(Size[] sizes) {
+        Size best = sizes[0];
+        for (Size size : sizes) {
+            if (Math.abs((long) size.getWidth() * size.getHeight() - FRAME_PIXELS) <
+                    Math.abs((long) best.getWidth() * best.getHeight() - FRAME_PIXELS)) {
+                best = size;
+            }
+        }
+        return best;
+    }
+}
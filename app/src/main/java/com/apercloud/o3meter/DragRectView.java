@@ -18,8 +18,10 @@ package com.apercloud.o3meter;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.text.TextPaint;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
@@ -29,24 +31,90 @@ import android.view.View;
 /**
  * Class to draw rectangle when click and drag over View and return coordinates of start and end points
  *
+ * The rectangles are kept in the coordinates of the image under the view, given by
+ * {@link #setImageMatrix}, so they stay over the same part of the image when it is zoomed or
+ * panned. With multiple selection every drag adds a rectangle, up to {@link #MAX_RECTS}, and
+ * tapping a rectangle removes it; otherwise a drag replaces the only rectangle. Labels are
+ * written into char buffers when rectangles or their values change, so drawing allocates
+ * nothing, and only the part of the view a rectangle covered and covers is invalidated.
+ *
  * @author AperCloud
  * @version 2018.0226
  */
 public class DragRectView extends View {
 
-    private Paint mRectPaint;
+    public static final int MAX_RECTS = 8;
 
-    private int mStartX = 0;
-    private int mStartY = 0;
-    private int mEndX = 0;
-    private int mEndY = 0;
-    private boolean mDrawRect = false;
+    //Longest label, a size of two ints like "  (-2147483648, -2147483648)"
+    private static final int LABEL_LENGTH = 28;
+    private static final int NO_VALUE = Integer.MIN_VALUE;
+    private static final int NOT_APPLICABLE = Integer.MIN_VALUE + 1;
+    private static final char[] NOT_APPLICABLE_LABEL = {'N', '/', 'A'};
+
+    private Paint mRectPaint;
     private TextPaint mTextPaint = null;
 
+    //Rectangles in image coordinates, their labels and values
+    private final RectF[] mRects = new RectF[MAX_RECTS];
+    private final char[][] mLabels = new char[MAX_RECTS][LABEL_LENGTH];
+    private final int[] mLabelLengths = new int[MAX_RECTS];
+    private final int[] mValues = new int[MAX_RECTS];
+    //Part of the view every rectangle was drawn on, with its label
+    private final Rect[] mDrawnBounds = new Rect[MAX_RECTS];
+    private int mCount = 0;
+    private boolean mMultiple = false;
+
+    //Drag in progress: where it started in image coordinates, where it was last seen in view
+    //coordinates, and the rectangle it changes, -1 until it moves
+    private boolean mDragging = false;
+    private float mStartX = 0;
+    private float mStartY = 0;
+    private float mLastX = 0;
+    private float mLastY = 0;
+    private int mActive = -1;
+
+    //Rectangles before the drag, shown again if the drag is cancelled
+    private int mPreviousCount = 0;
+    private final RectF mPrevious = new RectF();
+    private int mPreviousValue = NO_VALUE;
+
+    //Image to view coordinates, and back
+    private final Matrix mImageMatrix = new Matrix();
+    private final Matrix mInverse = new Matrix();
+    private final float[] mPoint = new float[2];
+    private final RectF mDrawnRect = new RectF();
+    private final Rect mDirty = new Rect();
+
     private OnUpCallback mCallback = null;
+    private OnMoveCallback mMoveCallback = null;
+    private OnRectsChangedCallback mRectsCallback = null;
 
     public interface OnUpCallback {
-        void onRectFinished(Rect rect);
+        /**
+         * Called when the rectangle is released, without multiple selection
+         *
+         * @param rect RectF: rectangle in image coordinates, empty if there was no drag
+         */
+        void onRectFinished(RectF rect);
+    }
+
+    public interface OnMoveCallback {
+        /**
+         * Called every time the rectangle changes while dragging. The rectangle is reused
+         * between calls, so it must be copied if it is kept.
+         *
+         * @param rect RectF: current rectangle in image coordinates
+         */
+        void onRectChanged(RectF rect);
+    }
+
+    public interface OnRectsChangedCallback {
+        /**
+         * Called when a rectangle is added or removed, with multiple selection
+         *
+         * @param added int: index of the rectangle added, -1 if one was removed
+         */
+        void onRectsChanged(int added);
     }
 
     public DragRectView(final Context context) {
@@ -73,6 +141,137 @@ public class DragRectView extends View {
         mCallback = callback;
     }
 
+    /**
+     * Sets callback for drag
+     *
+     * @param callback {@link OnMoveCallback}
+     */
+    public void setOnMoveCallback(OnMoveCallback callback) {
+        mMoveCallback = callback;
+    }
+
+    /**
+     * Sets callback for rectangles added or removed with multiple selection
+     *
+     * @param callback {@link OnRectsChangedCallback}
+     */
+    public void setOnRectsChangedCallback(OnRectsChangedCallback callback) {
+        mRectsCallback = callback;
+    }
+
+    /**
+     * Sets the transformation from the coordinates of the image under the view to view
+     * coordinates, redrawing the rectangles over the same part of the image
+     *
+     * @param matrix Matrix: image to view coordinates
+     */
+    public void setImageMatrix(Matrix matrix) {
+        mImageMatrix.set(matrix);
+        mImageMatrix.invert(mInverse);
+        for (int i = 0; i < mCount; i++) {
+            updateLabel(i);
+            measure(i, mDrawnBounds[i]);
+        }
+        invalidate();
+    }
+
+    /**
+     * Method to choose between several rectangles and a single one. Going back to a single
+     * rectangle keeps the first one.
+     *
+     * @param multiple boolean: <code>true</code> for multiple selection
+     */
+    public void setMultiple(boolean multiple) {
+        mMultiple = multiple;
+        if (!multiple) {
+            mCount = Math.min(mCount, 1);
+        }
+        for (int i = 0; i < mCount; i++) {
+            mValues[i] = NO_VALUE;
+            updateLabel(i);
+        }
+        invalidate();
+    }
+
+    public boolean isMultiple() {
+        return mMultiple;
+    }
+
+    /**
+     * Method to get the number of rectangles
+     *
+     * @return count int
+     */
+    public int getRectCount() {
+        return mCount;
+    }
+
+    /**
+     * Method to get a rectangle
+     *
+     * @param index int: rectangle, from 0 to {@link #getRectCount()} - 1
+     * @param out RectF: where the rectangle in image coordinates is stored
+     */
+    public void getRect(int index, RectF out) {
+        out.set(mRects[index]);
+    }
+
+    /**
+     * Method to get the rectangle, or the first one with multiple selection
+     *
+     * @param out RectF: where the rectangle in image coordinates is stored, empty if there is
+     *            none
+     */
+    public void getRect(RectF out) {
+        if (mCount > 0) {
+            out.set(mRects[0]);
+        } else {
+            out.setEmpty();
+        }
+    }
+
+    /**
+     * Method to show the reading of a rectangle in its label, with multiple selection
+     *
+     * @param index int: rectangle, from 0 to {@link #getRectCount()} - 1
+     * @param reading {@link ColorReading}: reading of the rectangle
+     */
+    public void setReading(int index, ColorReading reading) {
+        if (index >= mCount) {
+            return;
+        }
+        mValues[index] = reading.hasValue() ? reading.getScale() : NOT_APPLICABLE;
+        updateLabel(index);
+        invalidateRect(index);
+    }
+
+    /**
+     * Method to stop the drag in progress, if any, and show again the rectangles there were
+     * before it. Events are ignored until every finger is up.
+     *
+     * @return <code>true</code> if a rectangle was dragged, so readings of it may have been
+     *         given to the {@link OnMoveCallback}
+     */
+    public boolean cancelDrag() {
+        if (!mDragging) {
+            return false;
+        }
+        mDragging = false;
+        boolean moved = mActive >= 0;
+        mCount = mPreviousCount;
+        if (mActive >= 0 && mActive < mCount) {
+            mRects[mActive].set(mPrevious);
+            mValues[mActive] = mPreviousValue;
+            updateLabel(mActive);
+        }
+        mActive = -1;
+        for (int i = 0; i < mCount; i++) {
+            measure(i, mDrawnBounds[i]);
+        }
+        invalidate();
+        return moved;
+    }
+
     /**
      * Inits internal data
      */
@@ -85,6 +284,12 @@ public class DragRectView extends View {
         mTextPaint = new TextPaint();
         mTextPaint.setColor(getContext().getResources().getColor(android.R.color.holo_green_light));
         mTextPaint.setTextSize(20);
+
+        for (int i = 0; i < MAX_RECTS; i++) {
+            mRects[i] = new RectF();
+            mDrawnBounds[i] = new Rect();
+            mValues[i] = NO_VALUE;
+        }
     }
 
     /**
@@ -99,33 +304,75 @@ public class DragRectView extends View {
         switch (event.getAction()) {
             //On click
             case MotionEvent.ACTION_DOWN:
-                mDrawRect = false;
-                mStartX = (int) event.getX();
-                mStartY = (int) event.getY();
-                invalidate();
+                mDragging = true;
+                mActive = -1;
+                mPreviousCount = mCount;
+                mLastX = event.getX();
+                mLastY = event.getY();
+                toImage(mLastX, mLastY);
+                mStartX = mPoint[0];
+                mStartY = mPoint[1];
+                //A new drag hides the only rectangle
+                if (!mMultiple && mCount > 0) {
+                    mCount = 0;
+                    invalidate(mDrawnBounds[0]);
+                }
                 break;
 
             //On drag
             case MotionEvent.ACTION_MOVE:
-                final int x = (int) event.getX();
-                final int y = (int) event.getY();
-
-                if (!mDrawRect || Math.abs(x - mEndX) > 5 || Math.abs(y - mEndY) > 5) {
-                    mEndX = x;
-                    mEndY = y;
-                    invalidate();
+                if (!mDragging) {
+                    break;
                 }
+                final float x = event.getX();
+                final float y = event.getY();
 
-                mDrawRect = true;
+                if (mActive < 0 || Math.abs(x - mLastX) > 5 || Math.abs(y - mLastY) > 5) {
+                    if (mActive < 0) {
+                        startRect();
+                    }
+                    mLastX = x;
+                    mLastY = y;
+                    toImage(x, y);
+                    RectF rect = mRects[mActive];
+                    rect.set(Math.min(mStartX, mPoint[0]), Math.min(mStartY, mPoint[1]),
+                            Math.max(mStartX, mPoint[0]), Math.max(mStartY, mPoint[1]));
+                    updateLabel(mActive);
+                    invalidateRect(mActive);
+                    if (mMoveCallback != null) {
+                        mMoveCallback.onRectChanged(rect);
+                    }
+                }
                 break;
 
             //On release
             case MotionEvent.ACTION_UP:
-                if (mCallback != null) {
-                    mCallback.onRectFinished(new Rect(Math.min(mStartX, mEndX), Math.min(mStartY, mEndY),
-                            Math.max(mEndX, mStartX), Math.max(mEndY, mStartY)));
+                if (!mDragging) {
+                    break;
                 }
-                invalidate();
+                mDragging = false;
+                if (!mMultiple) {
+                    if (mCallback != null) {
+                        RectF rect = new RectF();
+                        getRect(rect);
+                        mCallback.onRectFinished(rect);
+                    }
+                } else if (mActive >= 0) {
+                    if (mRectsCallback != null) {
+                        mRectsCallback.onRectsChanged(mActive);
+                    }
+                } else {
+                    //Tapping a rectangle removes it
+                    toImage(event.getX(), event.getY());
+                    int tapped = findRect(mPoint[0], mPoint[1]);
+                    if (tapped >= 0) {
+                        removeRect(tapped);
+                        if (mRectsCallback != null) {
+                            mRectsCallback.onRectsChanged(-1);
+                        }
+                    }
+                }
+                mActive = -1;
                 break;
 
             default:
@@ -136,7 +383,181 @@ public class DragRectView extends View {
     }
 
     /**
-     * Method to draw rectangle on canvas
+     * Method to choose the rectangle a drag changes: the only one, a new one, or the last one
+     * when there are {@link #MAX_RECTS} already
+     */
+    private void startRect() {
+        if (!mMultiple) {
+            mActive = 0;
+        } else {
+            mActive = Math.min(mCount, MAX_RECTS - 1);
+        }
+        if (mActive < mPreviousCount) {
+            mPrevious.set(mRects[mActive]);
+            mPreviousValue = mValues[mActive];
+        }
+        if (mActive >= mCount) {
+            mCount = mActive + 1;
+            mDrawnBounds[mActive].setEmpty();
+        }
+        mValues[mActive] = NO_VALUE;
+    }
+
+    /**
+     * Method to find the rectangle at a point, the one drawn last if they overlap
+     *
+     * @param x float: x in image coordinates
+     * @param y float: y in image coordinates
+     * @return index int: rectangle, -1 if there is none
+     */
+    private int findRect(float x, float y) {
+        for (int i = mCount - 1; i >= 0; i--) {
+            if (mRects[i].contains(x, y)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Method to remove a rectangle, moving the next ones down and renumbering them
+     *
+     * @param index int: rectangle to remove
+     */
+    private void removeRect(int index) {
+        for (int i = index; i < mCount; i++) {
+            invalidate(mDrawnBounds[i]);
+        }
+        //Keep the removed objects at the end to reuse them
+        RectF rect = mRects[index];
+        char[] label = mLabels[index];
+        Rect bounds = mDrawnBounds[index];
+        for (int i = index; i < mCount - 1; i++) {
+            mRects[i] = mRects[i + 1];
+            mLabels[i] = mLabels[i + 1];
+            mValues[i] = mValues[i + 1];
+            mDrawnBounds[i] = mDrawnBounds[i + 1];
+        }
+        mCount--;
+        mRects[mCount] = rect;
+        mLabels[mCount] = label;
+        mDrawnBounds[mCount] = bounds;
+        mValues[mCount] = NO_VALUE;
+        for (int i = index; i < mCount; i++) {
+            updateLabel(i);
+        }
+    }
+
+    /**
+     * Method to map a point of the view to image coordinates, into mPoint
+     *
+     * @param x float: x in view coordinates
+     * @param y float: y in view coordinates
+     */
+    private void toImage(float x, float y) {
+        mPoint[0] = x;
+        mPoint[1] = y;
+        mInverse.mapPoints(mPoint);
+    }
+
+    /**
+     * Method to write the label of a rectangle: its size in view pixels like
+     * "  (120, 80)", or with multiple selection its number and value like "2: 85"
+     *
+     * @param index int: rectangle
+     */
+    private void updateLabel(int index) {
+        char[] label = mLabels[index];
+        int length = 0;
+        if (!mMultiple) {
+            mDrawnRect.set(mRects[index]);
+            mImageMatrix.mapRect(mDrawnRect);
+            label[length++] = ' ';
+            label[length++] = ' ';
+            label[length++] = '(';
+            length = appendInt(label, length, (int) mDrawnRect.width());
+            label[length++] = ',';
+            label[length++] = ' ';
+            length = appendInt(label, length, (int) mDrawnRect.height());
+            label[length++] = ')';
+        } else {
+            label[length++] = ' ';
+            length = appendInt(label, length, index + 1);
+            if (mValues[index] == NOT_APPLICABLE) {
+                label[length++] = ':';
+                label[length++] = ' ';
+                System.arraycopy(NOT_APPLICABLE_LABEL, 0, label, length,
+                        NOT_APPLICABLE_LABEL.length);
+                length += NOT_APPLICABLE_LABEL.length;
+            } else if (mValues[index] != NO_VALUE) {
+                label[length++] = ':';
+                label[length++] = ' ';
+                length = appendInt(label, length, mValues[index]);
+            }
+        }
+        mLabelLengths[index] = length;
+    }
+
+    /**
+     * Method to write the decimal digits of a number without allocating
+     *
+     * @param out char[]: where to write
+     * @param start int: position of the first digit
+     * @param value int: number, at most 10 digits with the sign
+     * @return end int: position after the last digit
+     */
+    static int appendInt(char[] out, int start, int value) {
+        long number = value;
+        if (number < 0) {
+            out[start++] = '-';
+            number = -number;
+        }
+        int digits = 1;
+        for (long n = number / 10; n > 0; n /= 10) {
+            digits++;
+        }
+        for (int i = start + digits - 1; i >= start; i--) {
+            out[i] = (char) ('0' + number % 10);
+            number /= 10;
+        }
+        return start + digits;
+    }
+
+    /**
+     * Method to get the part of the view a rectangle is drawn on, with its border and label
+     *
+     * @param index int: rectangle
+     * @param out Rect: where the bounds in view coordinates are stored
+     */
+    private void measure(int index, Rect out) {
+        mDrawnRect.set(mRects[index]);
+        mImageMatrix.mapRect(mDrawnRect);
+        float border = mRectPaint.getStrokeWidth() / 2 + 1;
+        float labelWidth = mTextPaint.measureText(mLabels[index], 0, mLabelLengths[index]);
+        out.set((int) Math.floor(mDrawnRect.left - border),
+                (int) Math.floor(Math.min(mDrawnRect.top, mDrawnRect.bottom - mTextPaint.getTextSize()) - border),
+                (int) Math.ceil(Math.max(mDrawnRect.right + labelWidth, mDrawnRect.right + border)),
+                (int) Math.ceil(mDrawnRect.bottom + mTextPaint.descent() + border));
+    }
+
+    /**
+     * Method to invalidate the part of the view a rectangle was drawn on and the part it is
+     * drawn on now
+     *
+     * @param index int: rectangle
+     */
+    private void invalidateRect(int index) {
+        measure(index, mDirty);
+        Rect drawn = mDrawnBounds[index];
+        if (!drawn.isEmpty()) {
+            invalidate(drawn);
+        }
+        invalidate(mDirty);
+        drawn.set(mDirty);
+    }
+
+    /**
+     * Method to draw the rectangles on canvas
      *
      * @param canvas Canvas: where we are drawing
      */
@@ -144,11 +565,12 @@ public class DragRectView extends View {
     protected void onDraw(final Canvas canvas) {
         super.onDraw(canvas);
 
-        if (mDrawRect) {
-            canvas.drawRect(Math.min(mStartX, mEndX), Math.min(mStartY, mEndY),
-                    Math.max(mEndX, mStartX), Math.max(mEndY, mStartY), mRectPaint);
-            canvas.drawText("  (" + Math.abs(mStartX - mEndX) + ", " + Math.abs(mStartY - mEndY) + ")",
-                    Math.max(mEndX, mStartX), Math.max(mEndY, mStartY), mTextPaint);
+        for (int i = 0; i < mCount; i++) {
+            mDrawnRect.set(mRects[i]);
+            mImageMatrix.mapRect(mDrawnRect);
+            canvas.drawRect(mDrawnRect, mRectPaint);
+            canvas.drawText(mLabels[i], 0, mLabelLengths[i], mDrawnRect.right,
+                    mDrawnRect.bottom, mTextPaint);
         }
     }
-}
\ No newline at end of file
+}
@@ -17,18 +17,24 @@
 package com.apercloud.o3meter;
 
 import android.Manifest;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.widget.Toolbar;
 import android.view.View;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.ImageButton;
+import android.widget.Toast;
+
+import java.io.IOException;
+import java.util.List;
 
 
 /**
@@ -44,6 +50,7 @@ public class MainActivity extends AppCompatActivity {
 
     public static final String EXTRA_MESSAGE = "";
     private static final int PERMISSIONS_ALL = 1;
+    private CalibrationProfiles mCalibrationProfiles;
 
     /**
      * Constructor
@@ -66,6 +73,8 @@ public class MainActivity extends AppCompatActivity {
             galleryBtn.setEnabled(false);
             requestAppPermissions();
         }
+        mCalibrationProfiles = new CalibrationProfiles(this);
+        mCalibrationProfiles.activateSelected();
     }
 
     /**
@@ -77,6 +86,9 @@ public class MainActivity extends AppCompatActivity {
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
+        //Live readings need the camera2 API
+        menu.findItem(R.id.action_preview).setVisible(
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
         return true;
     }
 
@@ -90,6 +102,23 @@ public class MainActivity extends AppCompatActivity {
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
 
+        if (id == R.id.action_preview) {
+            Intent intent = new Intent(this, PreviewActivity.class);
+            startActivity(intent);
+            return true;
+        }
+
+        if (id == R.id.action_batch) {
+            Intent intent = new Intent(this, BatchActivity.class);
+            startActivity(intent);
+            return true;
+        }
+
+        if (id == R.id.action_calibration) {
+            chooseCalibration();
+            return true;
+        }
+
         if (id == R.id.action_about) {
             Intent intent = new Intent(this, AboutActivity.class);
             startActivity(intent);
@@ -99,6 +128,42 @@ public class MainActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Method to show the calibration profiles and make the chosen one the calibration of
+     * readings
+     */
+    private void chooseCalibration() {
+        final List<String> profiles = mCalibrationProfiles.list();
+        String[] items = new String[profiles.size() + 1];
+        items[0] = getString(R.string.calibration_default);
+        int checked = 0;
+        String selected = mCalibrationProfiles.getSelected();
+        for (int i = 0; i < profiles.size(); i++) {
+            items[i + 1] = profiles.get(i);
+            if (profiles.get(i).equals(selected)) {
+                checked = i + 1;
+            }
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_calibration)
+                .setSingleChoiceItems(items, checked, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        dialog.dismiss();
+                        String name = which == 0 ? null : profiles.get(which - 1);
+                        try {
+                            mCalibrationProfiles.select(name);
+                        } catch (IOException e) {
+                            Toast.makeText(MainActivity.this, getString(
+                                    R.string.calibration_failed, name, e.getMessage()),
+                                    Toast.LENGTH_LONG).show();
+                        }
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
     /**
      * Method to handle the click on the button to obtain photo by camera
      *
@@ -0,0 +1,72 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.graphics.Rect;
+
+
+/**
+ * Reading stored in the {@link MeasurementHistory}.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class Measurement {
+
+    private final long mId;
+    private final long mTimestamp;
+    private final String mSource;
+    private final Rect mRoi;
+    private final ColorReading mReading;
+
+    /**
+     * Constructor
+     *
+     * @param id long: row id in the history, 0 if not stored yet
+     * @param timestamp long: when the reading was done, in milliseconds since the epoch
+     * @param source String: Uri of the photo
+     * @param roi Rect: analyzed region in original image coordinates, null for the whole photo
+     * @param reading {@link ColorReading}: result of the analysis
+     */
+    public Measurement(long id, long timestamp, String source, Rect roi, ColorReading reading) {
+        mId = id;
+        mTimestamp = timestamp;
+        mSource = source;
+        mRoi = roi;
+        mReading = reading;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public String getSource() {
+        return mSource;
+    }
+
+    public Rect getRoi() {
+        return mRoi;
+    }
+
+    public ColorReading getReading() {
+        return mReading;
+    }
+}
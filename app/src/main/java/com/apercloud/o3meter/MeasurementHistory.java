@@ -0,0 +1,270 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.Rect;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * History of every reading, stored in an on-device database.
+ *
+ * Readings are not written when they are recorded: they wait in memory and are written
+ * together, in a single transaction, by a background thread, so recording never slows down
+ * the UI. The history is indexed by time and by photo.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class MeasurementHistory extends SQLiteOpenHelper {
+
+    private static final String TAG = "MeasurementHistory";
+    static final String DATABASE_NAME = "history.db";
+    static final int DATABASE_VERSION = 1;
+    //Readings are written at most this long after they are recorded...
+    static final long FLUSH_DELAY_MS = 500;
+    //...or as soon as there are this many waiting
+    static final int BATCH_SIZE = 64;
+
+    static final String TABLE = "measurements";
+    static final String COLUMN_ID = "_id";
+    static final String COLUMN_TIMESTAMP = "timestamp";
+    static final String COLUMN_SOURCE = "source";
+    static final String COLUMN_ROI_LEFT = "roi_left";
+    static final String COLUMN_ROI_TOP = "roi_top";
+    static final String COLUMN_ROI_RIGHT = "roi_right";
+    static final String COLUMN_ROI_BOTTOM = "roi_bottom";
+    static final String COLUMN_RED = "red";
+    static final String COLUMN_GREEN = "green";
+    static final String COLUMN_BLUE = "blue";
+    static final String COLUMN_HUE = "hue";
+    static final String COLUMN_SCALE = "scale";
+
+    private static final String[] COLUMNS = {COLUMN_ID, COLUMN_TIMESTAMP, COLUMN_SOURCE,
+            COLUMN_ROI_LEFT, COLUMN_ROI_TOP, COLUMN_ROI_RIGHT, COLUMN_ROI_BOTTOM, COLUMN_RED,
+            COLUMN_GREEN, COLUMN_BLUE, COLUMN_HUE, COLUMN_SCALE};
+    private static final String INSERT = "INSERT INTO " + TABLE + " (" + COLUMN_TIMESTAMP +
+            ", " + COLUMN_SOURCE + ", " + COLUMN_ROI_LEFT + ", " + COLUMN_ROI_TOP + ", " +
+            COLUMN_ROI_RIGHT + ", " + COLUMN_ROI_BOTTOM + ", " + COLUMN_RED + ", " +
+            COLUMN_GREEN + ", " + COLUMN_BLUE + ", " + COLUMN_HUE + ", " + COLUMN_SCALE +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static MeasurementHistory sInstance = null;
+
+    private final ScheduledExecutorService mWriter =
+            Executors.newSingleThreadScheduledExecutor(AnalysisEngine.backgroundThreads(TAG));
+    private final List<Measurement> mPending = new ArrayList<>();
+    private boolean mFlushScheduled = false;
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            List<Measurement> batch;
+            synchronized (mPending) {
+                mFlushScheduled = false;
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(mPending);
+                mPending.clear();
+            }
+            try {
+                write(batch);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Lost " + batch.size() + " readings: " + e);
+            }
+        }
+    };
+
+    private MeasurementHistory(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * Method to get the history of the app. There is only one, so every activity shares its
+     * writer thread and database connection.
+     *
+     * @param context Context
+     * @return history {@link MeasurementHistory}
+     */
+    public static synchronized MeasurementHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new MeasurementHistory(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " (" +
+                COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
+                COLUMN_SOURCE + " TEXT NOT NULL, " +
+                COLUMN_ROI_LEFT + " INTEGER, " +
+                COLUMN_ROI_TOP + " INTEGER, " +
+                COLUMN_ROI_RIGHT + " INTEGER, " +
+                COLUMN_ROI_BOTTOM + " INTEGER, " +
+                COLUMN_RED + " INTEGER NOT NULL, " +
+                COLUMN_GREEN + " INTEGER NOT NULL, " +
+                COLUMN_BLUE + " INTEGER NOT NULL, " +
+                COLUMN_HUE + " REAL NOT NULL, " +
+                COLUMN_SCALE + " INTEGER)");
+        db.execSQL("CREATE INDEX " + TABLE + "_" + COLUMN_TIMESTAMP + " ON " + TABLE + " (" +
+                COLUMN_TIMESTAMP + ")");
+        //Readings of a photo come sorted by time straight from the index
+        db.execSQL("CREATE INDEX " + TABLE + "_" + COLUMN_SOURCE + " ON " + TABLE + " (" +
+                COLUMN_SOURCE + ", " + COLUMN_TIMESTAMP + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        //First version, nothing to upgrade yet
+    }
+
+    /**
+     * Method to record a reading. It is written in background a bit later, together with the
+     * readings recorded meanwhile. Can be called from any thread.
+     *
+     * @param measurement {@link Measurement} to record
+     */
+    public void record(Measurement measurement) {
+        synchronized (mPending) {
+            mPending.add(measurement);
+            if (mPending.size() >= BATCH_SIZE) {
+                mWriter.execute(mFlush);
+                mFlushScheduled = true;
+            } else if (!mFlushScheduled) {
+                mWriter.schedule(mFlush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+                mFlushScheduled = true;
+            }
+        }
+    }
+
+    /**
+     * Method to write now the readings waiting, for example before the app is hidden
+     */
+    public void flush() {
+        mWriter.execute(mFlush);
+    }
+
+    /**
+     * Method to write readings in a single transaction. Runs in the writer thread.
+     *
+     * @param batch List: readings to write
+     */
+    private void write(List<Measurement> batch) {
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement insert = db.compileStatement(INSERT);
+        db.beginTransaction();
+        try {
+            for (Measurement measurement : batch) {
+                ColorReading reading = measurement.getReading();
+                Rect roi = measurement.getRoi();
+                insert.bindLong(1, measurement.getTimestamp());
+                insert.bindString(2, measurement.getSource());
+                if (roi != null) {
+                    insert.bindLong(3, roi.left);
+                    insert.bindLong(4, roi.top);
+                    insert.bindLong(5, roi.right);
+                    insert.bindLong(6, roi.bottom);
+                }
+                insert.bindLong(7, reading.getRed());
+                insert.bindLong(8, reading.getGreen());
+                insert.bindLong(9, reading.getBlue());
+                insert.bindDouble(10, reading.getHue());
+                if (reading.hasValue()) {
+                    insert.bindLong(11, reading.getScale());
+                }
+                insert.executeInsert();
+                //Unbound columns are stored as NULL
+                insert.clearBindings();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            insert.close();
+        }
+    }
+
+    /**
+     * Method to read the newest readings. Reads the database, so call it in background.
+     *
+     * @param limit int: maximum number of readings
+     * @return measurements List: newest first
+     */
+    public List<Measurement> queryRecent(int limit) {
+        return query(null, null, limit);
+    }
+
+    /**
+     * Method to read the readings of a photo. Reads the database, so call it in background.
+     *
+     * @param source String: Uri of the photo
+     * @param limit int: maximum number of readings
+     * @return measurements List: newest first
+     */
+    public List<Measurement> queryBySource(String source, int limit) {
+        return query(COLUMN_SOURCE + " = ?", new String[] {source}, limit);
+    }
+
+    /**
+     * Method to read the readings done in a period. Reads the database, so call it in
+     * background.
+     *
+     * @param from long: start of the period, in milliseconds since the epoch, inclusive
+     * @param to long: end of the period, in milliseconds since the epoch, exclusive
+     * @param limit int: maximum number of readings
+     * @return measurements List: newest first
+     */
+    public List<Measurement> queryBetween(long from, long to, int limit) {
+        return query(COLUMN_TIMESTAMP + " >= ? AND " + COLUMN_TIMESTAMP + " < ?",
+                new String[] {String.valueOf(from), String.valueOf(to)}, limit);
+    }
+
+    private List<Measurement> query(String selection, String[] selectionArgs, int limit) {
+        List<Measurement> measurements = new ArrayList<>();
+        Cursor cursor = getReadableDatabase().query(TABLE, COLUMNS, selection, selectionArgs,
+                null, null, COLUMN_TIMESTAMP + " DESC", String.valueOf(limit));
+        try {
+            while (cursor.moveToNext()) {
+                Rect roi = null;
+                if (!cursor.isNull(3)) {
+                    roi = new Rect(cursor.getInt(3), cursor.getInt(4), cursor.getInt(5),
+                            cursor.getInt(6));
+                }
+                ColorReading reading = new ColorReading(cursor.getInt(7), cursor.getInt(8),
+                        cursor.getInt(9), cursor.getFloat(10));
+                measurements.add(new Measurement(cursor.getLong(0), cursor.getLong(1),
+                        cursor.getString(2), roi, reading));
+            }
+        } finally {
+            cursor.close();
+        }
+        return measurements;
+    }
+}
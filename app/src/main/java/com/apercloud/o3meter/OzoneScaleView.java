@@ -0,0 +1,181 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Shader;
+import android.util.AttributeSet;
+import android.view.View;
+
+
+/**
+ * View of our Ozone Scale.
+ *
+ * Draws the yellow to red to magenta to blue gradient of the scale with a shader and a
+ * pointer at the result, or with showScale set to false, a swatch of the result color.
+ * Everything is drawn in onDraw, so a new result only changes a value and invalidates the
+ * view, without any bitmap.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class OzoneScaleView extends View {
+
+    static final int[] COLORS = {Color.YELLOW, Color.RED, Color.MAGENTA, Color.BLUE};
+    static final int MAX_SCALE = 180;
+
+    //Pointer top and height, in fractions of the view height
+    private static final float POINTER_TOP = 0.27f;
+    private static final float POINTER_HEIGHT = 0.27f;
+
+    private final Paint mScalePaint = new Paint();
+    private final Paint mPointerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mSwatchPaint = new Paint();
+    private final Path mPointer = new Path();
+    private final Path mSwatch = new Path();
+    private boolean mShowScale = true;
+    private int mScale = -1;
+    private int mColor = Color.TRANSPARENT;
+
+    public OzoneScaleView(final Context context) {
+        super(context);
+        init(null);
+    }
+
+    public OzoneScaleView(final Context context, final AttributeSet attrs) {
+        super(context, attrs);
+        init(attrs);
+    }
+
+    public OzoneScaleView(final Context context, final AttributeSet attrs, final int defStyle) {
+        super(context, attrs, defStyle);
+        init(attrs);
+    }
+
+    /**
+     * Inits internal data
+     *
+     * @param attrs AttributeSet: view attributes from the layout, if any
+     */
+    private void init(AttributeSet attrs) {
+        if (attrs != null) {
+            TypedArray a = getContext().obtainStyledAttributes(attrs,
+                    R.styleable.OzoneScaleView);
+            mShowScale = a.getBoolean(R.styleable.OzoneScaleView_showScale, true);
+            a.recycle();
+        }
+        mPointerPaint.setColor(Color.BLACK);
+        mPointerPaint.setStyle(Paint.Style.FILL);
+        mSwatchPaint.setStyle(Paint.Style.FILL);
+    }
+
+    /**
+     * Method to point a value of our scale. Values outside the scale are pointed at its start.
+     *
+     * @param scale int: value from 0 to {@link #MAX_SCALE}, -1 to hide the pointer
+     */
+    public void setScale(int scale) {
+        if (scale != mScale) {
+            mScale = scale;
+            invalidate();
+        }
+    }
+
+    /**
+     * Method to change the color of the swatch
+     *
+     * @param color int: result color
+     */
+    public void setColor(int color) {
+        if (color != mColor) {
+            mColor = color;
+            mSwatchPaint.setColor(color);
+            invalidate();
+        }
+    }
+
+    /**
+     * Method to get where a value of our scale is in the gradient. Every segment of the
+     * gradient changes a single channel linearly, which is the hue changing linearly, so
+     * positions are proportional to the value.
+     *
+     * @param scale int: value from 0 to {@link #MAX_SCALE}
+     * @param width int: gradient width
+     * @return x float: position in pixels
+     */
+    static float scaleToPosition(int scale, int width) {
+        if (scale < 0 || scale > MAX_SCALE) {
+            return 0;
+        }
+        return (float) scale * (width - 1) / MAX_SCALE;
+    }
+
+    /**
+     * Method to build the shader and paths for the size of the view
+     */
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        mScalePaint.setShader(new LinearGradient(0, 0, w, 0, COLORS, null,
+                Shader.TileMode.CLAMP));
+
+        //Triangle pointing up, with its tip at x = 0
+        float top = h * POINTER_TOP;
+        float height = h * POINTER_HEIGHT;
+        mPointer.reset();
+        mPointer.moveTo(0, top);
+        mPointer.lineTo(height, top + height);
+        mPointer.lineTo(-height, top + height);
+        mPointer.close();
+
+        mSwatch.reset();
+        mSwatch.moveTo(0, 0);
+        mSwatch.lineTo(w, 0);
+        mSwatch.lineTo(w, h);
+        mSwatch.lineTo(0, h);
+        mSwatch.close();
+    }
+
+    /**
+     * Method to draw the scale with the pointer, or the swatch
+     *
+     * @param canvas Canvas: where to draw
+     */
+    @Override
+    protected void onDraw(final Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (!mShowScale) {
+            canvas.drawPath(mSwatch, mSwatchPaint);
+            return;
+        }
+
+        canvas.drawRect(0, 0, getWidth(), getHeight(), mScalePaint);
+        if (mScale >= 0) {
+            canvas.save();
+            canvas.translate(scaleToPosition(mScale, getWidth()), 0);
+            canvas.drawPath(mPointer, mPointerPaint);
+            canvas.restore();
+        }
+    }
+}
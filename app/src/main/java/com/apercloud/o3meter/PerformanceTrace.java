@@ -0,0 +1,119 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * Timings of the stages between picking a photo and seeing its reading.
+ *
+ * Every stage has a {@link StageTimer} shared by the whole app, and is also a Trace section,
+ * so it shows up in systrace and Android Studio profiles. Intent round trips span two
+ * activities and have no section. Sections must end in the thread that began them.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+final class PerformanceTrace {
+
+    //From launching the gallery or camera until its result arrives
+    static final StageTimer INTENT = new StageTimer("intent", StageTimer.DEFAULT_CAPACITY);
+    //Decoding the subsampled photo
+    static final StageTimer DECODE = new StageTimer("decode", StageTimer.DEFAULT_CAPACITY);
+    //Decoding a region of the original image
+    static final StageTimer DECODE_REGION = new StageTimer("decodeRegion",
+            StageTimer.DEFAULT_CAPACITY);
+    //Decoding a tile of the zoomed photo
+    static final StageTimer DECODE_TILE = new StageTimer("decodeTile",
+            StageTimer.DEFAULT_CAPACITY);
+    //Reading pixels from the bitmap, summed over the scanning threads
+    static final StageTimer PIXELS = new StageTimer("getPixels", StageTimer.DEFAULT_CAPACITY);
+    //Whole analysis, reading pixels included
+    static final StageTimer SCAN = new StageTimer("scan", StageTimer.DEFAULT_CAPACITY);
+    //Showing the reading, value, swatch and scale
+    static final StageTimer DRAW = new StageTimer("draw", StageTimer.DEFAULT_CAPACITY);
+
+    private static final StageTimer[] STAGES = {INTENT, DECODE, DECODE_REGION, DECODE_TILE,
+            PIXELS, SCAN, DRAW};
+
+    private PerformanceTrace() {
+    }
+
+    /**
+     * Method to begin a stage in the current thread
+     *
+     * @param timer {@link StageTimer}: stage
+     * @return start long: time to give to {@link #end}
+     */
+    static long begin(StageTimer timer) {
+        Trace.beginSection(timer.getName());
+        return System.nanoTime();
+    }
+
+    /**
+     * Method to end the stage begun last in the current thread and record its duration
+     *
+     * @param timer {@link StageTimer}: stage
+     * @param start long: time returned by {@link #begin}
+     */
+    static void end(StageTimer timer, long start) {
+        timer.record(stop(start));
+    }
+
+    /**
+     * Method to end the stage begun last in the current thread without recording it, for
+     * stages that add up several calls into one duration
+     *
+     * @param start long: time returned by {@link #begin}
+     * @return nanos long: duration in nanoseconds
+     */
+    static long stop(long start) {
+        long nanos = System.nanoTime() - start;
+        Trace.endSection();
+        return nanos;
+    }
+
+    /**
+     * Method to get the latest, median and 90th percentile durations of every stage, one line
+     * per stage
+     *
+     * @return summary String
+     */
+    static String summary() {
+        StringBuilder summary = new StringBuilder("stage          last     p50     p90");
+        for (StageTimer stage : STAGES) {
+            summary.append('\n').append(stage);
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Method to write every kept duration as CSV, labelled with this device
+     *
+     * @param out Writer: where to write
+     * @throws IOException if writing fails
+     */
+    static void export(Writer out) throws IOException {
+        StageTimer.writeCsv(out, Build.MANUFACTURER + " " + Build.MODEL + " API " +
+                Build.VERSION.SDK_INT, STAGES);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+
+
+/**
+ * Decoded photo.
+ *
+ * Keeps the displayed bitmap together with where it came from and how it was decoded
+ * (subsampling and EXIF orientation), so coordinates in the displayed bitmap can be mapped
+ * back to the original image file.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class Photo {
+
+    private final Uri mUri;
+    private final Bitmap mBitmap;
+    private final int mSourceWidth;
+    private final int mSourceHeight;
+    private final int mSampleSize;
+    private final int mOrientation;
+    private final long mContentHash;
+
+    /**
+     * Constructor
+     *
+     * @param uri Uri: original image
+     * @param bitmap Bitmap: decoded, subsampled and oriented photo
+     * @param sourceWidth int: width of the original image
+     * @param sourceHeight int: height of the original image
+     * @param sampleSize int: inSampleSize used to decode the bitmap
+     * @param orientation int: EXIF orientation applied to the bitmap
+     * @param contentHash long: {@link ContentHash} of the original image, 0 if not hashed
+     */
+    public Photo(Uri uri, Bitmap bitmap, int sourceWidth, int sourceHeight, int sampleSize,
+                 int orientation, long contentHash) {
+        mUri = uri;
+        mBitmap = bitmap;
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        mSampleSize = sampleSize;
+        mOrientation = orientation;
+        mContentHash = contentHash;
+    }
+
+    public Uri getUri() {
+        return mUri;
+    }
+
+    public Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    public int getSourceWidth() {
+        return mSourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return mSourceHeight;
+    }
+
+    public int getSampleSize() {
+        return mSampleSize;
+    }
+
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    public long getContentHash() {
+        return mContentHash;
+    }
+
+    /**
+     * Method to get the transformation from original image coordinates to bitmap coordinates
+     *
+     * @return matrix Matrix: subsampling and EXIF orientation of the bitmap
+     */
+    public Matrix getSourceMatrix() {
+        //Source to bitmap: subsample, orient, and move back to the origin like createBitmap does
+        Matrix toBitmap = new Matrix();
+        toBitmap.setScale(1f / mSampleSize, 1f / mSampleSize);
+        Matrix orientation = PhotoDecoder.orientationMatrix(mOrientation);
+        if (orientation != null) {
+            toBitmap.postConcat(orientation);
+        }
+        RectF bounds = new RectF(0, 0, mSourceWidth, mSourceHeight);
+        toBitmap.mapRect(bounds);
+        toBitmap.postTranslate(-bounds.left, -bounds.top);
+        return toBitmap;
+    }
+
+    /**
+     * Method to map a rectangle in bitmap coordinates to original image coordinates
+     *
+     * @param rect RectF: rectangle in bitmap coordinates
+     * @param out Rect: where the rectangle in original image coordinates is stored, clipped to
+     *            the image bounds
+     * @return <code>true</code> if the rectangle overlaps the image;
+     *         <code>false</code> otherwise
+     */
+    public boolean mapToSource(RectF rect, Rect out) {
+        Matrix toBitmap = getSourceMatrix();
+        Matrix toSource = new Matrix();
+        if (!toBitmap.invert(toSource)) {
+            return false;
+        }
+        RectF mapped = new RectF(rect.left, rect.top, rect.right, rect.bottom);
+        toSource.mapRect(mapped);
+        mapped.roundOut(out);
+        return out.intersect(0, 0, mSourceWidth, mSourceHeight);
+    }
+}
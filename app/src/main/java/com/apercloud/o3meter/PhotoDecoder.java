@@ -0,0 +1,382 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.support.media.ExifInterface;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Size-aware photo decoder.
+ *
+ * Photos are decoded subsampled, so the bitmap is only as big as needed to fill the screen
+ * and to have enough pixels for the analysis, no matter how many megapixels the camera has.
+ * The EXIF orientation of the photo is applied to the decoded bitmap. Parts of the photo can
+ * also be decoded at full resolution straight from the original image, to analyze them or
+ * to show them zoomed in. Bitmaps are decoded into bitmaps of a {@link BitmapPool} when there
+ * is one that fits, and should be given back with {@link #recycle} when they are not needed
+ * anymore.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class PhotoDecoder {
+
+    private final ContentResolver mResolver;
+    private final int mReqWidth;
+    private final int mReqHeight;
+    private final BitmapPool mBitmapPool;
+    private BitmapRegionDecoder mRegionDecoder = null;
+    private Uri mRegionUri = null;
+
+    /**
+     * Constructor
+     *
+     * @param resolver ContentResolver: to open photo URIs
+     * @param reqWidth int: width where the photo will be displayed, usually the screen width
+     * @param reqHeight int: height where the photo will be displayed, usually the screen height
+     * @param bitmapPool {@link BitmapPool}: where bitmaps are decoded into and given back to
+     */
+    public PhotoDecoder(ContentResolver resolver, int reqWidth, int reqHeight,
+                        BitmapPool bitmapPool) {
+        mResolver = resolver;
+        mReqWidth = reqWidth;
+        mReqHeight = reqHeight;
+        mBitmapPool = bitmapPool;
+    }
+
+    public int getReqWidth() {
+        return mReqWidth;
+    }
+
+    public int getReqHeight() {
+        return mReqHeight;
+    }
+
+    /**
+     * Method to hash the bytes of a photo, to find its cached results
+     *
+     * @param uri Uri: photo from gallery or camera
+     * @return hash long: {@link ContentHash} of the photo
+     * @throws IOException if the photo can't be read
+     * @throws InterruptedException if the thread is interrupted while hashing
+     */
+    public long hash(Uri uri) throws IOException, InterruptedException {
+        InputStream in = mResolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Can't open image: " + uri);
+        }
+        try {
+            return ContentHash.of(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Method to decode a photo subsampled and rotated to its EXIF orientation
+     *
+     * @param uri Uri: photo from gallery or camera
+     * @return photo {@link Photo}: decoded photo
+     * @throws IOException if the photo can't be read or decoded
+     * @throws InterruptedException if the thread is interrupted while decoding
+     */
+    public Photo decode(Uri uri) throws IOException, InterruptedException {
+        return decode(uri, 0);
+    }
+
+    /**
+     * Method to decode a photo subsampled and rotated to its EXIF orientation
+     *
+     * @param uri Uri: photo from gallery or camera
+     * @param contentHash long: {@link #hash} of the photo, 0 if not hashed
+     * @return photo {@link Photo}: decoded photo
+     * @throws IOException if the photo can't be read or decoded
+     * @throws InterruptedException if the thread is interrupted while decoding
+     */
+    public Photo decode(Uri uri, long contentHash) throws IOException, InterruptedException {
+        //Read photo dimensions without decoding pixels
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Can't read image bounds: " + uri);
+        }
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+
+        int sourceWidth = options.outWidth;
+        int sourceHeight = options.outHeight;
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = Subsampling.calculateInSampleSize(options.outWidth,
+                options.outHeight, mReqWidth, mReqHeight, Subsampling.ANALYSIS_PIXEL_BUDGET);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        options.inBitmap = mBitmapPool.getReusable(
+                divideRoundingUp(sourceWidth, options.inSampleSize),
+                divideRoundingUp(sourceHeight, options.inSampleSize), Bitmap.Config.ARGB_8888);
+        Bitmap bitmap;
+        try {
+            bitmap = decodeStream(uri, options);
+        } catch (IllegalArgumentException e) {
+            //Pooled bitmap can't be decoded into, decode into a new one
+            mBitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = decodeStream(uri, options);
+        }
+        if (bitmap == null) {
+            mBitmapPool.put(options.inBitmap);
+            throw new IOException("Can't decode image: " + uri);
+        }
+        if (Thread.interrupted()) {
+            recycle(bitmap);
+            throw new InterruptedException();
+        }
+
+        int orientation = readOrientation(uri);
+        return new Photo(uri, applyOrientation(bitmap, orientation, mBitmapPool), sourceWidth,
+                sourceHeight, options.inSampleSize, orientation, contentHash);
+    }
+
+    /**
+     * Method to decode a part of the original image, at full resolution unless the part is
+     * bigger than what the analysis needs. The region is not rotated to the EXIF orientation.
+     *
+     * @param photo {@link Photo}: photo the region belongs to
+     * @param region Rect: region in original image coordinates
+     * @return bitmap Bitmap: decoded region
+     * @throws IOException if the image can't be read or decoded
+     */
+    public synchronized Bitmap decodeRegion(Photo photo, Rect region) throws IOException {
+        return decodeRegion(photo, region, Subsampling.calculateInSampleSize(region.width(),
+                region.height(), 0, 0, Subsampling.ANALYSIS_PIXEL_BUDGET));
+    }
+
+    /**
+     * Method to decode a tile of the original image to display it zoomed. The tile is not
+     * rotated to the EXIF orientation.
+     *
+     * @param photo {@link Photo}: photo the tile belongs to
+     * @param region Rect: tile in original image coordinates
+     * @param sampleSize int: inSampleSize of the tile, a power of 2
+     * @return bitmap Bitmap: decoded tile
+     * @throws IOException if the image can't be read or decoded
+     */
+    public synchronized Bitmap decodeTile(Photo photo, Rect region, int sampleSize)
+            throws IOException {
+        return decodeRegion(photo, region, sampleSize);
+    }
+
+    /**
+     * Method to decode a part of the original image subsampled
+     *
+     * @param photo {@link Photo}: photo the region belongs to
+     * @param region Rect: region in original image coordinates
+     * @param sampleSize int: inSampleSize of the region
+     * @return bitmap Bitmap: decoded region
+     * @throws IOException if the image can't be read or decoded
+     */
+    private Bitmap decodeRegion(Photo photo, Rect region, int sampleSize) throws IOException {
+        //Opening the decoder parses the whole file, so keep it while the photo is the same
+        if (mRegionDecoder == null || !photo.getUri().equals(mRegionUri)) {
+            release();
+            InputStream in = mResolver.openInputStream(photo.getUri());
+            if (in == null) {
+                throw new IOException("Can't open image: " + photo.getUri());
+            }
+            try {
+                mRegionDecoder = BitmapRegionDecoder.newInstance(in, false);
+            } finally {
+                in.close();
+            }
+            mRegionUri = photo.getUri();
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        //The region decoder never resizes inBitmap, so it must have the size of the region
+        options.inBitmap = mBitmapPool.get(
+                divideRoundingUp(region.width(), options.inSampleSize),
+                divideRoundingUp(region.height(), options.inSampleSize), Bitmap.Config.ARGB_8888);
+        Bitmap bitmap;
+        try {
+            bitmap = mRegionDecoder.decodeRegion(region, options);
+        } catch (IllegalArgumentException e) {
+            //Pooled bitmap can't be decoded into, decode into a new one
+            mBitmapPool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = mRegionDecoder.decodeRegion(region, options);
+        }
+        if (bitmap == null) {
+            mBitmapPool.put(options.inBitmap);
+            throw new IOException("Can't decode image region: " + photo.getUri());
+        }
+        return bitmap;
+    }
+
+    /**
+     * Method to give back a bitmap decoded by this decoder, so its memory is reused
+     *
+     * @param bitmap Bitmap: photo or region bitmap not needed anymore
+     */
+    public void recycle(Bitmap bitmap) {
+        mBitmapPool.put(bitmap);
+    }
+
+    /**
+     * Method to free the region decoder of the last photo, if any
+     */
+    public synchronized void release() {
+        if (mRegionDecoder != null) {
+            mRegionDecoder.recycle();
+            mRegionDecoder = null;
+            mRegionUri = null;
+        }
+    }
+
+    private static int divideRoundingUp(int size, int sampleSize) {
+        return (size + sampleSize - 1) / sampleSize;
+    }
+
+    /**
+     * Method to decode a photo stream with the given options
+     *
+     * @param uri Uri: photo
+     * @param options BitmapFactory.Options: decoding options
+     * @return bitmap Bitmap: decoded photo, null if only bounds were requested
+     * @throws IOException if the photo can't be opened
+     */
+    private Bitmap decodeStream(Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream in = mResolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Can't open image: " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Method to read EXIF orientation of a photo
+     *
+     * @param uri Uri: photo
+     * @return orientation int: one of ExifInterface.ORIENTATION_* values
+     */
+    private int readOrientation(Uri uri) {
+        InputStream in = null;
+        try {
+            in = mResolver.openInputStream(uri);
+            if (in == null) {
+                return ExifInterface.ORIENTATION_NORMAL;
+            }
+            ExifInterface exif = new ExifInterface(in);
+            return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION,
+                    ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            //No EXIF data, photo is displayed as it is
+            return ExifInterface.ORIENTATION_NORMAL;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to get the transformation that rotates and flips an image to its EXIF orientation
+     *
+     * @param orientation int: EXIF orientation
+     * @return matrix Matrix: transformation, null if orientation is normal
+     */
+    static Matrix orientationMatrix(int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return null;
+        }
+        return matrix;
+    }
+
+    /**
+     * Method to rotate and flip a bitmap to its EXIF orientation
+     *
+     * @param bitmap Bitmap: decoded photo
+     * @param orientation int: EXIF orientation
+     * @param pool {@link BitmapPool}: where the rotated bitmap is taken from and the decoded
+     *             one given back to
+     * @return bitmap Bitmap: the same bitmap if orientation is normal, a new one otherwise
+     */
+    static Bitmap applyOrientation(Bitmap bitmap, int orientation, BitmapPool pool) {
+        Matrix matrix = orientationMatrix(orientation);
+        if (matrix == null) {
+            return bitmap;
+        }
+        //Move the rotated bitmap back to the origin, like createBitmap does
+        RectF bounds = new RectF(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+
+        Bitmap rotated = pool.get(Math.round(bounds.width()), Math.round(bounds.height()),
+                Bitmap.Config.ARGB_8888);
+        new Canvas(rotated).drawBitmap(bitmap, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        pool.put(bitmap);
+        return rotated;
+    }
+}
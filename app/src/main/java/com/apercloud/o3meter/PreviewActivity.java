@@ -0,0 +1,189 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.annotation.TargetApi;
+import android.graphics.Color;
+import android.graphics.SurfaceTexture;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.TextureView;
+import android.widget.TextView;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Preview activity.
+ *
+ * In this activity the camera preview is read continuously: the middle of every preview frame
+ * is analyzed straight from the camera YUV planes, and its value and color are displayed,
+ * without taking a photo.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PreviewActivity extends AppCompatActivity {
+
+    private static final String TAG = "PreviewActivity";
+    //Analyzed part of the frames, as in the layout
+    static final float REGION_START = 0.25f;
+    static final float REGION_END = 0.75f;
+
+    private CameraFrameSource mFrameSource = null;
+    private PreviewMeter mMeter;
+
+    //Result color conversion, reused for every result
+    private final float[] mHsv = new float[3];
+
+    //Newest reading waiting for the UI thread, and the task that shows it
+    private final AtomicReference<ColorReading> mLatestReading = new AtomicReference<>();
+    private final Runnable mShowLatest = new Runnable() {
+        @Override
+        public void run() {
+            ColorReading reading = mLatestReading.getAndSet(null);
+            if (reading != null) {
+                showResult(reading);
+            }
+        }
+    };
+
+    private final TextureView.SurfaceTextureListener mPreviewListener =
+            new TextureView.SurfaceTextureListener() {
+        @Override
+        public void onSurfaceTextureAvailable(SurfaceTexture texture, int width, int height) {
+            startCamera(texture);
+        }
+
+        @Override
+        public void onSurfaceTextureSizeChanged(SurfaceTexture texture, int width, int height) {
+        }
+
+        @Override
+        public boolean onSurfaceTextureDestroyed(SurfaceTexture texture) {
+            stopCamera();
+            return true;
+        }
+
+        @Override
+        public void onSurfaceTextureUpdated(SurfaceTexture texture) {
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * Initialize preview activity and the meter of the frames
+     *
+     * @param savedInstanceState Bundle
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_preview);
+        mMeter = new PreviewMeter(new PreviewMeter.Listener() {
+            @Override
+            public void onReading(ColorReading reading, long timestamp) {
+                //If a reading was already waiting, the waiting task will show this one instead
+                if (mLatestReading.getAndSet(reading) == null) {
+                    runOnUiThread(mShowLatest);
+                }
+            }
+        });
+        mMeter.setRegion(REGION_START, REGION_START, REGION_END, REGION_END);
+    }
+
+    /**
+     * Start the camera when the activity is shown and the preview can be displayed
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        TextureView previewView = findViewById(R.id.previewView);
+        if (previewView.isAvailable()) {
+            startCamera(previewView.getSurfaceTexture());
+        } else {
+            previewView.setSurfaceTextureListener(mPreviewListener);
+        }
+    }
+
+    /**
+     * Stop the camera when the activity is hidden, so other apps can use it
+     */
+    @Override
+    protected void onPause() {
+        stopCamera();
+        super.onPause();
+    }
+
+    /**
+     * Method to start streaming camera frames to the meter and the preview
+     *
+     * @param texture SurfaceTexture: where the preview is displayed, stretched to the view
+     *                so the analyzed region is always the one framed in the layout
+     */
+    private void startCamera(SurfaceTexture texture) {
+        if (mFrameSource != null) {
+            return;
+        }
+        mFrameSource = new CameraFrameSource(this, texture);
+        try {
+            mFrameSource.start(mMeter);
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            mFrameSource = null;
+            TextView statusView = findViewById(R.id.previewStatus);
+            statusView.setText(R.string.preview_failed);
+        }
+    }
+
+    private void stopCamera() {
+        if (mFrameSource != null) {
+            mFrameSource.stop();
+            mFrameSource = null;
+        }
+    }
+
+    /**
+     * Method to show the value of a frame, its color and the frame rate
+     *
+     * @param reading {@link ColorReading}: result of the analysis
+     */
+    private void showResult(ColorReading reading) {
+        TextView valueView = findViewById(R.id.valueView);
+        if (!reading.hasValue()) {
+            valueView.setText("N/A");
+        } else {
+            valueView.setText(String.valueOf(reading.getScale()));
+        }
+
+        mHsv[0] = reading.getDisplayHue();
+        mHsv[1] = 255;
+        mHsv[2] = 255;
+        OzoneScaleView colorView = findViewById(R.id.colorView);
+        colorView.setColor(Color.HSVToColor(mHsv));
+        OzoneScaleView gradientView = findViewById(R.id.gradientView);
+        gradientView.setScale(Math.max(0, reading.getScale()));
+
+        TextView statusView = findViewById(R.id.previewStatus);
+        statusView.setText(getString(R.string.preview_fps, mMeter.getFramesPerSecond()));
+    }
+}
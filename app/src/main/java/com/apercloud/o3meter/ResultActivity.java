@@ -18,33 +18,36 @@ package com.apercloud.o3meter;
 
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Rect;
-import android.graphics.drawable.GradientDrawable;
+import android.graphics.RectF;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.support.v4.content.FileProvider;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.View;
-import android.view.ViewTreeObserver;
 import android.widget.ImageButton;
-import android.widget.ImageView;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
-import static android.graphics.Color.BLACK;
-import static java.lang.Math.abs;
-
-
 /**
  * Result activity.
  *
@@ -58,13 +61,92 @@ public class ResultActivity extends AppCompatActivity {
 
     static final int REQUEST_IMAGE_CAPTURE = 2;
     static final int REQUEST_IMAGE_PICK = 1;
+    static final long LIVE_UPDATE_INTERVAL_MS = 100;
+    //Part of the app memory that pooled bitmaps can use
+    static final int BITMAP_POOL_FRACTION = 8;
+    //Part of the app memory that tiles of the zoomed photo can use
+    static final int TILE_CACHE_FRACTION = 8;
+    //Zoom of the zoom in and out buttons
+    static final float ZOOM_STEP = 1.5f;
+    //Readings of photos opened before, kept between runs of the app
+    static final int RESULT_CACHE_ENTRIES = 10000;
+    static final String RESULT_CACHE_FILE = "results.cache";
+    private static final String TAG = "ResultActivity";
+    //Saved state, to show the same photo if the activity is recreated
+    private static final String STATE_PHOTO_PATH = "photoPath";
+    private static final String STATE_SOURCE = "source";
+    private static final String STATE_ZOOM = "zoom";
+    private static final String STATE_CENTER_X = "centerX";
+    private static final String STATE_CENTER_Y = "centerY";
+    private static final String STATE_RECORDED = "recorded";
+    private static final String STATE_FAST_READINGS = "fastReadings";
+    private static final String STATE_MULTIPLE_SELECTIONS = "multipleSelections";
+    private static final String STATE_ADAPTIVE_SAMPLING = "adaptiveSampling";
+    private static final String STATE_CIRCULAR_HUE = "circularHue";
+    private static final String STATE_GLARE_FILTER = "glareFilter";
+    private static final String STATE_PERFORMANCE_OVERLAY = "performanceOverlay";
     String mCurrentPhotoPath;
+    private AnalysisEngine mAnalysisEngine;
+    private MeasurementHistory mHistory;
+    private PhotoDecoder mPhotoDecoder;
+    private TileCache mTileCache;
+    //Shared by every result activity, so each photo reuses bitmaps of the previous ones
+    private static BitmapPool sBitmapPool = null;
+    private static ResultCache sResultCache = null;
+    private boolean mCachedReadingShown = false;
+    private Uri mSource = null;
+    private Photo mPhoto = null;
+    private ColorIndex mColorIndex = null;
+    private boolean mFastReadings = false;
+    private boolean mMultipleSelections = false;
+    private ColorReading mReading = null;
+    private boolean mAdaptiveSampling = false;
+    private boolean mCircularHue = false;
+    private boolean mGlareFilter = false;
+    private boolean mPerformanceOverlay = false;
+    //When the gallery or camera was launched, 0 if not waiting for it
+    private long mIntentStart = 0;
+
+    //Result color conversion, reused for every result
+    private final float[] mHsv = new float[3];
+
+    //Live reading while dragging the selection rectangle
+    private final RectF mLiveRect = new RectF();
+    private boolean mLiveUpdateScheduled = false;
+    private long mLastLiveUpdate = 0;
+    private final Runnable mLiveUpdate = new Runnable() {
+        @Override
+        public void run() {
+            mLiveUpdateScheduled = false;
+            mLastLiveUpdate = SystemClock.uptimeMillis();
+            analyzeSelection(mLiveRect, true);
+        }
+    };
+
+    /**
+     * Decoded photo and results kept while the activity is recreated after a configuration
+     * change
+     */
+    private static final class RetainedState {
+        Photo mPhoto;
+        ColorIndex mColorIndex;
+        ColorReading mReading;
+    }
+
+    private final AnalysisEngine.Callback mShowResult = new AnalysisEngine.Callback() {
+        @Override
+        public void onAnalysisFinished(ColorReading reading) {
+            showResult(reading);
+        }
+    };
 
     /**
      * Constructor
      *
      * Initialize result activity, check if camera or gallery where choosen and launch intent,
-     * set zoom buttons functionality, load photo from intent to ImageView and analize it
+     * set zoom buttons functionality, load photo from intent to the photo view and analize it.
+     * If the activity is recreated the intent is not launched again, the previous photo is
+     * shown instead.
      *
      * @param savedInstanceState Bundle
      * @throws IOException if can't create file from camera photo
@@ -73,7 +155,228 @@ public class ResultActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_result);
+        boolean loadCache = sResultCache == null;
+        if (loadCache) {
+            sResultCache = new ResultCache(RESULT_CACHE_ENTRIES);
+        }
+        mAnalysisEngine = new AnalysisEngine(sResultCache);
+        if (loadCache) {
+            mAnalysisEngine.loadCache(new File(getCacheDir(), RESULT_CACHE_FILE));
+        }
+        mHistory = MeasurementHistory.getInstance(this);
+        //Photos are decoded subsampled to the screen size, reusing bitmaps of previous photos
+        if (sBitmapPool == null) {
+            sBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / BITMAP_POOL_FRACTION);
+        }
+        DisplayMetrics metrics = getResources().getDisplayMetrics();
+        mPhotoDecoder = new PhotoDecoder(getContentResolver(), metrics.widthPixels,
+                metrics.heightPixels, sBitmapPool);
+        //Zoomed in, the photo is drawn with tiles decoded from the original image
+        mTileCache = new TileCache(mPhotoDecoder,
+                Runtime.getRuntime().maxMemory() / TILE_CACHE_FRACTION);
+        final TiledPhotoView photoView = findViewById(R.id.photoView);
+        final DragRectView view = findViewById(R.id.dragRect);
+        photoView.setTileCache(mTileCache);
+        //Keep the selection rectangle over the same part of the photo at any zoom
+        photoView.setOnMatrixChangedListener(new TiledPhotoView.OnMatrixChangedListener() {
+            @Override
+            public void onMatrixChanged(Matrix matrix) {
+                view.setImageMatrix(matrix);
+            }
+        });
+
+        //Recreated after a configuration change or after the app was killed
+        if (savedInstanceState != null) {
+            mCurrentPhotoPath = savedInstanceState.getString(STATE_PHOTO_PATH);
+            mSource = savedInstanceState.getParcelable(STATE_SOURCE);
+            mFastReadings = savedInstanceState.getBoolean(STATE_FAST_READINGS);
+            mMultipleSelections = savedInstanceState.getBoolean(STATE_MULTIPLE_SELECTIONS);
+            mAdaptiveSampling = savedInstanceState.getBoolean(STATE_ADAPTIVE_SAMPLING);
+            mPerformanceOverlay = savedInstanceState.getBoolean(STATE_PERFORMANCE_OVERLAY);
+            mCircularHue = savedInstanceState.getBoolean(STATE_CIRCULAR_HUE);
+            mGlareFilter = savedInstanceState.getBoolean(STATE_GLARE_FILTER);
+            mAnalysisEngine.setAdaptiveSampling(mAdaptiveSampling);
+            mAnalysisEngine.setCircularHue(mCircularHue);
+            mAnalysisEngine.setTrimmedMean(mGlareFilter);
+        } else {
+            launchPhotoIntent();
+        }
+
+        //Zoom in button
+        final ImageButton zoomIn = findViewById(R.id.btnZoomPlus);
+        zoomIn.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                photoView.zoomBy(ZOOM_STEP);
+            }
+        });
+        //Zoom out button
+        final ImageButton zoomOut = findViewById(R.id.btnZoomMinus);
+        zoomOut.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                photoView.zoomBy(1 / ZOOM_STEP);
+            }
+        });
+        //Zoom original. Fit the photo to the view
+        final ImageButton zoomOrig = findViewById(R.id.btnZoomOriginal);
+        zoomOrig.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                photoView.resetZoom();
+            }
+        });
 
+        //If selection rectangle is set or changed, do all the steps
+        if (null != view) {
+            view.setOnUpCallback(new DragRectView.OnUpCallback() {
+                @Override
+                public void onRectFinished(final RectF rect) {
+                    //Final reading replaces any live reading still pending
+                    view.removeCallbacks(mLiveUpdate);
+                    mLiveUpdateScheduled = false;
+                    analyzeSelection(rect, false);
+                }
+            });
+            //With multiple selection all the rectangles are analyzed together
+            view.setMultiple(mMultipleSelections);
+            view.setOnRectsChangedCallback(new DragRectView.OnRectsChangedCallback() {
+                @Override
+                public void onRectsChanged(int added) {
+                    analyzeSelections(added);
+                }
+            });
+            //Two fingers zoom and pan the photo instead of dragging the rectangle
+            view.setOnTouchListener(new View.OnTouchListener() {
+                @Override
+                public boolean onTouch(View v, MotionEvent event) {
+                    if (!photoView.onZoomGesture(event)) {
+                        return false;
+                    }
+                    view.removeCallbacks(mLiveUpdate);
+                    mLiveUpdateScheduled = false;
+                    //Live readings of the cancelled drag were shown, show the rectangle's
+                    if (view.cancelDrag() && mPhoto != null && !view.isMultiple()) {
+                        view.getRect(mLiveRect);
+                        if (mLiveRect.isEmpty()) {
+                            Bitmap bitmap = mPhoto.getBitmap();
+                            analyzeImg(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(),
+                                    false);
+                        } else {
+                            analyzeSelection(mLiveRect, true);
+                        }
+                    }
+                    return true;
+                }
+            });
+            //While dragging, update the reading at most every LIVE_UPDATE_INTERVAL_MS
+            view.setOnMoveCallback(new DragRectView.OnMoveCallback() {
+                @Override
+                public void onRectChanged(RectF rect) {
+                    //Several rectangles are only analyzed when released
+                    if (view.isMultiple()) {
+                        return;
+                    }
+                    mLiveRect.set(rect);
+                    if (!mLiveUpdateScheduled) {
+                        long delay = mLastLiveUpdate + LIVE_UPDATE_INTERVAL_MS -
+                                SystemClock.uptimeMillis();
+                        view.postDelayed(mLiveUpdate, Math.max(0, delay));
+                        mLiveUpdateScheduled = true;
+                    }
+                }
+            });
+        }
+
+        if (savedInstanceState != null) {
+            restoreState((RetainedState) getLastCustomNonConfigurationInstance(),
+                    savedInstanceState.getFloat(STATE_ZOOM, 1.0f),
+                    savedInstanceState.getFloat(STATE_CENTER_X),
+                    savedInstanceState.getFloat(STATE_CENTER_Y),
+                    savedInstanceState.getBoolean(STATE_RECORDED));
+        }
+    }
+
+    /**
+     * Method to show again what the activity showed before being recreated. After a
+     * configuration change the photo, its index and its reading are taken as they were, so
+     * nothing is decoded or analyzed again. If the app was killed, or the photo was still
+     * loading, the photo is loaded again.
+     *
+     * @param retained {@link RetainedState}: state kept through a configuration change, null
+     *                 if the app was killed
+     * @param zoom float: zoom of the photo
+     * @param centerX float: x coordinate of the photo at the center of the view
+     * @param centerY float: y coordinate of the photo at the center of the view
+     * @param recorded boolean: <code>true</code> if the reading of the photo was already
+     *                 stored in the history
+     */
+    private void restoreState(RetainedState retained, float zoom, float centerX, float centerY,
+                              boolean recorded) {
+        TiledPhotoView photoView = findViewById(R.id.photoView);
+        //Applied when the photo is shown
+        photoView.setZoom(zoom, centerX, centerY);
+        findViewById(R.id.performanceOverlay).setVisibility(mPerformanceOverlay ?
+                View.VISIBLE : View.GONE);
+
+        if (retained != null && retained.mPhoto != null) {
+            mPhoto = retained.mPhoto;
+            mColorIndex = retained.mColorIndex;
+            Bitmap bitmap = mPhoto.getBitmap();
+            photoView.setPhoto(mPhoto);
+            if (retained.mReading != null) {
+                showResult(retained.mReading);
+            } else {
+                analyzeImg(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), true);
+            }
+            if (mFastReadings) {
+                buildColorIndex();
+            }
+        } else if (mSource != null) {
+            loadPhoto(mSource, !recorded);
+        }
+    }
+
+    /**
+     * Keep the decoded photo, its index and its reading for the activity recreated after a
+     * configuration change
+     *
+     * @return state {@link RetainedState}
+     */
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        RetainedState state = new RetainedState();
+        state.mPhoto = mPhoto;
+        state.mColorIndex = mColorIndex;
+        state.mReading = mReading;
+        return state;
+    }
+
+    /**
+     * Save what is needed to show the photo again if the activity is recreated, also after
+     * the app is killed
+     *
+     * @param outState Bundle: where to save
+     */
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_PHOTO_PATH, mCurrentPhotoPath);
+        outState.putParcelable(STATE_SOURCE, mSource);
+        TiledPhotoView photoView = findViewById(R.id.photoView);
+        outState.putFloat(STATE_ZOOM, photoView.getZoom());
+        outState.putFloat(STATE_CENTER_X, photoView.getCenterX());
+        outState.putFloat(STATE_CENTER_Y, photoView.getCenterY());
+        outState.putBoolean(STATE_RECORDED, mReading != null);
+        outState.putBoolean(STATE_FAST_READINGS, mFastReadings);
+        outState.putBoolean(STATE_MULTIPLE_SELECTIONS, mMultipleSelections);
+        outState.putBoolean(STATE_ADAPTIVE_SAMPLING, mAdaptiveSampling);
+        outState.putBoolean(STATE_CIRCULAR_HUE, mCircularHue);
+        outState.putBoolean(STATE_GLARE_FILTER, mGlareFilter);
+        outState.putBoolean(STATE_PERFORMANCE_OVERLAY, mPerformanceOverlay);
+    }
+
+    /**
+     * Method to launch the gallery or the camera, as chosen in the main activity
+     */
+    private void launchPhotoIntent() {
         // Get the Intent that started this activity and extract the string
         Intent intent = getIntent();
         String message = intent.getStringExtra(MainActivity.EXTRA_MESSAGE);
@@ -84,6 +387,7 @@ public class ResultActivity extends AppCompatActivity {
             intentGallery.setType("image/*");
             intentGallery.setAction(Intent.ACTION_GET_CONTENT);
             // Always show the chooser (if there are multiple options available)
+            mIntentStart = System.nanoTime();
             startActivityForResult(Intent.createChooser(intentGallery, "Select Picture"),
                     REQUEST_IMAGE_PICK);
         } else if(message.equals("Camera")) {
@@ -110,89 +414,149 @@ public class ResultActivity extends AppCompatActivity {
                     }
                     intentCamera.putExtra("return-data", true);
                     intentCamera.putExtra(MediaStore.EXTRA_OUTPUT, photoURI);
+                    mIntentStart = System.nanoTime();
                     startActivityForResult(intentCamera, REQUEST_IMAGE_CAPTURE);
                 }
             }
         }
+    }
 
-        //Zoom in button
-        final ImageButton zoomIn = findViewById(R.id.btnZoomPlus);
-        zoomIn.setOnClickListener(new View.OnClickListener() {
-            public void onClick(View v) {
-                ImageView photoView = findViewById(R.id.photoView);
-
-                float x = photoView.getScaleX();
-                float y = photoView.getScaleY();
-
-                //Scale photo
-                photoView.setScaleX((float) (x+0.1));
-                photoView.setScaleY((float) (y+0.1));
-
-                DragRectView dragRect = findViewById(R.id.dragRect);
-
-                float xRect = dragRect.getScaleX();
-                float yRect = dragRect.getScaleY();
+    /**
+     * Menu constructor
+     *
+     * @param menu Menu
+     */
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_result, menu);
+        menu.findItem(R.id.action_fast_readings).setChecked(mFastReadings);
+        menu.findItem(R.id.action_multiple_selections).setChecked(mMultipleSelections);
+        menu.findItem(R.id.action_adaptive_sampling).setChecked(mAdaptiveSampling);
+        menu.findItem(R.id.action_circular_hue).setChecked(mCircularHue);
+        menu.findItem(R.id.action_glare_filter).setChecked(mGlareFilter);
+        menu.findItem(R.id.action_performance_overlay).setChecked(mPerformanceOverlay);
+        return true;
+    }
 
-                //Scale selection rectangle area
-                dragRect.setScaleX((float) (xRect+0.1));
-                dragRect.setScaleY((float) (yRect+0.1));
+    /**
+     * Method to handle action bar item clicks
+     *
+     * @param item MenuItem: action bar item where user clicked
+     * @return <code>true</code>
+     */
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+
+        if (id == R.id.action_fast_readings) {
+            mFastReadings = !item.isChecked();
+            item.setChecked(mFastReadings);
+            if (mFastReadings) {
+                buildColorIndex();
             }
-        });
-        //Zoom out button
-        final ImageButton zoomOut = findViewById(R.id.btnZoomMinus);
-        zoomOut.setOnClickListener(new View.OnClickListener() {
-            public void onClick(View v) {
-                ImageView photoView = findViewById(R.id.photoView);
+            return true;
+        }
 
-                float x = photoView.getScaleX();
-                float y = photoView.getScaleY();
+        if (id == R.id.action_multiple_selections) {
+            mMultipleSelections = !item.isChecked();
+            item.setChecked(mMultipleSelections);
+            DragRectView view = findViewById(R.id.dragRect);
+            view.setMultiple(mMultipleSelections);
+            //Show the readings of the rectangles kept, without storing them again
+            if (mMultipleSelections) {
+                analyzeSelections(-1);
+            } else {
+                view.getRect(mLiveRect);
+                if (!mLiveRect.isEmpty()) {
+                    analyzeSelection(mLiveRect, true);
+                }
+            }
+            return true;
+        }
 
-                //Scale photo
-                photoView.setScaleX((float) (x-0.1));
-                photoView.setScaleY((float) (y-0.1));
+        if (id == R.id.action_adaptive_sampling) {
+            mAdaptiveSampling = !item.isChecked();
+            item.setChecked(mAdaptiveSampling);
+            mAnalysisEngine.setAdaptiveSampling(mAdaptiveSampling);
+            return true;
+        }
 
-                DragRectView dragRect = findViewById(R.id.dragRect);
+        if (id == R.id.action_circular_hue) {
+            mCircularHue = !item.isChecked();
+            item.setChecked(mCircularHue);
+            mAnalysisEngine.setCircularHue(mCircularHue);
+            return true;
+        }
 
-                float xRect = dragRect.getScaleX();
-                float yRect = dragRect.getScaleY();
+        if (id == R.id.action_glare_filter) {
+            mGlareFilter = !item.isChecked();
+            item.setChecked(mGlareFilter);
+            mAnalysisEngine.setTrimmedMean(mGlareFilter);
+            return true;
+        }
 
-                //Scale selection rectangle area
-                dragRect.setScaleX((float) (xRect-0.1));
-                dragRect.setScaleY((float) (yRect-0.1));
-            }
-        });
-        //Zoom original. Set original dimensions
-        final ImageButton zoomOrig = findViewById(R.id.btnZoomOriginal);
-        zoomOrig.setOnClickListener(new View.OnClickListener() {
-            public void onClick(View v) {
-                ImageView photoView = findViewById(R.id.photoView);
+        if (id == R.id.action_performance_overlay) {
+            mPerformanceOverlay = !item.isChecked();
+            item.setChecked(mPerformanceOverlay);
+            findViewById(R.id.performanceOverlay).setVisibility(mPerformanceOverlay ?
+                    View.VISIBLE : View.GONE);
+            updatePerformanceOverlay();
+            return true;
+        }
 
-                //Scale photo
-                photoView.setScaleX(1.0f);
-                photoView.setScaleY(1.0f);
+        if (id == R.id.action_export_timings) {
+            exportTimings();
+            return true;
+        }
 
-                DragRectView dragRect = findViewById(R.id.dragRect);
+        return super.onOptionsItemSelected(item);
+    }
 
-                //Scale selection rectangle area
-                dragRect.setScaleX(1.0f);
-                dragRect.setScaleY(1.0f);
-            }
-        });
+    /**
+     * Free pooled bitmaps when the app is hidden or the system is running low on memory
+     *
+     * @param level int: ComponentCallbacks2.TRIM_MEMORY_* level
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            //Tiles in view are decoded again when the photo is drawn
+            mTileCache.clear();
+            sBitmapPool.clear();
+        }
+    }
 
-        final DragRectView view = findViewById(R.id.dragRect);
+    /**
+     * Write the readings still waiting and the cached readings when the activity is hidden,
+     * in case the app is killed
+     */
+    @Override
+    protected void onStop() {
+        mHistory.flush();
+        mAnalysisEngine.saveCache(new File(getCacheDir(), RESULT_CACHE_FILE));
+        super.onStop();
+    }
 
-        //If selection rectangle is set or changed, do all the steps
-        if (null != view) {
-            view.setOnUpCallback(new DragRectView.OnUpCallback() {
-                @Override
-                public void onRectFinished(final Rect rect) {
-                    ImageView photoView = findViewById(R.id.photoView);
-                    photoView.setDrawingCacheEnabled(true);
-                    Bitmap bitmap = photoView.getDrawingCache();
-                    analyzeImg(bitmap,rect.left,rect.top,rect.right,rect.bottom);
-                }
-            });
+    /**
+     * Stop background analysis when the activity is destroyed, giving the photo back to the
+     * bitmap pool unless the activity is being recreated
+     */
+    @Override
+    protected void onDestroy() {
+        if (mPhoto != null) {
+            TiledPhotoView photoView = findViewById(R.id.photoView);
+            photoView.setPhoto(null);
+            //The recreated activity keeps showing the photo
+            if (!isChangingConfigurations()) {
+                mAnalysisEngine.recyclePhoto(mPhotoDecoder, mPhoto);
+            }
         }
+        mAnalysisEngine.shutdown();
+        mTileCache.shutdown();
+        mPhotoDecoder.release();
+        Log.i(TAG, sBitmapPool.toString());
+        super.onDestroy();
     }
 
     /**
@@ -208,195 +572,348 @@ public class ResultActivity extends AppCompatActivity {
      *                   activity through its setResult().
      * @param data Intent: An Intent, which can return result data to the caller
      *             (various data can be attached to Intent "extras").
-     * @throws IOException if get photo from external storage fails
-     * @throws Exception if get photo from camera fails
      */
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-        // this creates a MUTABLE bitmap
-        Bitmap bitmap = Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888);
         super.onActivityResult(requestCode, resultCode, data);
+        if (mIntentStart != 0) {
+            PerformanceTrace.INTENT.record(System.nanoTime() - mIntentStart);
+            mIntentStart = 0;
+        }
 
         //If no photo selected or taken return to main activity
         if(resultCode == RESULT_CANCELED) {
             finish();
+            return;
         }
 
-        ImageView photoView = findViewById(R.id.photoView);
-        photoView.destroyDrawingCache();
+        Uri uri = null;
         //If photo from gallery
         if (requestCode == REQUEST_IMAGE_PICK && resultCode == RESULT_OK && data != null &&
                 data.getData() != null) {
-            Uri uri = data.getData();
-            try {
-                bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), uri);
-                photoView.setImageBitmap(bitmap);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            uri = data.getData();
         //If photo from camera
         } else if (requestCode == REQUEST_IMAGE_CAPTURE && resultCode == RESULT_OK) {
             galleryAddPic();
             File f = new File(mCurrentPhotoPath);
-            Uri uri = Uri.fromFile(f);
-            try {
-                bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), uri);
-                photoView.setImageBitmap(bitmap);
-            } catch (Exception e) {
-                Log.e("Camera", e.toString());
+            uri = Uri.fromFile(f);
+        }
+        if (uri == null) {
+            return;
+        }
+        mSource = uri;
+        loadPhoto(uri, true);
+    }
+
+    /**
+     * Method to decode a photo in background and analyze it, unless its reading is cached
+     *
+     * @param uri Uri: photo from gallery or camera
+     * @param record boolean: <code>true</code> to store the reading of the photo in the
+     *               history, <code>false</code> if it is already stored
+     */
+    private void loadPhoto(final Uri uri, final boolean record) {
+        mCachedReadingShown = false;
+        mAnalysisEngine.loadPhoto(mPhotoDecoder, uri, new AnalysisEngine.PhotoCallback() {
+            @Override
+            public void onCachedReading(ColorReading reading) {
+                mCachedReadingShown = true;
+                showResult(reading);
+                if (record) {
+                    record(uri, null, reading);
+                }
+            }
+
+            @Override
+            public void onPhotoLoaded(Photo photo) {
+                Photo previous = mPhoto;
+                mPhoto = photo;
+                mColorIndex = null;
+                Bitmap bitmap = photo.getBitmap();
+                TiledPhotoView photoView = findViewById(R.id.photoView);
+                photoView.setPhoto(photo);
+                if (previous != null) {
+                    mAnalysisEngine.recyclePhoto(mPhotoDecoder, previous);
+                }
+
+                //Analyze photo
+                if (!mCachedReadingShown) {
+                    analyzeImg(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), record);
+                }
+                if (mFastReadings) {
+                    buildColorIndex();
+                }
+                updatePerformanceOverlay();
+            }
+        });
+    }
+
+    /**
+     * Method to build in background the index for fast selection readings of the photo, if
+     * it is not built yet
+     */
+    private void buildColorIndex() {
+        if (mPhoto == null || mColorIndex != null) {
+            return;
+        }
+        mAnalysisEngine.buildIndex(mPhoto, new AnalysisEngine.IndexCallback() {
+            @Override
+            public void onIndexBuilt(ColorIndex index) {
+                mColorIndex = index;
+            }
+        });
+    }
+
+    /**
+     * Method to analyze the part of the photo under the selection rectangle. The rectangle is
+     * mapped to the original image, and only that region is decoded from it. With fast
+     * readings the value is read from the photo index instead, without decoding anything. An
+     * empty rectangle analyzes the whole photo.
+     *
+     * @param rect RectF: selection rectangle in bitmap coordinates
+     * @param live boolean: <code>true</code> while the rectangle is being dragged, so a newer
+     *             rectangle replaces this one if the analysis is busy
+     */
+    private void analyzeSelection(RectF rect, boolean live) {
+        if (mPhoto == null) {
+            return;
+        }
+        Bitmap bitmap = mPhoto.getBitmap();
+        if (rect.isEmpty()) {
+            if (!live) {
+                analyzeImg(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), true);
             }
+            return;
+        }
+        if (mFastReadings && mColorIndex != null) {
+            Rect selection = new Rect();
+            rect.roundOut(selection);
+            if (selection.intersect(0, 0, bitmap.getWidth(), bitmap.getHeight())) {
+                if (!live) {
+                    mAnalysisEngine.cancel();
+                }
+                ColorReading reading = mColorIndex.query(selection.left, selection.top,
+                        selection.right, selection.bottom);
+                showResult(reading);
+                if (!live) {
+                    Rect roi = new Rect();
+                    mPhoto.mapToSource(new RectF(selection), roi);
+                    record(mPhoto.getUri(), roi, reading);
+                }
+            }
+            return;
+        }
+
+        Rect region = new Rect();
+        if (mPhoto.mapToSource(rect, region)) {
+            if (live) {
+                mAnalysisEngine.previewRegion(mPhotoDecoder, mPhoto, region, mShowResult);
+            } else {
+                mAnalysisEngine.analyzeRegion(mPhotoDecoder, mPhoto, region,
+                        showAndRecord(mPhoto, region));
+            }
+        }
+    }
+
+    /**
+     * Method to analyze the parts of the photo under every selection rectangle. All of them
+     * are read from the photo bitmap in a single scan, or from the photo index with fast
+     * readings, and each rectangle shows its value. The reading of the rectangle just added
+     * is shown and stored in the history; without rectangles the whole photo is analyzed.
+     *
+     * @param added int: index of the rectangle added, -1 if none was
+     */
+    private void analyzeSelections(final int added) {
+        if (mPhoto == null) {
+            return;
+        }
+        final DragRectView view = findViewById(R.id.dragRect);
+        final Photo photo = mPhoto;
+        Bitmap bitmap = photo.getBitmap();
+        int count = view.getRectCount();
+        if (count == 0) {
+            analyzeImg(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), false);
+            return;
         }
 
-        int height = bitmap.getHeight();
-        int width = bitmap.getWidth();
+        //Rectangles in bitmap pixels, empty if outside the photo
+        final int[] regions = new int[4 * count];
+        RectF rect = new RectF();
+        Rect selection = new Rect();
+        for (int i = 0; i < count; i++) {
+            view.getRect(i, rect);
+            rect.roundOut(selection);
+            if (!selection.intersect(0, 0, bitmap.getWidth(), bitmap.getHeight())) {
+                selection.setEmpty();
+            }
+            regions[4 * i] = selection.left;
+            regions[4 * i + 1] = selection.top;
+            regions[4 * i + 2] = selection.right;
+            regions[4 * i + 3] = selection.bottom;
+        }
 
-        //Analyze photo
-        analyzeImg(bitmap,0,0,width,height);
+        AnalysisEngine.RegionsCallback callback = new AnalysisEngine.RegionsCallback() {
+            @Override
+            public void onRegionsAnalyzed(ColorReading[] readings) {
+                for (int i = 0; i < readings.length; i++) {
+                    view.setReading(i, readings[i]);
+                }
+                showResult(readings[added >= 0 ? added : 0]);
+                if (added >= 0 && regions[4 * added + 2] > regions[4 * added]) {
+                    Rect roi = new Rect();
+                    photo.mapToSource(new RectF(regions[4 * added], regions[4 * added + 1],
+                            regions[4 * added + 2], regions[4 * added + 3]), roi);
+                    record(photo.getUri(), roi, readings[added]);
+                }
+            }
+        };
+        if (mFastReadings && mColorIndex != null) {
+            mAnalysisEngine.cancel();
+            ColorReading[] readings = new ColorReading[count];
+            for (int i = 0; i < count; i++) {
+                readings[i] = mColorIndex.query(regions[4 * i], regions[4 * i + 1],
+                        regions[4 * i + 2], regions[4 * i + 3]);
+            }
+            callback.onRegionsAnalyzed(readings);
+        } else {
+            mAnalysisEngine.analyzeRegions(bitmap, regions, callback);
+        }
     }
 
     /**
-     * Method to analyze photo and get color and hue
+     * Method to analyze photo and get color and hue. The analysis runs in background and
+     * cancels any previous one still running; the result is shown by {@link #showResult} and
+     * stored in the history, if asked to. Readings of the whole photo are cached.
      *
      * @param bitmap Bitmap: photo
      * @param left int: rect coordinates from left. Default is 0
      * @param top int: rect coordinates from top. Default is 0
      * @param right int: rect coordinates from right. Default is bitmap width
      * @param bottom int: rect coordinates from bottom. Default is bitmap height
+     * @param record boolean: <code>true</code> to store the reading in the history
      */
-    private void analyzeImg(Bitmap bitmap, int left, int top, int right, int bottom) {
-        int totalPixels = 1;
-        int pixelSpacing = 3;
-        int RED = 0; int GREEN = 0; int BLUE = 0;
-        int height; int width;
-
-        if(bottom-top < 1) {
-            height = bitmap.getHeight();
-        } else {
-            height = bottom-top;
+    private void analyzeImg(Bitmap bitmap, int left, int top, int right, int bottom,
+                            boolean record) {
+        Rect roi = null;
+        String cacheKey = null;
+        if (left > 0 || top > 0 || right < bitmap.getWidth() || bottom < bitmap.getHeight()) {
+            roi = new Rect();
+            mPhoto.mapToSource(new RectF(left, top, right, bottom), roi);
+        } else if (mPhoto.getContentHash() != 0) {
+            cacheKey = ResultCache.photoKey(mPhoto.getContentHash(),
+                    mPhotoDecoder.getReqWidth(), mPhotoDecoder.getReqHeight());
         }
-        if(right-left < 1) {
-            width = bitmap.getWidth();
-        } else {
-            width = right-left;
-        }
-        //Create bitmap with selection rectangle coordinates. Default original photo dimensions
-        Bitmap bitmap2 = Bitmap.createBitmap(bitmap, abs(left), abs(top), abs(width), abs(height));
-        int[] pixels = new int[bitmap2.getWidth() * bitmap2.getHeight()];
-        bitmap2.getPixels(pixels, 0, bitmap2.getWidth(), 0, 0, bitmap2.getWidth(),
-                bitmap2.getHeight());
-        //Go over every pixel getting its color
-        for (int i = 0; i < pixels.length; i += pixelSpacing) {
-            int color = pixels[i];
-
-            int r = Color.red(color);
-            int g = Color.green(color);
-            int b = Color.blue(color);
-            if(r < 150 && g < 150 && b < 150) {
-                RED += Color.red(color);
-                GREEN += Color.green(color);
-                BLUE += Color.blue(color);
-                totalPixels++;
+        mAnalysisEngine.analyze(bitmap, left, top, right, bottom, cacheKey,
+                record ? showAndRecord(mPhoto, roi) : mShowResult);
+    }
+
+    /**
+     * Method to create the callback of a final reading, which shows it and stores it in the
+     * history. Live readings while dragging are only shown.
+     *
+     * @param photo {@link Photo}: analyzed photo
+     * @param roi Rect: analyzed region in original image coordinates, null for the whole photo
+     * @return callback {@link AnalysisEngine.Callback}
+     */
+    private AnalysisEngine.Callback showAndRecord(final Photo photo, final Rect roi) {
+        return new AnalysisEngine.Callback() {
+            @Override
+            public void onAnalysisFinished(ColorReading reading) {
+                showResult(reading);
+                record(photo.getUri(), roi, reading);
             }
-        }
+        };
+    }
 
-        //Convert RGB to HSV
-        float[] hsv = new float[3];
-        Color.RGBToHSV(RED / totalPixels, GREEN / totalPixels,
-                BLUE / totalPixels, hsv);
+    /**
+     * Method to store a reading in the history. It is written in background.
+     *
+     * @param source Uri: analyzed photo
+     * @param roi Rect: analyzed region in original image coordinates, null for the whole photo
+     * @param reading {@link ColorReading}: result of the analysis
+     */
+    private void record(Uri source, Rect roi, ColorReading reading) {
+        mHistory.record(new Measurement(0, System.currentTimeMillis(), source.toString(), roi,
+                reading));
+    }
 
+    /**
+     * Method to show the value of an analysis and its color
+     *
+     * @param reading {@link ColorReading}: result of the analysis
+     */
+    private void showResult(ColorReading reading) {
+        long start = PerformanceTrace.begin(PerformanceTrace.DRAW);
+        mReading = reading;
         TextView valueView = findViewById(R.id.valueView);
         //If hue equals to 0 then we don't show any value and the color is 0 in scale
-        if(hsv[0] == 0.0f) {
+        if(!reading.hasValue()) {
             valueView.setText("N/A");
-            hsv[0] = 60;
         } else {
-            valueView.setText(String.valueOf(HueToScale((int) hsv[0])));
+            valueView.setText(String.valueOf(reading.getScale()));
         }
 
-        //Convert Hue to RGB to use in ImageView and Gradient
-        hsv[1] = 255;
-        hsv[2] = 255;
-        final int color = Color.HSVToColor(hsv);
-
-        ImageView gradientView = findViewById(R.id.gradientView);
+        //Convert Hue to RGB to use in the color swatch
+        mHsv[0] = reading.getDisplayHue();
+        mHsv[1] = 255;
+        mHsv[2] = 255;
+        OzoneScaleView colorView = findViewById(R.id.colorView);
+        colorView.setColor(Color.HSVToColor(mHsv));
+
+        //Point value in gradient, N/A is the start of the scale
+        OzoneScaleView gradientView = findViewById(R.id.gradientView);
+        gradientView.setScale(Math.max(0, reading.getScale()));
+        PerformanceTrace.end(PerformanceTrace.DRAW, start);
+        updatePerformanceOverlay();
+    }
 
-        //If gradient not initialized, wait until it has width to draw gradient and
-        // ImageView with color
-        if(gradientView.getWidth() == 0) {
-            final ViewTreeObserver observer = gradientView.getViewTreeObserver();
-            observer.addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
-                @Override
-                public void onGlobalLayout() {
-                    drawGradientAndColor(color);
-                }
-            });
-        //Else draw gradient and ImageView with color without waiting
-        } else {
-            drawGradientAndColor(color);
+    /**
+     * Method to show the timings of every stage on the photo, if the overlay is enabled
+     */
+    private void updatePerformanceOverlay() {
+        if (mPerformanceOverlay) {
+            TextView overlay = findViewById(R.id.performanceOverlay);
+            overlay.setText(PerformanceTrace.summary());
         }
-
     }
 
     /**
-     * Method to change colorView's color and point in gradientView
-     *
-     * @param color int: result color after hueToScale conversion
+     * Method to write the timings of every stage to a CSV file and share it, to compare
+     * devices
      */
-    private void drawGradientAndColor(int color) {
-        //Change colorView's color
-        ImageView colorView = findViewById(R.id.colorView);
-        Bitmap bmp=Bitmap.createBitmap(colorView.getWidth(),colorView.getHeight(),
-                Bitmap.Config.ARGB_8888);
-        Canvas canvas1 = new Canvas(bmp);
-        canvas1.drawColor(color);
-        colorView.setImageBitmap(bmp);
-
-        //Create gradient
-        ImageView gradientView = findViewById(R.id.gradientView);
-        GradientDrawable rainbow = new GradientDrawable(GradientDrawable.Orientation.LEFT_RIGHT,
-                new int[] {Color.YELLOW, Color.RED, Color.MAGENTA, Color.BLUE});
-        Bitmap bitmapGradient = Bitmap.createBitmap(gradientView.getWidth(),
-                gradientView.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmapGradient);
-        rainbow.setBounds(0, 0, gradientView.getWidth(), gradientView.getHeight());
-        rainbow.draw(canvas);
-
-        gradientView.setImageBitmap(bitmapGradient);
-
-        //Get color x position in gradient, with a distance between color and result of 5
-        int posX = 0;
-        for (int i = 0; i < bitmapGradient.getWidth(); i += 1) {
-            int color2 = bitmapGradient.getPixel(i,1);
-            if(colorDistance(color2,color) < 5) {
-                posX = i;
-                break;
-            }
+    private void exportTimings() {
+        File dir = getExternalFilesDir(null);
+        if (dir == null) {
+            Toast.makeText(this, R.string.export_timings_failed, Toast.LENGTH_SHORT).show();
+            return;
         }
-
-        //Draw pointer in gradient
-        for(int y = 120; y > 60; y--) {
-            for(int x = 60; x < y; x++) {
-                if(posX + x - 60 < bitmapGradient.getWidth()) {
-                    bitmapGradient.setPixel(posX + x - 60, y, BLACK);
-                }
-                if(posX - x + 60 > 0) {
-                    bitmapGradient.setPixel(posX - x + 60, y, BLACK);
-                }
+        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
+        File file = new File(dir, "Timings_" + timeStamp + ".csv");
+        try {
+            Writer out = new BufferedWriter(new FileWriter(file));
+            try {
+                PerformanceTrace.export(out);
+            } finally {
+                out.close();
             }
+        } catch (IOException e) {
+            Log.e(TAG, "Can't export timings", e);
+            Toast.makeText(this, R.string.export_timings_failed, Toast.LENGTH_SHORT).show();
+            return;
         }
-        gradientView.setImageBitmap(bitmapGradient);
-    }
 
-    /**
-     * Method to calculate distance between 2 colors
-     *
-     * @param a int: first color
-     * @param b int: second color
-     * @return distance int
-     */
-    public int colorDistance(int a, int b) {
-        return Math.abs(Color.red(a) - Color.red(b)) + Math.abs(Color.green(a) -
-                Color.green(b)) + Math.abs(Color.blue(a) - Color.blue(b));
+        Uri fileURI;
+        if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.KITKAT){
+            fileURI = Uri.fromFile(file);
+        } else {
+            fileURI = FileProvider.getUriForFile(this, getPackageName() + ".fileprovider",
+                    file);
+        }
+        Intent share = new Intent(Intent.ACTION_SEND);
+        share.setType("text/csv");
+        share.putExtra(Intent.EXTRA_STREAM, fileURI);
+        share.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        startActivity(Intent.createChooser(share, getString(R.string.action_export_timings)));
     }
 
     /**
@@ -433,26 +950,4 @@ public class ResultActivity extends AppCompatActivity {
         mediaScanIntent.setData(contentUri);
         this.sendBroadcast(mediaScanIntent);
     }
-
-    /**
-     * Method to make HUE <=> OZONE SCALE conversion.
-     *
-     * Hue values in a HSV representation can vary from 0 to 359. In our Ozone Scale
-     * the hue of the samples can move from the yellow (no ozone at all) to blue
-     * (max amount of ozone measurable). Hence our scale overlaps the HSV hue
-     * values, so we should map HSV hue values to our Ozone Scale value. This is
-     * values from 60 to 0 followed by values from 359 to 240 will be mapped to
-     * range values [0, 180].
-     *
-     * Hue: 0-359
-     * Scale: [60..0] & [359..240] ==> [0..180]
-     *
-     * @param hue int: hue value to convert
-     */
-    private int HueToScale(int hue) {
-        if(hue <= 60) {
-            return abs(hue - 60);
-        }
-        return abs(hue - 359) + 61;
-    }
-}
+}
\ No newline at end of file
@@ -0,0 +1,307 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Cache of the tiles of a zoomed photo.
+ *
+ * Tiles of the {@link TileGrid} of the photo are decoded on demand from the original image in
+ * a background thread, and kept until the cache is full; then the least recently drawn
+ * tiles are given back to the {@link PhotoDecoder}. Tiles that scrolled out of view before
+ * their turn to be decoded are skipped. Except for decoding, the cache must only be used
+ * from the UI thread.
+ *
+ * Tiles are kept by their {@link TileGrid#key} in primitive keyed arrays, and the order they
+ * were drawn in is a counter stored with each tile, so getting a cached tile on every frame
+ * allocates nothing.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class TileCache {
+
+    private static final String TAG = "TileCache";
+
+    private final PhotoDecoder mDecoder;
+    private final long mMaxBytes;
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LongSparseArray<Tile> mTiles = new LongSparseArray<>();
+    private final LongSparseArray<Boolean> mPending = new LongSparseArray<>();
+    //Incremented every time a tile is drawn, the least recently drawn tile has the lowest
+    private long mClock = 0;
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private long mBytes = 0;
+    private Photo mPhoto = null;
+    private TileGrid mGrid = null;
+    private Listener mListener = null;
+
+    //Tiles in view, read by the decoding thread to skip the ones not needed anymore
+    private volatile int mVisibleSampleSize = 0;
+    private volatile int mVisibleLeft = 0;
+    private volatile int mVisibleTop = 0;
+    private volatile int mVisibleRight = -1;
+    private volatile int mVisibleBottom = -1;
+
+    /**
+     * Cached tile and when it was last drawn
+     */
+    private static final class Tile {
+        final Bitmap mBitmap;
+        long mLastUsed;
+
+        Tile(Bitmap bitmap, long lastUsed) {
+            mBitmap = bitmap;
+            mLastUsed = lastUsed;
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called in the UI thread when a tile in view is decoded
+         */
+        void onTileLoaded();
+    }
+
+    /**
+     * Constructor
+     *
+     * @param decoder {@link PhotoDecoder} to decode the tiles with and give them back to
+     * @param maxBytes long: maximum size of the cached tiles
+     */
+    public TileCache(PhotoDecoder decoder, long maxBytes) {
+        mDecoder = decoder;
+        mMaxBytes = maxBytes;
+        mExecutor = Executors.newSingleThreadExecutor(
+                AnalysisEngine.backgroundThreads(TAG));
+    }
+
+    /**
+     * Sets listener for decoded tiles
+     *
+     * @param listener {@link Listener}
+     */
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Method to change the photo the tiles are taken from, dropping the tiles of the previous
+     * one
+     *
+     * @param photo {@link Photo}: photo shown, null if none
+     */
+    public void setPhoto(Photo photo) {
+        clear();
+        mPhoto = photo;
+        mGrid = photo == null ? null : new TileGrid(photo.getSourceWidth(),
+                photo.getSourceHeight(), TileGrid.DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Method to get the grid of tiles of the photo
+     *
+     * @return grid {@link TileGrid}, null if there is no photo
+     */
+    public TileGrid getGrid() {
+        return mGrid;
+    }
+
+    /**
+     * Method to tell which tiles are in view. Tiles out of it waiting to be decoded are
+     * skipped.
+     *
+     * @param sampleSize int: sample size of the tiles in view, 0 if none
+     * @param left int: first column in view
+     * @param top int: first row in view
+     * @param right int: last column in view
+     * @param bottom int: last row in view
+     */
+    public void setVisible(int sampleSize, int left, int top, int right, int bottom) {
+        mVisibleSampleSize = sampleSize;
+        mVisibleLeft = left;
+        mVisibleTop = top;
+        mVisibleRight = right;
+        mVisibleBottom = bottom;
+    }
+
+    /**
+     * Method to get a tile, decoding it in background if it is not cached. The listener is
+     * called when it is decoded, if it is still in view.
+     *
+     * @param sampleSize int: sample size of the tile
+     * @param column int: column of the tile
+     * @param row int: row of the tile
+     * @return tile Bitmap, null if it is not decoded yet
+     */
+    public Bitmap get(int sampleSize, int column, int row) {
+        if (mPhoto == null) {
+            return null;
+        }
+        long key = TileGrid.key(sampleSize, column, row);
+        Tile tile = mTiles.get(key);
+        if (tile != null) {
+            tile.mLastUsed = ++mClock;
+            return tile.mBitmap;
+        }
+        if (mPending.indexOfKey(key) < 0) {
+            mPending.put(key, Boolean.TRUE);
+            decode(key, sampleSize, column, row);
+        }
+        return null;
+    }
+
+    /**
+     * Method to give back every cached tile, to free memory. Tiles being decoded are dropped.
+     */
+    public void clear() {
+        mGeneration.incrementAndGet();
+        mPending.clear();
+        for (int i = 0; i < mTiles.size(); i++) {
+            mDecoder.recycle(mTiles.valueAt(i).mBitmap);
+        }
+        mTiles.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Method to give back every cached tile and stop the decoding thread
+     */
+    public void shutdown() {
+        clear();
+        mExecutor.shutdownNow();
+    }
+
+    private boolean isVisible(int sampleSize, int column, int row) {
+        return sampleSize == mVisibleSampleSize && column >= mVisibleLeft &&
+                column <= mVisibleRight && row >= mVisibleTop && row <= mVisibleBottom;
+    }
+
+    /**
+     * Method to decode a tile in the background thread and cache it in the UI thread
+     *
+     * @param key long: {@link TileGrid#key} of the tile
+     * @param sampleSize int: sample size of the tile
+     * @param column int: column of the tile
+     * @param row int: row of the tile
+     */
+    private void decode(final long key, final int sampleSize, final int column, final int row) {
+        final int generation = mGeneration.get();
+        final Photo photo = mPhoto;
+        final Rect region = new Rect(mGrid.getTileLeft(sampleSize, column),
+                mGrid.getTileTop(sampleSize, row), mGrid.getTileRight(sampleSize, column),
+                mGrid.getTileBottom(sampleSize, row));
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Bitmap tile = null;
+                    //Skip tiles of another photo or that scrolled out of view meanwhile
+                    if (generation == mGeneration.get() && isVisible(sampleSize, column, row)) {
+                        long start = PerformanceTrace.begin(PerformanceTrace.DECODE_TILE);
+                        try {
+                            tile = mDecoder.decodeTile(photo, region, sampleSize);
+                        } catch (IOException | RuntimeException e) {
+                            Log.e(TAG, e.toString());
+                        } finally {
+                            PerformanceTrace.end(PerformanceTrace.DECODE_TILE, start);
+                        }
+                    }
+                    deliver(generation, key, sampleSize, column, row, tile);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //Shut down
+            mPending.remove(key);
+        }
+    }
+
+    /**
+     * Method to cache a decoded tile in the UI thread, unless the photo changed meanwhile
+     *
+     * @param generation int: photo counter when the tile was asked for
+     * @param key long: {@link TileGrid#key} of the tile
+     * @param sampleSize int: sample size of the tile
+     * @param column int: column of the tile
+     * @param row int: row of the tile
+     * @param tile Bitmap: decoded tile, null if it was skipped or can't be decoded
+     */
+    private void deliver(final int generation, final long key, final int sampleSize,
+                         final int column, final int row, final Bitmap tile) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration.get()) {
+                    if (tile != null) {
+                        mDecoder.recycle(tile);
+                    }
+                    return;
+                }
+                mPending.remove(key);
+                if (tile != null) {
+                    mTiles.put(key, new Tile(tile, ++mClock));
+                    mBytes += tile.getByteCount();
+                    trimToSize();
+                }
+                //A skipped tile in view again is asked for on the next draw
+                if (mListener != null && isVisible(sampleSize, column, row)) {
+                    mListener.onTileLoaded();
+                }
+            }
+        });
+    }
+
+    /**
+     * Method to give back the least recently drawn tiles until the cache fits its maximum
+     * size
+     */
+    private void trimToSize() {
+        while (mBytes > mMaxBytes && mTiles.size() > 0) {
+            //Few tiles fit in memory, so looking for the eldest is cheap
+            int eldest = 0;
+            for (int i = 1; i < mTiles.size(); i++) {
+                if (mTiles.valueAt(i).mLastUsed < mTiles.valueAt(eldest).mLastUsed) {
+                    eldest = i;
+                }
+            }
+            Bitmap tile = mTiles.valueAt(eldest).mBitmap;
+            mTiles.removeAt(eldest);
+            mBytes -= tile.getByteCount();
+            mDecoder.recycle(tile);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TileCache{tiles=" + mTiles.size() + ", bytes=" + mBytes + ", pending=" +
+                mPending.size() + "}";
+    }
+}
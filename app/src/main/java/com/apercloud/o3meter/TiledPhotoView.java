@@ -0,0 +1,465 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+
+/**
+ * View of a photo that can be zoomed in up to the pixels of the original image.
+ *
+ * The subsampled bitmap of the {@link Photo} is the base layer, fitted to the view like an
+ * ImageView does. When zoomed in past its resolution, the part in view is drawn over it with
+ * tiles of a {@link TileCache}, decoded from the original image at the sample size the zoom
+ * needs, so the photo stays sharp without decoding it whole. Pinching zooms and moving the
+ * fingers pans. Drawing and zooming over tiles already decoded allocate nothing.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class TiledPhotoView extends View implements TileCache.Listener {
+
+    //Zoom limit, a pixel of the original image this many screen pixels wide
+    static final float MAX_MAGNIFICATION = 4f;
+
+    private Photo mPhoto = null;
+    private TileCache mTiles = null;
+    private OnMatrixChangedListener mMatrixListener = null;
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    //Bitmap to view fitting the photo, and user zoom and pan in view coordinates
+    private final Matrix mBaseMatrix = new Matrix();
+    private final Matrix mZoomMatrix = new Matrix();
+    //Bitmap to view, original image to bitmap, and their combinations
+    private final Matrix mDrawMatrix = new Matrix();
+    private final Matrix mSourceMatrix = new Matrix();
+    private final Matrix mSourceToView = new Matrix();
+    private final Matrix mViewToSource = new Matrix();
+    private final Matrix mBitmapMatrix = new Matrix();
+    private final Matrix mTileMatrix = new Matrix();
+    private final Rect mTileRect = new Rect();
+    private final RectF mBounds = new RectF();
+    private final float[] mPoint = new float[2];
+    private float mFitScale = 1;
+    private float mZoom = 1;
+
+    //Zoom to apply when the photo is shown, after the activity is recreated
+    private float mPendingZoom = 0;
+    private float mPendingCenterX = 0;
+    private float mPendingCenterY = 0;
+
+    private ScaleGestureDetector mScaleDetector;
+    private boolean mZooming = false;
+    private float mLastFocusX = 0;
+    private float mLastFocusY = 0;
+
+    public interface OnMatrixChangedListener {
+        /**
+         * Called every time the photo is zoomed, panned or fitted to a new size. The matrix
+         * is reused, so it must be copied if it is kept.
+         *
+         * @param matrix Matrix: bitmap to view coordinates
+         */
+        void onMatrixChanged(Matrix matrix);
+    }
+
+    public TiledPhotoView(final Context context) {
+        super(context);
+        init();
+    }
+
+    public TiledPhotoView(final Context context, final AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public TiledPhotoView(final Context context, final AttributeSet attrs, final int defStyle) {
+        super(context, attrs, defStyle);
+        init();
+    }
+
+    /**
+     * Inits internal data
+     */
+    private void init() {
+        mScaleDetector = new ScaleGestureDetector(getContext(),
+                new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+                    @Override
+                    public boolean onScaleBegin(ScaleGestureDetector detector) {
+                        mLastFocusX = detector.getFocusX();
+                        mLastFocusY = detector.getFocusY();
+                        return true;
+                    }
+
+                    @Override
+                    public boolean onScale(ScaleGestureDetector detector) {
+                        //Zoom around the fingers and follow them as they move
+                        float focusX = detector.getFocusX();
+                        float focusY = detector.getFocusY();
+                        mZoomMatrix.postTranslate(focusX - mLastFocusX, focusY - mLastFocusY);
+                        mLastFocusX = focusX;
+                        mLastFocusY = focusY;
+                        zoomBy(detector.getScaleFactor(), focusX, focusY);
+                        return true;
+                    }
+                });
+    }
+
+    /**
+     * Sets the cache the tiles are taken from
+     *
+     * @param tiles {@link TileCache}
+     */
+    public void setTileCache(TileCache tiles) {
+        mTiles = tiles;
+        mTiles.setListener(this);
+    }
+
+    /**
+     * Sets listener for zoom and pan
+     *
+     * @param listener {@link OnMatrixChangedListener}
+     */
+    public void setOnMatrixChangedListener(OnMatrixChangedListener listener) {
+        mMatrixListener = listener;
+    }
+
+    /**
+     * Method to show a photo fitted to the view, or the zoom asked with {@link #setZoom} if
+     * it was asked before the photo was shown
+     *
+     * @param photo {@link Photo} to show, null to show nothing
+     */
+    public void setPhoto(Photo photo) {
+        mPhoto = photo;
+        if (mTiles != null) {
+            mTiles.setPhoto(photo);
+        }
+        if (photo != null) {
+            mSourceMatrix.set(photo.getSourceMatrix());
+        }
+        mZoomMatrix.reset();
+        mZoom = 1;
+        updateBaseMatrix();
+    }
+
+    public Photo getPhoto() {
+        return mPhoto;
+    }
+
+    /**
+     * Method to get the zoom, relative to the photo fitted to the view
+     *
+     * @return zoom float: 1 when fitted
+     */
+    public float getZoom() {
+        return mZoom;
+    }
+
+    /**
+     * Method to get the x coordinate of the photo at the center of the view
+     *
+     * @return x float: in bitmap coordinates
+     */
+    public float getCenterX() {
+        return viewCenterToBitmap()[0];
+    }
+
+    /**
+     * Method to get the y coordinate of the photo at the center of the view
+     *
+     * @return y float: in bitmap coordinates
+     */
+    public float getCenterY() {
+        return viewCenterToBitmap()[1];
+    }
+
+    /**
+     * Method to zoom the photo and center it on a point. If there is no photo yet, it is done
+     * when the photo is shown.
+     *
+     * @param zoom float: zoom relative to the photo fitted to the view
+     * @param centerX float: x coordinate to center, in bitmap coordinates
+     * @param centerY float: y coordinate to center, in bitmap coordinates
+     */
+    public void setZoom(float zoom, float centerX, float centerY) {
+        if (mPhoto == null || getWidth() == 0 || getHeight() == 0) {
+            mPendingZoom = zoom;
+            mPendingCenterX = centerX;
+            mPendingCenterY = centerY;
+            return;
+        }
+        mPendingZoom = 0;
+        mZoomMatrix.reset();
+        mZoom = 1;
+        zoomBy(zoom, 0, 0);
+        mPoint[0] = centerX;
+        mPoint[1] = centerY;
+        mDrawMatrix.mapPoints(mPoint);
+        mZoomMatrix.postTranslate(getWidth() / 2f - mPoint[0], getHeight() / 2f - mPoint[1]);
+        updateMatrix();
+    }
+
+    /**
+     * Method to zoom around the center of the view
+     *
+     * @param factor float: more than 1 to zoom in, less than 1 to zoom out
+     */
+    public void zoomBy(float factor) {
+        zoomBy(factor, getWidth() / 2f, getHeight() / 2f);
+    }
+
+    /**
+     * Method to zoom around a point, within the zoom limits
+     *
+     * @param factor float: more than 1 to zoom in, less than 1 to zoom out
+     * @param focusX float: x coordinate that doesn't move, in view coordinates
+     * @param focusY float: y coordinate that doesn't move, in view coordinates
+     */
+    public void zoomBy(float factor, float focusX, float focusY) {
+        if (mPhoto == null) {
+            return;
+        }
+        float zoom = Math.max(1, Math.min(mZoom * factor, getMaxZoom()));
+        mZoomMatrix.postScale(zoom / mZoom, zoom / mZoom, focusX, focusY);
+        mZoom = zoom;
+        updateMatrix();
+    }
+
+    /**
+     * Method to fit the photo to the view again
+     */
+    public void resetZoom() {
+        mZoomMatrix.reset();
+        mZoom = 1;
+        updateMatrix();
+    }
+
+    /**
+     * Method to get the zoom that shows a pixel of the original image
+     * {@link #MAX_MAGNIFICATION} screen pixels wide
+     *
+     * @return zoom float: relative to the photo fitted to the view
+     */
+    private float getMaxZoom() {
+        return Math.max(1, MAX_MAGNIFICATION * mPhoto.getSampleSize() / mFitScale);
+    }
+
+    /**
+     * Method to follow pinch gestures. It can be given the events of a view over this one,
+     * like a selection view, which should ignore the events while this returns
+     * <code>true</code>.
+     *
+     * @param event MotionEvent: touch event
+     * @return <code>true</code> if the event is part of a pinch, from the second finger down
+     *         until every finger is up
+     */
+    public boolean onZoomGesture(final MotionEvent event) {
+        if (mPhoto == null) {
+            return false;
+        }
+        mScaleDetector.onTouchEvent(event);
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_POINTER_DOWN:
+                mZooming = true;
+                break;
+
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                boolean zooming = mZooming;
+                mZooming = false;
+                return zooming;
+
+            default:
+                break;
+        }
+        return mZooming;
+    }
+
+    /**
+     * Method to follow pinch gestures when nothing is over the view
+     *
+     * @param event MotionEvent: touch event
+     * @return <code>true</code>
+     */
+    @Override
+    public boolean onTouchEvent(final MotionEvent event) {
+        onZoomGesture(event);
+        return true;
+    }
+
+    /**
+     * Method to redraw the photo when a tile in view is decoded
+     */
+    @Override
+    public void onTileLoaded() {
+        invalidate();
+    }
+
+    /**
+     * Method to fit the photo to the new size of the view
+     */
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateBaseMatrix();
+    }
+
+    /**
+     * Method to fit the photo to the view, centered like an ImageView does, and apply the
+     * zoom waiting for the photo if any
+     */
+    private void updateBaseMatrix() {
+        if (mPhoto == null || getWidth() == 0 || getHeight() == 0) {
+            mBaseMatrix.reset();
+            updateMatrix();
+            return;
+        }
+        Bitmap bitmap = mPhoto.getBitmap();
+        mFitScale = Math.min((float) getWidth() / bitmap.getWidth(),
+                (float) getHeight() / bitmap.getHeight());
+        mBaseMatrix.setScale(mFitScale, mFitScale);
+        mBaseMatrix.postTranslate((getWidth() - bitmap.getWidth() * mFitScale) / 2,
+                (getHeight() - bitmap.getHeight() * mFitScale) / 2);
+        if (mPendingZoom > 0) {
+            setZoom(mPendingZoom, mPendingCenterX, mPendingCenterY);
+        } else {
+            updateMatrix();
+        }
+    }
+
+    /**
+     * Method to combine fit, zoom and pan, keeping the photo over the whole view when it is
+     * bigger, or centered when it is smaller, and tell the listener
+     */
+    private void updateMatrix() {
+        mDrawMatrix.set(mBaseMatrix);
+        mDrawMatrix.postConcat(mZoomMatrix);
+        if (mPhoto != null) {
+            Bitmap bitmap = mPhoto.getBitmap();
+            mBounds.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+            mDrawMatrix.mapRect(mBounds);
+            float dx = panCorrection(mBounds.left, mBounds.right, getWidth());
+            float dy = panCorrection(mBounds.top, mBounds.bottom, getHeight());
+            if (dx != 0 || dy != 0) {
+                mZoomMatrix.postTranslate(dx, dy);
+                mDrawMatrix.postTranslate(dx, dy);
+            }
+        }
+        mSourceToView.set(mSourceMatrix);
+        mSourceToView.postConcat(mDrawMatrix);
+        mSourceToView.invert(mViewToSource);
+        if (mMatrixListener != null) {
+            mMatrixListener.onMatrixChanged(mDrawMatrix);
+        }
+        invalidate();
+    }
+
+    /**
+     * Method to calculate how much to move the photo along an axis to keep it in view
+     *
+     * @param start float: photo start in view coordinates
+     * @param end float: photo end in view coordinates
+     * @param size int: view size
+     * @return offset float
+     */
+    static float panCorrection(float start, float end, int size) {
+        if (end - start <= size) {
+            return (size - (end - start)) / 2 - start;
+        }
+        if (start > 0) {
+            return -start;
+        }
+        if (end < size) {
+            return size - end;
+        }
+        return 0;
+    }
+
+    private float[] viewCenterToBitmap() {
+        mDrawMatrix.invert(mBitmapMatrix);
+        mPoint[0] = getWidth() / 2f;
+        mPoint[1] = getHeight() / 2f;
+        mBitmapMatrix.mapPoints(mPoint);
+        return mPoint;
+    }
+
+    /**
+     * Method to draw the photo, and over it the tiles in view when zoomed past the resolution
+     * of the photo. Tiles not decoded yet are asked for and the photo is seen under them
+     * meanwhile.
+     *
+     * @param canvas Canvas: where to draw
+     */
+    @Override
+    protected void onDraw(final Canvas canvas) {
+        super.onDraw(canvas);
+        if (mPhoto == null) {
+            return;
+        }
+        canvas.drawBitmap(mPhoto.getBitmap(), mDrawMatrix, mPaint);
+        if (mTiles == null || mTiles.getGrid() == null) {
+            return;
+        }
+
+        //Original image pixels under a screen pixel
+        int sampleSize = TileGrid.sampleSize(mPhoto.getSampleSize() / (mFitScale * mZoom));
+        if (sampleSize >= mPhoto.getSampleSize()) {
+            //The photo is as sharp as tiles would be
+            mTiles.setVisible(0, 0, 0, -1, -1);
+            return;
+        }
+        TileGrid grid = mTiles.getGrid();
+        mBounds.set(0, 0, getWidth(), getHeight());
+        mViewToSource.mapRect(mBounds);
+        int left = grid.getColumn(sampleSize, mBounds.left);
+        int top = grid.getRow(sampleSize, mBounds.top);
+        int right = grid.getColumn(sampleSize, mBounds.right);
+        int bottom = grid.getRow(sampleSize, mBounds.bottom);
+        mTiles.setVisible(sampleSize, left, top, right, bottom);
+        for (int row = top; row <= bottom; row++) {
+            for (int column = left; column <= right; column++) {
+                Bitmap tile = mTiles.get(sampleSize, column, row);
+                if (tile != null) {
+                    //Tile to original image, then to view like the photo
+                    mTileMatrix.setScale(sampleSize, sampleSize);
+                    mTileMatrix.postTranslate(grid.getTileLeft(sampleSize, column),
+                            grid.getTileTop(sampleSize, row));
+                    mTileMatrix.postConcat(mSourceToView);
+                    //Only the pixels of the tile, in case its bitmap is bigger
+                    mTileRect.set(0, 0,
+                            Math.min(tile.getWidth(), grid.getTileWidth(sampleSize, column)),
+                            Math.min(tile.getHeight(), grid.getTileHeight(sampleSize, row)));
+                    canvas.save();
+                    canvas.concat(mTileMatrix);
+                    canvas.drawBitmap(tile, mTileRect, mTileRect, mPaint);
+                    canvas.restore();
+                }
+            }
+        }
+    }
+}
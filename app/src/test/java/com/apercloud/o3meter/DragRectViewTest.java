@@ -0,0 +1,30 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DragRectView}, executed on the development machine (host).
+ */
+public class DragRectViewTest {
+
+    @Test
+    public void appendInt_writesDigitsAfterStart() throws Exception {
+        char[] label = {'(', ' ', ' ', ' ', ' ', ' '};
+        assertEquals(4, DragRectView.appendInt(label, 1, 120));
+        assertEquals("(120", new String(label, 0, 4));
+        assertEquals(2, DragRectView.appendInt(label, 1, 0));
+        assertEquals("(0", new String(label, 0, 2));
+    }
+
+    @Test
+    public void appendInt_writesAnyInt() throws Exception {
+        char[] label = new char[11];
+        int[] values = {-7, 9, 10, 180, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        for (int value : values) {
+            int length = DragRectView.appendInt(label, 0, value);
+            assertEquals(Integer.toString(value), new String(label, 0, length));
+        }
+    }
+}
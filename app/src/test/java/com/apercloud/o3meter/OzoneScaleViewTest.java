@@ -0,0 +1,25 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link OzoneScaleView}, executed on the development machine (host).
+ */
+public class OzoneScaleViewTest {
+
+    @Test
+    public void scaleToPosition_proportionalToScale() throws Exception {
+        assertEquals(0, OzoneScaleView.scaleToPosition(0, 1081), 0);
+        assertEquals(540, OzoneScaleView.scaleToPosition(90, 1081), 0);
+        assertEquals(1080, OzoneScaleView.scaleToPosition(OzoneScaleView.MAX_SCALE, 1081), 0);
+    }
+
+    @Test
+    public void scaleToPosition_outOfScaleAtStart() throws Exception {
+        //Green hues are outside our scale
+        assertEquals(0, OzoneScaleView.scaleToPosition(ColorAnalyzer.HueToScale(120), 1081), 0);
+        assertEquals(0, OzoneScaleView.scaleToPosition(-1, 1081), 0);
+    }
+}
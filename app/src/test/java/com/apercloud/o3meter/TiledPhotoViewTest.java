@@ -0,0 +1,24 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TiledPhotoView}, executed on the development machine (host).
+ */
+public class TiledPhotoViewTest {
+
+    @Test
+    public void panCorrection_centersSmallerPhoto() throws Exception {
+        assertEquals(50, TiledPhotoView.panCorrection(0, 900, 1000), 0);
+        assertEquals(-150, TiledPhotoView.panCorrection(200, 1100, 1000), 0);
+    }
+
+    @Test
+    public void panCorrection_keepsBiggerPhotoOverView() throws Exception {
+        assertEquals(0, TiledPhotoView.panCorrection(-500, 1500, 1000), 0);
+        assertEquals(-100, TiledPhotoView.panCorrection(100, 2100, 1000), 0);
+        assertEquals(200, TiledPhotoView.panCorrection(-1200, 800, 1000), 0);
+    }
+}
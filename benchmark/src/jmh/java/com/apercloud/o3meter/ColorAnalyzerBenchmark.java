@@ -0,0 +1,130 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark of the analysis of a whole photo.
+ *
+ * analyzeImg is what the app did before analysis ran in background: copy the pixels out of
+ * the photo and scan them. The other benchmarks scan the same pixels without the copy and in
+ * parallel bands, for sums and for histograms, sample them adaptively, and get the circular
+ * hue statistics of every pixel in the same pass as the sums.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ColorAnalyzerBenchmark {
+
+    @Param({"1", "12", "24", "50"})
+    public int megapixels;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mPixels;
+    private PixelSource mSource;
+    private final StripScanner mScanner = new StripScanner(StripScanner.DEFAULT_STRIP_PIXELS);
+    private ExecutorService mExecutor;
+    private TiledColorAnalyzer mTiledAnalyzer;
+    private final AdaptiveSampler mSampler =
+            new AdaptiveSampler(AdaptiveSampler.DEFAULT_TOLERANCE, mScanner);
+
+    @Setup
+    public void setUp() {
+        mWidth = SyntheticPhotos.width(megapixels);
+        mHeight = SyntheticPhotos.height(megapixels);
+        mPixels = SyntheticPhotos.strip(mWidth, mHeight);
+        mSource = StripScanner.wrap(mPixels, mWidth);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        mExecutor = Executors.newFixedThreadPool(parallelism);
+        mTiledAnalyzer = new TiledColorAnalyzer(mExecutor, parallelism,
+                TiledColorAnalyzer.DEFAULT_SEQUENTIAL_CUTOFF);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public ColorReading analyzeImg() throws InterruptedException {
+        //Same as Bitmap.getPixels into a new array
+        int[] pixels = new int[mWidth * mHeight];
+        System.arraycopy(mPixels, 0, pixels, 0, pixels.length);
+        return ColorAnalyzer.analyze(pixels, pixels.length);
+    }
+
+    @Benchmark
+    public ColorReading analyze() throws InterruptedException {
+        return ColorAnalyzer.analyze(mPixels, mPixels.length);
+    }
+
+    @Benchmark
+    public ColorStatistics histogram() throws InterruptedException {
+        return mScanner.histogram(mSource, mWidth, mHeight, ColorAnalyzer.THRESHOLD)
+                .getStatistics();
+    }
+
+    @Benchmark
+    public ColorReading analyzeTiled() throws InterruptedException {
+        return mTiledAnalyzer.analyze(mPixels, mWidth, mHeight);
+    }
+
+    @Benchmark
+    public ColorStatistics histogramTiled() throws InterruptedException {
+        return mTiledAnalyzer.histogram(mSource, mWidth, mHeight, ColorAnalyzer.THRESHOLD)
+                .getStatistics();
+    }
+
+    @Benchmark
+    public ColorReading hueHistogram() throws InterruptedException {
+        return mScanner.hueHistogram(mSource, mWidth, mHeight).toReading();
+    }
+
+    @Benchmark
+    public ColorReading hueHistogramTiled() throws InterruptedException {
+        return mTiledAnalyzer.hueHistogram(mSource, mWidth, mHeight).toReading();
+    }
+
+    @Benchmark
+    public SampledReading adaptive() throws InterruptedException {
+        return mSampler.analyze(mPixels, mWidth, mHeight);
+    }
+}
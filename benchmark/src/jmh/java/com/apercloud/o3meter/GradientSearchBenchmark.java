@@ -0,0 +1,170 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark of ResultActivity.drawGradientAndColor.
+ *
+ * The gradient is a plain array with the colors GradientDrawable draws, yellow to red to
+ * magenta to blue. search is the pointer position search alone; render is everything done
+ * for every result: a new gradient the size of gradientView, the search and the pointer.
+ * position is how OzoneScaleView places the pointer instead, from the value of the scale.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GradientSearchBenchmark {
+
+    private static final int[] GRADIENT_COLORS = {0xFFFFFF00, 0xFFFF0000, 0xFFFF00FF, 0xFF0000FF};
+
+    //gradientView height on a xxhdpi screen (75dp)
+    private static final int GRADIENT_HEIGHT = 225;
+
+    @Param({"720", "1080", "1440"})
+    public int width;
+
+    private int[] mGradient;
+    private final int[] mResultColors = new int[181];
+    private int mNext = 0;
+
+    @Setup
+    public void setUp() {
+        mGradient = new int[width];
+        fillGradient(mGradient, width, 1);
+        //Colors of every value of our scale, like showResult does
+        for (int scale = 0; scale <= 180; scale++) {
+            int hue = scale <= 60 ? 60 - scale : 359 - (scale - 61);
+            mResultColors[scale] = hueToColor(hue);
+        }
+    }
+
+    @Benchmark
+    public int search() {
+        return findPosition(mGradient, nextColor());
+    }
+
+    @Benchmark
+    public float position() {
+        mNext = (mNext + 1) % mResultColors.length;
+        return (float) mNext * (width - 1) / 180;
+    }
+
+    @Benchmark
+    public int[] render() {
+        int[] bitmap = new int[width * GRADIENT_HEIGHT];
+        fillGradient(bitmap, width, GRADIENT_HEIGHT);
+        int posX = findPosition(bitmap, nextColor());
+
+        //Draw pointer in gradient
+        for (int y = 120; y > 60; y--) {
+            for (int x = 60; x < y; x++) {
+                if (y < GRADIENT_HEIGHT && posX + x - 60 < width) {
+                    bitmap[y * width + posX + x - 60] = 0xFF000000;
+                }
+                if (y < GRADIENT_HEIGHT && posX - x + 60 > 0) {
+                    bitmap[y * width + posX - x + 60] = 0xFF000000;
+                }
+            }
+        }
+        return bitmap;
+    }
+
+    private int nextColor() {
+        mNext = (mNext + 1) % mResultColors.length;
+        return mResultColors[mNext];
+    }
+
+    /**
+     * Same search as drawGradientAndColor: first pixel of the first row closer than 5
+     */
+    private static int findPosition(int[] gradient, int color) {
+        for (int i = 0; i < gradient.length; i += 1) {
+            if (colorDistance(gradient[i], color) < 5) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private static int colorDistance(int a, int b) {
+        return Math.abs(((a >> 16) & 0xFF) - ((b >> 16) & 0xFF)) +
+                Math.abs(((a >> 8) & 0xFF) - ((b >> 8) & 0xFF)) +
+                Math.abs((a & 0xFF) - (b & 0xFF));
+    }
+
+    /**
+     * Method to fill rows with a left to right linear gradient of GRADIENT_COLORS
+     */
+    private static void fillGradient(int[] pixels, int width, int height) {
+        int segments = GRADIENT_COLORS.length - 1;
+        for (int x = 0; x < width; x++) {
+            float position = (float) x / (width - 1) * segments;
+            int segment = Math.min((int) position, segments - 1);
+            float t = position - segment;
+            int from = GRADIENT_COLORS[segment];
+            int to = GRADIENT_COLORS[segment + 1];
+            int color = 0xFF000000;
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int a = (from >> shift) & 0xFF;
+                int b = (to >> shift) & 0xFF;
+                color |= Math.round(a + (b - a) * t) << shift;
+            }
+            for (int y = 0; y < height; y++) {
+                pixels[y * width + x] = color;
+            }
+        }
+    }
+
+    /**
+     * Method to get the fully saturated color of a hue, like Color.HSVToColor
+     */
+    private static int hueToColor(int hue) {
+        float h = hue / 60f;
+        int sector = (int) h % 6;
+        int rising = Math.round((h - (int) h) * 255);
+        int falling = 255 - rising;
+        switch (sector) {
+            case 0: return 0xFF000000 | 255 << 16 | rising << 8;
+            case 1: return 0xFF000000 | falling << 16 | 255 << 8;
+            case 2: return 0xFF000000 | 255 << 8 | rising;
+            case 3: return 0xFF000000 | falling << 8 | 255;
+            case 4: return 0xFF000000 | rising << 16 | 255;
+            default: return 0xFF000000 | 255 << 16 | falling;
+        }
+    }
+}
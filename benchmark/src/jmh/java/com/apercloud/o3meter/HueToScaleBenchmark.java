@@ -0,0 +1,92 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark of the conversion of the mean color of a reading to our Ozone Scale.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HueToScaleBenchmark {
+
+    private static final int COLORS = 1024;
+
+    private final int[] mColors = new int[COLORS];
+    private Calibration mCalibration;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(2018);
+        for (int i = 0; i < COLORS; i++) {
+            mColors[i] = random.nextInt(0x1000000);
+        }
+        mCalibration = Calibration.fit("benchmark", new float[]{58, 30, 2, 330, 245},
+                new float[]{0, 20, 50, 100, 180});
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(360)
+    public void hueToScale(Blackhole blackhole) {
+        for (int hue = 0; hue < 360; hue++) {
+            blackhole.consume(ColorAnalyzer.HueToScale(hue));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLORS)
+    public void rgbToScale(Blackhole blackhole) {
+        for (int color : mColors) {
+            float hue = ColorAnalyzer.rgbToHue((color >> 16) & 0xFF, (color >> 8) & 0xFF,
+                    color & 0xFF);
+            blackhole.consume(ColorAnalyzer.HueToScale((int) hue));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(COLORS)
+    public void rgbToCalibratedScale(Blackhole blackhole) {
+        for (int color : mColors) {
+            float hue = ColorAnalyzer.rgbToHue((color >> 16) & 0xFF, (color >> 8) & 0xFF,
+                    color & 0xFF);
+            blackhole.consume(mCalibration.toScale(hue));
+        }
+    }
+}
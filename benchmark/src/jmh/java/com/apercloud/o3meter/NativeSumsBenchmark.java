@@ -0,0 +1,85 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark of the masked color sums of a whole photo with {@link ColorAnalyzer} and with
+ * every {@link NativeSums} kernel. Kernels the CPU can't run, or every kernel when the
+ * library isn't built (./gradlew :benchmark:jmh -Pnative), measure the Java fallback.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class NativeSumsBenchmark {
+
+    @Param({"12"})
+    public int megapixels;
+
+    @Param({"java", "scalar", "sse2", "avx2", "neon"})
+    public String kernel;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mPixels;
+    private int mKernel;
+    private final long[] mTotals = new long[4];
+
+    @Setup
+    public void setUp() {
+        mWidth = SyntheticPhotos.width(megapixels);
+        mHeight = SyntheticPhotos.height(megapixels);
+        mPixels = SyntheticPhotos.strip(mWidth, mHeight);
+        String[] kernels = {"scalar", "sse2", "avx2", "neon"};
+        mKernel = -1;
+        for (int i = 0; i < kernels.length; i++) {
+            if (kernels[i].equals(kernel)) {
+                mKernel = NativeSums.KERNEL_SCALAR + i;
+            }
+        }
+    }
+
+    @Benchmark
+    public ColorReading accumulateStrip() {
+        ColorSums sums = new ColorSums();
+        if (mKernel < 0 || !NativeSums.accumulateStrip(mKernel, mPixels, mWidth, 0, mHeight,
+                ColorAnalyzer.PIXEL_SPACING, ColorAnalyzer.THRESHOLD, sums, mTotals)) {
+            ColorAnalyzer.accumulateStrip(mPixels, mWidth, 0, mHeight, sums);
+        }
+        return sums.toReading();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import java.util.Random;
+
+
+/**
+ * Synthetic photos for benchmarks.
+ *
+ * Photos look like the ones taken in the field: a light background, over the threshold, with
+ * a test strip in the middle, and some noise so branches are not perfectly predictable.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+final class SyntheticPhotos {
+
+    //Reddish strip, about 40 in our Ozone Scale
+    private static final int STRIP_COLOR = 0x8A2E1C;
+    private static final int BACKGROUND_COLOR = 0xE8E4DC;
+
+    private SyntheticPhotos() {
+    }
+
+    /**
+     * Method to get the width of a 4:3 photo with the given megapixels
+     *
+     * @param megapixels int: photo size
+     * @return width int
+     */
+    static int width(int megapixels) {
+        return (int) Math.sqrt(megapixels * 1000000.0 * 4 / 3);
+    }
+
+    /**
+     * Method to get the height of a 4:3 photo with the given megapixels
+     *
+     * @param megapixels int: photo size
+     * @return height int
+     */
+    static int height(int megapixels) {
+        return megapixels * 1000000 / width(megapixels);
+    }
+
+    /**
+     * Method to create a photo of a test strip
+     *
+     * @param width int: photo width
+     * @param height int: photo height
+     * @return pixels int[]: ARGB pixels
+     */
+    static int[] strip(int width, int height) {
+        int[] pixels = new int[width * height];
+        Random random = new Random(2018);
+        int stripLeft = width / 3;
+        int stripRight = width * 2 / 3;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int base = x >= stripLeft && x < stripRight ? STRIP_COLOR : BACKGROUND_COLOR;
+                pixels[y * width + x] = 0xFF000000 | noise(base, random);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Method to add up to +-16 of noise to every channel of a color
+     *
+     * @param color int: RGB color
+     * @param random Random: noise source
+     * @return color int: noisy RGB color
+     */
+    private static int noise(int color, Random random) {
+        int result = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int channel = ((color >> shift) & 0xFF) + random.nextInt(33) - 16;
+            result |= Math.max(0, Math.min(255, channel)) << shift;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Benchmark of the scan loop with other thresholds and pixel spacings than the ones of
+ * {@link ColorAnalyzer}, to know what changing them would cost.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ThresholdBenchmark {
+
+    @Param({"12"})
+    public int megapixels;
+
+    @Param({"100", "150", "200", "256"})
+    public int threshold;
+
+    @Param({"1", "2", "3", "4"})
+    public int pixelSpacing;
+
+    private int[] mPixels;
+
+    @Setup
+    public void setUp() {
+        mPixels = SyntheticPhotos.strip(SyntheticPhotos.width(megapixels),
+                SyntheticPhotos.height(megapixels));
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+        //Same loop as ColorAnalyzer with parameters instead of constants
+        int[] pixels = mPixels;
+        int RED = 0; int GREEN = 0; int BLUE = 0; int totalPixels = 0;
+        for (int i = 0; i < pixels.length; i += pixelSpacing) {
+            int color = pixels[i];
+
+            int r = (color >> 16) & 0xFF;
+            int g = (color >> 8) & 0xFF;
+            int b = color & 0xFF;
+            if (r < threshold && g < threshold && b < threshold) {
+                RED += r;
+                GREEN += g;
+                BLUE += b;
+                totalPixels++;
+            }
+        }
+        blackhole.consume(RED);
+        blackhole.consume(GREEN);
+        blackhole.consume(BLUE);
+        blackhole.consume(totalPixels);
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+/*
+ * Native kernels of the masked color sums of ColorAnalyzer.
+ *
+ * Every kernel adds the channels of one every `spacing` pixels from start to end whose
+ * channels are all under the threshold, exactly like ColorAnalyzer.accumulate, working on the
+ * Java pixel array in place. The vector kernels test every pixel and keep the sampled ones
+ * with a lane mask, so they need no gathers: a counter per lane says how far the pixel is
+ * from the last sampled one. Lane sums are 32-bit (16-bit for NEON bytes) and are added to
+ * the 64-bit totals before they can overflow.
+ */
+
+#include <jni.h>
+#include <stdint.h>
+
+#if defined(__x86_64__) || defined(__i386__)
+#include <immintrin.h>
+#define HAVE_X86 1
+#endif
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define HAVE_NEON 1
+#endif
+
+/* Same ids as NativeSums.KERNEL_* */
+#define KERNEL_BEST -1
+#define KERNEL_SCALAR 0
+#define KERNEL_SSE2 1
+#define KERNEL_AVX2 2
+#define KERNEL_NEON 3
+
+typedef struct {
+    int64_t red;
+    int64_t green;
+    int64_t blue;
+    int64_t count;
+} sums_t;
+
+typedef void (*kernel_t)(const int32_t *pixels, int start, int end, int spacing,
+                         int threshold, sums_t *sums);
+
+/* Pixels between flushes of the 32-bit lane sums, far from overflowing them */
+#define FLUSH_PIXELS (1 << 20)
+
+static void sums_scalar(const int32_t *pixels, int start, int end, int spacing,
+                        int threshold, sums_t *sums) {
+    int64_t red = 0, green = 0, blue = 0, count = 0;
+    for (int i = start; i < end; i += spacing) {
+        int32_t color = pixels[i];
+        int r = (color >> 16) & 0xFF;
+        int g = (color >> 8) & 0xFF;
+        int b = color & 0xFF;
+        if (r < threshold && g < threshold && b < threshold) {
+            red += r;
+            green += g;
+            blue += b;
+            count++;
+        }
+    }
+    sums->red += red;
+    sums->green += green;
+    sums->blue += blue;
+    sums->count += count;
+}
+
+#ifdef HAVE_X86
+
+static int64_t hsum_epi32(__m128i v) {
+    int32_t lanes[4];
+    _mm_storeu_si128((__m128i *) lanes, v);
+    return (int64_t) lanes[0] + lanes[1] + lanes[2] + lanes[3];
+}
+
+__attribute__((target("sse2")))
+static void sums_sse2(const int32_t *pixels, int start, int end, int spacing,
+                      int threshold, sums_t *sums) {
+    const __m128i byte = _mm_set1_epi32(0xFF);
+    const __m128i limit = _mm_set1_epi32(threshold);
+    const __m128i spacingv = _mm_set1_epi32(spacing);
+    const __m128i last = _mm_set1_epi32(spacing - 1);
+    const __m128i step = _mm_set1_epi32(4 % spacing);
+    /* Distance of every lane from the last sampled pixel */
+    __m128i phase = _mm_setr_epi32(0, 1 % spacing, 2 % spacing, 3 % spacing);
+    int i = start;
+    while (end - i >= 4) {
+        int block = end - i < FLUSH_PIXELS ? (end - i) & ~3 : FLUSH_PIXELS;
+        __m128i red = _mm_setzero_si128(), green = red, blue = red, count = red;
+        for (int stop = i + block; i < stop; i += 4) {
+            __m128i color = _mm_loadu_si128((const __m128i *) (pixels + i));
+            __m128i r = _mm_and_si128(_mm_srli_epi32(color, 16), byte);
+            __m128i g = _mm_and_si128(_mm_srli_epi32(color, 8), byte);
+            __m128i b = _mm_and_si128(color, byte);
+            __m128i mask = _mm_and_si128(_mm_cmplt_epi32(r, limit),
+                    _mm_and_si128(_mm_cmplt_epi32(g, limit), _mm_cmplt_epi32(b, limit)));
+            mask = _mm_and_si128(mask, _mm_cmpeq_epi32(phase, _mm_setzero_si128()));
+            red = _mm_add_epi32(red, _mm_and_si128(r, mask));
+            green = _mm_add_epi32(green, _mm_and_si128(g, mask));
+            blue = _mm_add_epi32(blue, _mm_and_si128(b, mask));
+            count = _mm_sub_epi32(count, mask);
+            phase = _mm_add_epi32(phase, step);
+            phase = _mm_sub_epi32(phase, _mm_and_si128(_mm_cmpgt_epi32(phase, last), spacingv));
+        }
+        sums->red += hsum_epi32(red);
+        sums->green += hsum_epi32(green);
+        sums->blue += hsum_epi32(blue);
+        sums->count += hsum_epi32(count);
+    }
+    /* First sampled pixel of the tail */
+    int offset = (i - start) % spacing;
+    sums_scalar(pixels, offset == 0 ? i : i + spacing - offset, end, spacing, threshold, sums);
+}
+
+__attribute__((target("avx2")))
+static int64_t hsum_epi32_avx2(__m256i v) {
+    return hsum_epi32(_mm_add_epi32(_mm256_castsi256_si128(v),
+            _mm256_extracti128_si256(v, 1)));
+}
+
+__attribute__((target("avx2")))
+static void sums_avx2(const int32_t *pixels, int start, int end, int spacing,
+                      int threshold, sums_t *sums) {
+    const __m256i byte = _mm256_set1_epi32(0xFF);
+    const __m256i limit = _mm256_set1_epi32(threshold);
+    const __m256i spacingv = _mm256_set1_epi32(spacing);
+    const __m256i last = _mm256_set1_epi32(spacing - 1);
+    const __m256i step = _mm256_set1_epi32(8 % spacing);
+    __m256i phase = _mm256_setr_epi32(0, 1 % spacing, 2 % spacing, 3 % spacing,
+            4 % spacing, 5 % spacing, 6 % spacing, 7 % spacing);
+    int i = start;
+    while (end - i >= 8) {
+        int block = end - i < FLUSH_PIXELS ? (end - i) & ~7 : FLUSH_PIXELS;
+        __m256i red = _mm256_setzero_si256(), green = red, blue = red, count = red;
+        for (int stop = i + block; i < stop; i += 8) {
+            __m256i color = _mm256_loadu_si256((const __m256i *) (pixels + i));
+            __m256i r = _mm256_and_si256(_mm256_srli_epi32(color, 16), byte);
+            __m256i g = _mm256_and_si256(_mm256_srli_epi32(color, 8), byte);
+            __m256i b = _mm256_and_si256(color, byte);
+            /* Under the threshold is the threshold greater than the channel */
+            __m256i mask = _mm256_and_si256(_mm256_cmpgt_epi32(limit, r),
+                    _mm256_and_si256(_mm256_cmpgt_epi32(limit, g),
+                            _mm256_cmpgt_epi32(limit, b)));
+            mask = _mm256_and_si256(mask, _mm256_cmpeq_epi32(phase, _mm256_setzero_si256()));
+            red = _mm256_add_epi32(red, _mm256_and_si256(r, mask));
+            green = _mm256_add_epi32(green, _mm256_and_si256(g, mask));
+            blue = _mm256_add_epi32(blue, _mm256_and_si256(b, mask));
+            count = _mm256_sub_epi32(count, mask);
+            phase = _mm256_add_epi32(phase, step);
+            phase = _mm256_sub_epi32(phase,
+                    _mm256_and_si256(_mm256_cmpgt_epi32(phase, last), spacingv));
+        }
+        sums->red += hsum_epi32_avx2(red);
+        sums->green += hsum_epi32_avx2(green);
+        sums->blue += hsum_epi32_avx2(blue);
+        sums->count += hsum_epi32_avx2(count);
+    }
+    int offset = (i - start) % spacing;
+    sums_scalar(pixels, offset == 0 ? i : i + spacing - offset, end, spacing, threshold, sums);
+}
+
+#endif
+
+#ifdef HAVE_NEON
+
+/* Iterations before the 16-bit lane sums of two bytes each can overflow */
+#define NEON_FLUSH_ITERATIONS 128
+
+static uint64_t hsum_u32(uint32x4_t v) {
+    uint64x2_t pairs = vpaddlq_u32(v);
+    return vgetq_lane_u64(pairs, 0) + vgetq_lane_u64(pairs, 1);
+}
+
+static void sums_neon(const int32_t *pixels, int start, int end, int spacing,
+                      int threshold, sums_t *sums) {
+    /* Lane counters are bytes, and every channel passes a threshold over 255 */
+    if (spacing > 127 || threshold <= 0) {
+        sums_scalar(pixels, start, end, spacing, threshold, sums);
+        return;
+    }
+    const uint8x16_t limit = vdupq_n_u8((uint8_t) (threshold > 256 ? 255 : threshold - 1));
+    const uint8x16_t one = vdupq_n_u8(1);
+    const uint8x16_t spacingv = vdupq_n_u8((uint8_t) spacing);
+    const uint8x16_t last = vdupq_n_u8((uint8_t) (spacing - 1));
+    const uint8x16_t step = vdupq_n_u8((uint8_t) (16 % spacing));
+    uint8_t lanes[16];
+    for (int lane = 0; lane < 16; lane++) {
+        lanes[lane] = (uint8_t) (lane % spacing);
+    }
+    uint8x16_t phase = vld1q_u8(lanes);
+    const uint8_t *bytes = (const uint8_t *) pixels;
+    int i = start;
+    while (end - i >= 16) {
+        uint32x4_t red = vdupq_n_u32(0), green = red, blue = red, count = red;
+        int iterations = 0;
+        while (end - i >= 16 && iterations < NEON_FLUSH_ITERATIONS * 64) {
+            uint16x8_t red16 = vdupq_n_u16(0), green16 = red16, blue16 = red16,
+                    count16 = red16;
+            for (int n = 0; n < NEON_FLUSH_ITERATIONS && end - i >= 16; n++, i += 16) {
+                /* Little-endian ARGB ints are B, G, R, A bytes */
+                uint8x16x4_t color = vld4q_u8(bytes + (size_t) i * 4);
+                uint8x16_t mask = vandq_u8(vcleq_u8(color.val[2], limit),
+                        vandq_u8(vcleq_u8(color.val[1], limit), vcleq_u8(color.val[0], limit)));
+                mask = vandq_u8(mask, vceqq_u8(phase, vdupq_n_u8(0)));
+                red16 = vpadalq_u8(red16, vandq_u8(color.val[2], mask));
+                green16 = vpadalq_u8(green16, vandq_u8(color.val[1], mask));
+                blue16 = vpadalq_u8(blue16, vandq_u8(color.val[0], mask));
+                count16 = vpadalq_u8(count16, vandq_u8(one, mask));
+                phase = vaddq_u8(phase, step);
+                phase = vsubq_u8(phase, vandq_u8(vcgtq_u8(phase, last), spacingv));
+                iterations++;
+            }
+            red = vpadalq_u16(red, red16);
+            green = vpadalq_u16(green, green16);
+            blue = vpadalq_u16(blue, blue16);
+            count = vpadalq_u16(count, count16);
+        }
+        sums->red += hsum_u32(red);
+        sums->green += hsum_u32(green);
+        sums->blue += hsum_u32(blue);
+        sums->count += hsum_u32(count);
+    }
+    int offset = (i - start) % spacing;
+    sums_scalar(pixels, offset == 0 ? i : i + spacing - offset, end, spacing, threshold, sums);
+}
+
+#endif
+
+/*
+ * Kernel for an id, NULL if this CPU can't run it
+ */
+static kernel_t select_kernel(int kernel) {
+    switch (kernel) {
+        case KERNEL_SCALAR:
+            return sums_scalar;
+#ifdef HAVE_X86
+        case KERNEL_SSE2:
+            return __builtin_cpu_supports("sse2") ? sums_sse2 : NULL;
+        case KERNEL_AVX2:
+            return __builtin_cpu_supports("avx2") ? sums_avx2 : NULL;
+#endif
+#ifdef HAVE_NEON
+        case KERNEL_NEON:
+            return sums_neon;
+#endif
+        case KERNEL_BEST: {
+#ifdef HAVE_X86
+            kernel_t best = select_kernel(KERNEL_AVX2);
+            if (best == NULL) {
+                best = select_kernel(KERNEL_SSE2);
+            }
+            return best != NULL ? best : sums_scalar;
+#elif defined(HAVE_NEON)
+            return sums_neon;
+#else
+            return sums_scalar;
+#endif
+        }
+        default:
+            return NULL;
+    }
+}
+
+static const char *kernel_name(kernel_t kernel) {
+    if (kernel == sums_scalar) {
+        return "scalar";
+    }
+#ifdef HAVE_X86
+    if (kernel == sums_sse2) {
+        return "sse2";
+    }
+    if (kernel == sums_avx2) {
+        return "avx2";
+    }
+#endif
+#ifdef HAVE_NEON
+    if (kernel == sums_neon) {
+        return "neon";
+    }
+#endif
+    return NULL;
+}
+
+JNIEXPORT jboolean JNICALL
+Java_com_apercloud_o3meter_NativeSums_accumulateStrip(JNIEnv *env, jclass clazz, jint kernel,
+                                                      jintArray strip, jint width,
+                                                      jint firstRow, jint rows, jint spacing,
+                                                      jint threshold, jlongArray totals) {
+    kernel_t sums_kernel = select_kernel(kernel);
+    if (sums_kernel == NULL || spacing < 1 || width < 1) {
+        return JNI_FALSE;
+    }
+    sums_t sums = {0, 0, 0, 0};
+    int32_t *pixels = (*env)->GetPrimitiveArrayCritical(env, strip, NULL);
+    if (pixels == NULL) {
+        return JNI_FALSE;
+    }
+    for (int row = 0; row < rows; row++) {
+        /* Same sampling phase as ColorAnalyzer.accumulateStrip */
+        int64_t photoRowStart = (int64_t) (firstRow + row) * width;
+        int phase = (int) ((spacing - photoRowStart % spacing) % spacing);
+        int rowStart = row * width;
+        sums_kernel(pixels, rowStart + phase, rowStart + width, spacing, threshold, &sums);
+    }
+    (*env)->ReleasePrimitiveArrayCritical(env, strip, pixels, JNI_ABORT);
+
+    /* Written, not added, so the caller can reuse the array for every strip */
+    jlong values[4] = {sums.red, sums.green, sums.blue, sums.count};
+    (*env)->SetLongArrayRegion(env, totals, 0, 4, values);
+    return JNI_TRUE;
+}
+
+JNIEXPORT jstring JNICALL
+Java_com_apercloud_o3meter_NativeSums_kernelName(JNIEnv *env, jclass clazz, jint kernel) {
+    kernel_t sums_kernel = select_kernel(kernel);
+    return sums_kernel == NULL ? NULL : (*env)->NewStringUTF(env, kernel_name(sums_kernel));
+}
@@ -0,0 +1,307 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import java.util.Arrays;
+
+/**
+ * Adaptive color analysis of photo pixels.
+ *
+ * Instead of reading one every {@link ColorAnalyzer#PIXEL_SPACING} pixels of the array, the
+ * photo is split in a 2D grid of cells and one pixel is read at a random position of every
+ * cell. Each round halves the cell size, so it reads about 4 times the pixels of the previous
+ * one spread all over the photo, and the sampling never lines up with stripes or rows like a
+ * fixed spacing can. Rounds stop as soon as the mean color of the pixels under the threshold
+ * is stable within the tolerance, which for uniform strips happens after a few thousand
+ * pixels. If it never gets stable the photo is analyzed as usual, in strips with a
+ * {@link StripScanner}.
+ *
+ * The cells at the right and bottom edges are cut by the photo, so their pixel stands for
+ * fewer pixels and it weighs the fraction of a full cell they cover. Otherwise a thin last
+ * column or row of cells would count as much as any other.
+ *
+ * The pixels of a band of cells are read a row at a time, only the rows and the part of them
+ * with pixels to sample, into buffers reused by every round, so a source like a bitmap is
+ * asked for a few rows instead of every pixel on its own. The sampler keeps the strip
+ * buffers of its {@link StripScanner}, so like it, it must be used by one thread at a time.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class AdaptiveSampler {
+
+    //Default tolerance, half a color level, so the reading rarely differs from a full scan
+    public static final float DEFAULT_TOLERANCE = 0.5f;
+    //Cells of the first round, about this many
+    static final int FIRST_ROUND_CELLS = 256;
+    //Smallest cells: a round of smaller cells would read more than a full scan
+    static final int MIN_CELL_SIZE = 4;
+    //Pixels under the threshold needed before the mean is trusted
+    static final int MIN_SAMPLES = 64;
+
+    private final float mTolerance;
+    private final StripScanner mScanner;
+
+    /**
+     * Constructor of a sampler with its own {@link StripScanner} for full scans
+     *
+     * @param tolerance float: largest change of the mean of every channel, in color levels,
+     *                  and largest standard error of the mean, to stop sampling
+     */
+    public AdaptiveSampler(float tolerance) {
+        this(tolerance, new StripScanner(StripScanner.DEFAULT_STRIP_PIXELS));
+    }
+
+    /**
+     * Constructor
+     *
+     * @param tolerance float: largest change of the mean of every channel, in color levels,
+     *                  and largest standard error of the mean, to stop sampling
+     * @param scanner {@link StripScanner} to analyze the photos that never get stable, used
+     *                on the same thread as the sampler
+     */
+    public AdaptiveSampler(float tolerance, StripScanner scanner) {
+        mTolerance = tolerance;
+        mScanner = scanner;
+    }
+
+    /**
+     * Method to analyze pixels and get mean color and hue, reading only as many pixels as
+     * needed for the mean to be stable
+     *
+     * @param pixels int[]: ARGB pixels of the photo or selection rectangle
+     * @param width int: photo width
+     * @param height int: photo height
+     * @return reading {@link SampledReading}: reading and pixels read
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public SampledReading analyze(int[] pixels, int width, int height)
+            throws InterruptedException {
+        return analyze(StripScanner.wrap(pixels, width), width, height);
+    }
+
+    /**
+     * Method to analyze pixels and get mean color and hue, reading only as many pixels as
+     * needed for the mean to be stable
+     *
+     * @param source {@link PixelSource}: photo or selection rectangle
+     * @param width int: photo width
+     * @param height int: photo height
+     * @return reading {@link SampledReading}: reading and pixels read
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public SampledReading analyze(PixelSource source, int width, int height)
+            throws InterruptedException {
+        long total = (long) width * height;
+        int cellSize = Integer.highestOneBit(Math.max(1,
+                (int) Math.sqrt((double) total / FIRST_ROUND_CELLS)));
+        Moments moments = new Moments();
+        Buffers buffers = new Buffers(width, cellSize);
+        long samples = 0;
+        int rounds = 0;
+        double lastRed = -1; double lastGreen = -1; double lastBlue = -1;
+
+        for (; cellSize >= MIN_CELL_SIZE; cellSize >>= 1) {
+            samples += sampleRound(source, width, height, cellSize, rounds, moments, buffers);
+            rounds++;
+
+            double red = moments.mean(moments.mRed);
+            double green = moments.mean(moments.mGreen);
+            double blue = moments.mean(moments.mBlue);
+            if (moments.mCount >= MIN_SAMPLES && Math.abs(red - lastRed) <= mTolerance &&
+                    Math.abs(green - lastGreen) <= mTolerance &&
+                    Math.abs(blue - lastBlue) <= mTolerance &&
+                    moments.standardError(moments.mRed, moments.mRedSquares) <= mTolerance &&
+                    moments.standardError(moments.mGreen, moments.mGreenSquares) <= mTolerance &&
+                    moments.standardError(moments.mBlue, moments.mBlueSquares) <= mTolerance) {
+                return new SampledReading(moments.toReading(), samples, total, rounds, true);
+            }
+            lastRed = red;
+            lastGreen = green;
+            lastBlue = blue;
+        }
+
+        //Too small or never stable, analyze it as usual
+        ColorReading reading = mScanner.analyze(source, width, height);
+        samples += (total + ColorAnalyzer.PIXEL_SPACING - 1) / ColorAnalyzer.PIXEL_SPACING;
+        return new SampledReading(reading, samples, total, rounds, false);
+    }
+
+    /**
+     * Method to read one pixel at a random position of every cell of the grid
+     *
+     * @param source {@link PixelSource}: photo or selection rectangle
+     * @param width int: photo width
+     * @param height int: photo height
+     * @param cellSize int: side of the cells
+     * @param round int: round number, so every round reads other positions
+     * @param moments {@link Moments} to add the pixels under the threshold to, weighted by
+     *                the fraction of a full cell their cell covers
+     * @param buffers {@link Buffers} of the analysis
+     * @return samples long: pixels read
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    private static long sampleRound(PixelSource source, int width, int height, int cellSize,
+                                    int round, Moments moments, Buffers buffers)
+            throws InterruptedException {
+        int threshold = ColorAnalyzer.THRESHOLD;
+        int[] row = buffers.mRow;
+        int[] cellXs = buffers.mCellX;
+        int[] firstCell = buffers.mFirstCell;
+        int[] nextCell = buffers.mNextCell;
+        double[] cellWeight = buffers.mCellWeight;
+        double cellArea = (double) cellSize * cellSize;
+        long samples = 0;
+        for (int top = 0, cellY = 0; top < height; top += cellSize, cellY++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int cellHeight = Math.min(cellSize, height - top);
+
+            //Position of the pixel of every cell of the band, cells listed by row
+            Arrays.fill(firstCell, 0, cellHeight, -1);
+            for (int left = 0, cellX = 0; left < width; left += cellSize, cellX++) {
+                int cellWidth = Math.min(cellSize, width - left);
+                int hash = hash(cellX, cellY, round);
+                int y = (hash >>> 16) % cellHeight;
+                cellXs[cellX] = left + (hash & 0xFFFF) % cellWidth;
+                cellWeight[cellX] = cellWidth * cellHeight / cellArea;
+                nextCell[cellX] = firstCell[y];
+                firstCell[y] = cellX;
+            }
+
+            //Read every row with pixels to sample once, from its first to its last one
+            for (int y = 0; y < cellHeight; y++) {
+                if (firstCell[y] < 0) {
+                    continue;
+                }
+                int first = width;
+                int last = -1;
+                for (int cell = firstCell[y]; cell >= 0; cell = nextCell[cell]) {
+                    first = Math.min(first, cellXs[cell]);
+                    last = Math.max(last, cellXs[cell]);
+                }
+                source.getPixels(row, first, top + y, last - first + 1, 1);
+
+                for (int cell = firstCell[y]; cell >= 0; cell = nextCell[cell]) {
+                    int color = row[cellXs[cell] - first];
+                    samples++;
+
+                    int r = (color >> 16) & 0xFF;
+                    int g = (color >> 8) & 0xFF;
+                    int b = color & 0xFF;
+                    if (r < threshold && g < threshold && b < threshold) {
+                        moments.add(r, g, b, cellWeight[cell]);
+                    }
+                }
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Method to get a well mixed number from a cell and round, so positions look random but
+     * the same photo is always read the same way
+     */
+    private static int hash(int cellX, int cellY, int round) {
+        int h = cellX * 0x9E3779B1 ^ cellY * 0x85EBCA6B ^ round * 0xC2B2AE35;
+        h ^= h >>> 16;
+        h *= 0x7FEB352D;
+        h ^= h >>> 15;
+        h *= 0x846CA68B;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Buffers reused by every round: a row of the photo, and the pixel and weight of every
+     * cell of a band with the cells linked in lists by row
+     */
+    private static final class Buffers {
+        final int[] mRow;
+        final int[] mCellX;
+        final double[] mCellWeight;
+        final int[] mNextCell;
+        final int[] mFirstCell;
+
+        /**
+         * Constructor
+         *
+         * @param width int: photo width
+         * @param cellSize int: side of the cells of the first round, the largest
+         */
+        Buffers(int width, int cellSize) {
+            int cells = (width + MIN_CELL_SIZE - 1) / MIN_CELL_SIZE;
+            mRow = new int[width];
+            mCellX = new int[cells];
+            mCellWeight = new double[cells];
+            mNextCell = new int[cells];
+            mFirstCell = new int[cellSize];
+        }
+    }
+
+    /**
+     * Weighted sums and sums of squares of the pixels under the threshold
+     */
+    private static final class Moments {
+        long mCount = 0;
+        double mWeight = 0;
+        double mWeightSquares = 0;
+        double mRed = 0;
+        double mGreen = 0;
+        double mBlue = 0;
+        double mRedSquares = 0;
+        double mGreenSquares = 0;
+        double mBlueSquares = 0;
+
+        void add(int r, int g, int b, double weight) {
+            mCount++;
+            mWeight += weight;
+            mWeightSquares += weight * weight;
+            mRed += weight * r;
+            mGreen += weight * g;
+            mBlue += weight * b;
+            mRedSquares += weight * r * r;
+            mGreenSquares += weight * g * g;
+            mBlueSquares += weight * b * b;
+        }
+
+        double mean(double sum) {
+            return mCount == 0 ? 0 : sum / mWeight;
+        }
+
+        double standardError(double sum, double squares) {
+            //Unbiased for unequal weights, the usual one when every pixel weighs the same
+            double dof = mWeight - mWeightSquares / mWeight;
+            if (mCount < 2 || dof <= 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            double mean = sum / mWeight;
+            double variance = Math.max(0, (squares - mean * sum) / dof);
+            return Math.sqrt(variance * mWeightSquares) / mWeight;
+        }
+
+        ColorReading toReading() {
+            //Same mean as a full scan, one extra pixel included
+            double totalPixels = mWeight + 1;
+            int r = (int) (mRed / totalPixels);
+            int g = (int) (mGreen / totalPixels);
+            int b = (int) (mBlue / totalPixels);
+            return new ColorReading(r, g, b, ColorAnalyzer.rgbToHue(r, g, b));
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Pipeline to analyze many photos.
+ *
+ * Photos go through three stages: decode, analyze and record. Several decoders and analyzers
+ * work at the same time, and stages are connected by bounded queues, so a slow stage makes
+ * the one before it wait instead of piling up decoded photos. The number of photos in memory
+ * is never more than decoders + queue capacity + analyzers.
+ *
+ * @param <K> photo key, like its Uri
+ * @param <D> decoded photo
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class BatchPipeline<K, D> {
+
+    /**
+     * Decode stage
+     */
+    public interface Decoder<K, D> {
+        D decode(K key) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Analysis stage. Decoded photos are released after they are analyzed.
+     */
+    public interface Analyzer<D> {
+        ColorReading analyze(D decoded) throws InterruptedException;
+
+        void release(D decoded);
+    }
+
+    /**
+     * Record stage, called from a single thread in the order photos finish
+     */
+    public interface Listener<K> {
+        void onRecorded(BatchResult<K> result, int done, int total);
+
+        void onFinished(int total, long elapsedNanos);
+    }
+
+    private final Decoder<K, D> mDecoder;
+    private final Analyzer<D> mAnalyzer;
+    private final Listener<K> mListener;
+    private final ThreadFactory mThreadFactory;
+    private final int mDecodeWorkers;
+    private final int mAnalyzeWorkers;
+    private final int mQueueCapacity;
+    private final List<Thread> mThreads = new ArrayList<>();
+
+    /**
+     * Constructor
+     *
+     * @param decoder {@link Decoder} stage
+     * @param analyzer {@link Analyzer} stage
+     * @param listener {@link Listener} stage
+     * @param threadFactory ThreadFactory: to create the workers
+     * @param decodeWorkers int: number of photos decoded at the same time
+     * @param analyzeWorkers int: number of photos analyzed at the same time
+     * @param queueCapacity int: number of decoded photos that can wait for an analyzer
+     */
+    public BatchPipeline(Decoder<K, D> decoder, Analyzer<D> analyzer, Listener<K> listener,
+                         ThreadFactory threadFactory, int decodeWorkers, int analyzeWorkers,
+                         int queueCapacity) {
+        mDecoder = decoder;
+        mAnalyzer = analyzer;
+        mListener = listener;
+        mThreadFactory = threadFactory;
+        mDecodeWorkers = decodeWorkers;
+        mAnalyzeWorkers = analyzeWorkers;
+        mQueueCapacity = queueCapacity;
+    }
+
+    /**
+     * Method to size the stages for the cores and the memory available. Decoding is the
+     * slowest stage, so it gets most threads; the queue gets the photos left in the budget.
+     *
+     * @param cores int: number of cores
+     * @param memoryBudget long: memory the decoded photos can use
+     * @param bytesPerPhoto long: memory used by a decoded photo while it is analyzed
+     * @return sizes int[]: decode workers, analyze workers and queue capacity
+     */
+    public static int[] sizeStages(int cores, long memoryBudget, long bytesPerPhoto) {
+        int inMemory = (int) Math.max(3, Math.min(3 * cores, memoryBudget / bytesPerPhoto));
+        int analyzeWorkers = Math.max(1, Math.min(cores / 4, inMemory / 3));
+        int decodeWorkers = Math.max(1, Math.min(cores, inMemory - analyzeWorkers - 1));
+        int queueCapacity = Math.max(1, inMemory - analyzeWorkers - decodeWorkers);
+        return new int[] {decodeWorkers, analyzeWorkers, queueCapacity};
+    }
+
+    /**
+     * Method to start analyzing photos. Results are given to the listener as they finish.
+     *
+     * @param keys List: photos to analyze
+     */
+    public synchronized void start(final List<K> keys) {
+        final long start = System.nanoTime();
+        final int total = keys.size();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger decoding = new AtomicInteger(mDecodeWorkers);
+        final AtomicInteger analyzing = new AtomicInteger(mAnalyzeWorkers);
+        final BlockingQueue<Item<K, D>> decoded = new ArrayBlockingQueue<>(mQueueCapacity);
+        final BlockingQueue<BatchResult<K>> analyzed =
+                new ArrayBlockingQueue<>(Math.max(1, 2 * mAnalyzeWorkers));
+
+        for (int i = 0; i < mDecodeWorkers; i++) {
+            startThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int index = next.getAndIncrement(); index < total;
+                             index = next.getAndIncrement()) {
+                            decoded.put(decode(index, keys.get(index)));
+                        }
+                    } catch (InterruptedException e) {
+                        //Cancelled
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        //Last decoder tells every analyzer there is nothing else
+                        endOfInput(decoding, decoded, new Item<K, D>(-1, null, null, null, 0),
+                                mAnalyzeWorkers);
+                    }
+                }
+            });
+        }
+
+        for (int i = 0; i < mAnalyzeWorkers; i++) {
+            startThread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (Item<K, D> item = decoded.take(); item.mIndex >= 0;
+                             item = decoded.take()) {
+                            analyzed.put(analyze(item));
+                        }
+                    } catch (InterruptedException e) {
+                        //Cancelled
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        endOfInput(analyzing, analyzed,
+                                new BatchResult<K>(-1, null, null, null, 0, 0), 1);
+                    }
+                }
+            });
+        }
+
+        startThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int done = 0;
+                    for (BatchResult<K> result = analyzed.take(); result.getIndex() >= 0;
+                         result = analyzed.take()) {
+                        mListener.onRecorded(result, ++done, total);
+                    }
+                    mListener.onFinished(total, System.nanoTime() - start);
+                } catch (InterruptedException e) {
+                    //Cancelled
+                }
+            }
+        });
+    }
+
+    /**
+     * Method to stop every stage. Photos being decoded or analyzed are not recorded.
+     */
+    public synchronized void cancel() {
+        for (Thread thread : mThreads) {
+            thread.interrupt();
+        }
+        mThreads.clear();
+    }
+
+    private void startThread(Runnable runnable) {
+        Thread thread = mThreadFactory.newThread(runnable);
+        mThreads.add(thread);
+        thread.start();
+    }
+
+    /**
+     * Method to tell the next stage there is nothing else once the last worker of a stage
+     * stops, also if it stopped because of an error, so the pipeline always finishes. Nothing
+     * is told if the pipeline is cancelled.
+     *
+     * @param workers AtomicInteger: workers of the stage still running
+     * @param queue BlockingQueue: input of the next stage
+     * @param end T: item that means there is nothing else
+     * @param count int: number of workers of the next stage
+     */
+    private static <T> void endOfInput(AtomicInteger workers, BlockingQueue<T> queue, T end,
+                                       int count) {
+        if (workers.decrementAndGet() != 0 || Thread.currentThread().isInterrupted()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < count; i++) {
+                queue.put(end);
+            }
+        } catch (InterruptedException e) {
+            //Cancelled
+        }
+    }
+
+    /**
+     * Method to decode a photo, keeping the error if it can't be decoded, also if it does not
+     * fit in memory
+     *
+     * @param index int: position of the photo in the batch
+     * @param key K: photo
+     * @return item {@link Item}: decoded photo or error
+     * @throws InterruptedException if the pipeline is cancelled
+     */
+    private Item<K, D> decode(int index, K key) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            D decoded = mDecoder.decode(key);
+            return new Item<>(index, key, decoded, null, System.nanoTime() - start);
+        } catch (IOException | RuntimeException | Error e) {
+            return new Item<>(index, key, null, e.toString(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Method to analyze a decoded photo and release it, keeping the error if it can't be
+     * analyzed
+     *
+     * @param item {@link Item}: decoded photo or error
+     * @return result {@link BatchResult}
+     * @throws InterruptedException if the pipeline is cancelled
+     */
+    private BatchResult<K> analyze(Item<K, D> item) throws InterruptedException {
+        if (item.mDecoded == null) {
+            return new BatchResult<>(item.mIndex, item.mKey, null, item.mError,
+                    item.mDecodeNanos, 0);
+        }
+        long start = System.nanoTime();
+        try {
+            ColorReading reading = mAnalyzer.analyze(item.mDecoded);
+            return new BatchResult<>(item.mIndex, item.mKey, reading, null, item.mDecodeNanos,
+                    System.nanoTime() - start);
+        } catch (RuntimeException | Error e) {
+            return new BatchResult<>(item.mIndex, item.mKey, null, e.toString(),
+                    item.mDecodeNanos, System.nanoTime() - start);
+        } finally {
+            mAnalyzer.release(item.mDecoded);
+        }
+    }
+
+    /**
+     * Decoded photo waiting for an analyzer. Index -1 means there are no more photos.
+     */
+    private static final class Item<K, D> {
+        final int mIndex;
+        final K mKey;
+        final D mDecoded;
+        final String mError;
+        final long mDecodeNanos;
+
+        Item(int index, K key, D decoded, String error, long decodeNanos) {
+            mIndex = index;
+            mKey = key;
+            mDecoded = decoded;
+            mError = error;
+            mDecodeNanos = decodeNanos;
+        }
+    }
+}
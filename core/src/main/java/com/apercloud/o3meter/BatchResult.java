@@ -0,0 +1,79 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Result of a photo of a batch.
+ *
+ * @param <K> photo key, like its Uri
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class BatchResult<K> {
+
+    private final int mIndex;
+    private final K mKey;
+    private final ColorReading mReading;
+    private final String mError;
+    private final long mDecodeNanos;
+    private final long mAnalyzeNanos;
+
+    /**
+     * Constructor
+     *
+     * @param index int: position of the photo in the batch
+     * @param key K: photo
+     * @param reading {@link ColorReading}: result, null if the photo failed
+     * @param error String: why the photo failed, null if it didn't
+     * @param decodeNanos long: time spent decoding
+     * @param analyzeNanos long: time spent analyzing
+     */
+    BatchResult(int index, K key, ColorReading reading, String error, long decodeNanos,
+                long analyzeNanos) {
+        mIndex = index;
+        mKey = key;
+        mReading = reading;
+        mError = error;
+        mDecodeNanos = decodeNanos;
+        mAnalyzeNanos = analyzeNanos;
+    }
+
+    public int getIndex() {
+        return mIndex;
+    }
+
+    public K getKey() {
+        return mKey;
+    }
+
+    public ColorReading getReading() {
+        return mReading;
+    }
+
+    public String getError() {
+        return mError;
+    }
+
+    public long getDecodeNanos() {
+        return mDecodeNanos;
+    }
+
+    public long getAnalyzeNanos() {
+        return mAnalyzeNanos;
+    }
+}
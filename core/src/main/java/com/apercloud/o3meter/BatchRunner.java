@@ -0,0 +1,283 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+
+/**
+ * Command line runner to analyze a directory of photos on a workstation, with the same
+ * subsampling and algorithm as the app, and write the readings as CSV.
+ *
+ * Usage: BatchRunner &lt;directory&gt; [output.csv] [--threads N] [--calibration points.csv]
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class BatchRunner {
+
+    private static final String USAGE =
+            "Usage: BatchRunner <directory> [output.csv] [--threads N] " +
+                    "[--calibration points.csv]";
+    static final String CSV_HEADER = "file,red,green,blue,hue,scale,error";
+
+    private BatchRunner() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        File directory = null;
+        File output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if ("--calibration".equals(args[i]) && i + 1 < args.length) {
+                File points = new File(args[++i]);
+                Reader in = new InputStreamReader(new FileInputStream(points),
+                        Charset.forName("UTF-8"));
+                try {
+                    Calibration.setActive(Calibration.read(points.getName(), in));
+                } finally {
+                    in.close();
+                }
+            } else if (directory == null) {
+                directory = new File(args[i]);
+            } else if (output == null) {
+                output = new File(args[i]);
+            } else {
+                directory = null;
+                break;
+            }
+        }
+        if (directory == null || !directory.isDirectory() || threads < 1) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(output == null ? System.out :
+                new FileOutputStream(output), Charset.forName("UTF-8")));
+        int failed;
+        try {
+            failed = run(listPhotos(directory), out, threads, System.err);
+        } finally {
+            out.close();
+        }
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Method to list the photos of a directory, sorted by name
+     *
+     * @param directory File: directory with the photos
+     * @return photos List: JPEG and PNG files
+     */
+    static List<File> listPhotos(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName().toLowerCase(Locale.US);
+                return file.isFile() && (name.endsWith(".jpg") || name.endsWith(".jpeg") ||
+                        name.endsWith(".png"));
+            }
+        });
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Method to analyze photos and write a CSV line for each one, in the order of the list
+     *
+     * @param photos List: photos to analyze
+     * @param out Writer: where the CSV is written
+     * @param threads int: number of cores to use
+     * @param progress PrintStream: where progress is reported, null for none
+     * @return failed int: number of photos that couldn't be analyzed
+     * @throws IOException if the CSV can't be written
+     * @throws InterruptedException if interrupted while waiting for the photos
+     */
+    static int run(List<File> photos, Writer out, int threads, final PrintStream progress)
+            throws IOException, InterruptedException {
+        final int total = photos.size();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        final BatchResult<File>[] results = new BatchResult[total];
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        long budget = Runtime.getRuntime().maxMemory() / 2;
+        int[] stages = BatchPipeline.sizeStages(threads, budget,
+                Subsampling.BYTES_PER_ANALYZED_PHOTO);
+        BatchPipeline<File, BufferedImage> pipeline = new BatchPipeline<>(
+                new BatchPipeline.Decoder<File, BufferedImage>() {
+                    @Override
+                    public BufferedImage decode(File file) throws IOException {
+                        return decodeImage(file, Subsampling.ANALYSIS_PIXEL_BUDGET);
+                    }
+                },
+                new BatchPipeline.Analyzer<BufferedImage>() {
+                    //Strip buffer of every analyzer
+                    private final ThreadLocal<StripScanner> mScanners =
+                            new ThreadLocal<StripScanner>() {
+                                @Override
+                                protected StripScanner initialValue() {
+                                    return new StripScanner(StripScanner.DEFAULT_STRIP_PIXELS);
+                                }
+                            };
+
+                    @Override
+                    public ColorReading analyze(final BufferedImage image)
+                            throws InterruptedException {
+                        return mScanners.get().analyze(new PixelSource() {
+                            @Override
+                            public void getPixels(int[] buffer, int x, int y, int width,
+                                                  int height) {
+                                image.getRGB(x, y, width, height, buffer, 0, width);
+                            }
+                        }, image.getWidth(), image.getHeight());
+                    }
+
+                    @Override
+                    public void release(BufferedImage image) {
+                        //Garbage collected
+                    }
+                },
+                new BatchPipeline.Listener<File>() {
+                    @Override
+                    public void onRecorded(BatchResult<File> result, int done, int total) {
+                        results[result.getIndex()] = result;
+                        if (progress != null) {
+                            progress.print(String.format(Locale.US, "\r%d of %d photos",
+                                    done, total));
+                        }
+                    }
+
+                    @Override
+                    public void onFinished(int total, long elapsedNanos) {
+                        if (progress != null) {
+                            double seconds = elapsedNanos / 1e9;
+                            progress.println(String.format(Locale.US,
+                                    "\r%d photos in %.1f s, %.1f photos/s", total, seconds,
+                                    seconds > 0 ? total / seconds : 0));
+                        }
+                        finished.countDown();
+                    }
+                },
+                Executors.defaultThreadFactory(), stages[0], stages[1], stages[2]);
+        pipeline.start(photos);
+        try {
+            finished.await();
+        } finally {
+            pipeline.cancel();
+        }
+
+        out.write(CSV_HEADER);
+        out.write('\n');
+        int failed = 0;
+        for (BatchResult<File> result : results) {
+            out.write(csvLine(result));
+            out.write('\n');
+            if (result.getReading() == null) {
+                failed++;
+            }
+        }
+        out.flush();
+        return failed;
+    }
+
+    /**
+     * Method to decode a photo with the power of 2 subsampling the app uses
+     *
+     * @param file File: JPEG or PNG photo
+     * @param pixelBudget int: required number of pixels
+     * @return image BufferedImage: subsampled photo
+     * @throws IOException if the photo can't be decoded
+     */
+    static BufferedImage decodeImage(File file, int pixelBudget) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Can't open " + file);
+        }
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("Unknown format " + file);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int sampleSize = Subsampling.calculateInSampleSize(reader.getWidth(0),
+                        reader.getHeight(0), 0, 0, pixelBudget);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(sampleSize, sampleSize, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Method to write the CSV line of a photo
+     *
+     * @param result {@link BatchResult}: result of the photo
+     * @return line String: without line break
+     */
+    static String csvLine(BatchResult<File> result) {
+        String name = csvField(result.getKey().getName());
+        ColorReading reading = result.getReading();
+        if (reading == null) {
+            return name + ",,,,,," + csvField(result.getError());
+        }
+        return String.format(Locale.US, "%s,%d,%d,%d,%.2f,%s,", name, reading.getRed(),
+                reading.getGreen(), reading.getBlue(), reading.getHue(),
+                reading.hasValue() ? Integer.toString(reading.getScale()) : "");
+    }
+
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
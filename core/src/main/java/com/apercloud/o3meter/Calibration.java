@@ -0,0 +1,292 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Conversion of hues to our Ozone Scale for a batch of indicator paper.
+ *
+ * A calibration is fitted to reference points measured from standards: the hue of a
+ * standard and its value in the scale. Hues are unwrapped along the scale, from yellow (60)
+ * down to red (0) and on from magenta (359) to blue (240), and a monotone cubic curve
+ * (Fritsch-Carlson) is fitted through the points, so values never overshoot between them.
+ * The curve is compiled into a table with {@link #STEPS_PER_DEGREE} entries per degree of
+ * hue, so converting a hue is a single array read and switching calibrations is only
+ * switching tables. Hues outside the points get the value of the nearest end of the curve.
+ *
+ * Calibrations are immutable. The active one, used by {@link ColorReading#getScale()}, is
+ * {@link #DEFAULT} until another one is set.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class Calibration {
+
+    //Table entries per degree of hue
+    public static final int STEPS_PER_DEGREE = 10;
+
+    //Linear calibration of ColorAnalyzer.HueToScale
+    public static final Calibration DEFAULT = defaultCalibration();
+
+    //Hue where our scale starts (yellow)
+    private static final float SCALE_START_HUE = 60;
+    private static final int TABLE_SIZE = 360 * STEPS_PER_DEGREE;
+
+    private static volatile Calibration sActive = DEFAULT;
+
+    private final String mName;
+    private final int[] mTable;
+
+    private Calibration(String name, int[] table) {
+        mName = name;
+        mTable = table;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Method to get the calibration used for readings
+     *
+     * @return calibration {@link Calibration}
+     */
+    public static Calibration getActive() {
+        return sActive;
+    }
+
+    /**
+     * Method to change the calibration used for readings, from now on
+     *
+     * @param calibration {@link Calibration}: new calibration
+     */
+    public static void setActive(Calibration calibration) {
+        sActive = calibration;
+    }
+
+    /**
+     * Method to convert a hue to our Ozone Scale
+     *
+     * @param hue float: hue from 0 to 359
+     * @return scale int: value in our Ozone Scale
+     */
+    public int toScale(float hue) {
+        int index = (int) (hue * (double) STEPS_PER_DEGREE);
+        if (index < 0) {
+            index = 0;
+        } else if (index >= TABLE_SIZE) {
+            index = TABLE_SIZE - 1;
+        }
+        return mTable[index];
+    }
+
+    /**
+     * Method to fit a calibration to reference points
+     *
+     * @param name String: name of the calibration, like the batch of paper
+     * @param hues float[]: hue of every standard, from 0 to 359
+     * @param scales float[]: value of every standard in our Ozone Scale
+     * @return calibration {@link Calibration}
+     * @throws IllegalArgumentException if there are less than two points, two points with
+     *                                  the same hue, or values that don't grow along the
+     *                                  scale
+     */
+    public static Calibration fit(String name, float[] hues, float[] scales) {
+        if (hues.length != scales.length || hues.length < 2) {
+            throw new IllegalArgumentException("At least two reference points are needed");
+        }
+
+        //Reference points along the scale, sorted by unwrapped hue
+        final float[] position = new float[hues.length];
+        Integer[] order = new Integer[hues.length];
+        for (int i = 0; i < hues.length; i++) {
+            position[i] = unwrap(hues[i]);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(position[a], position[b]);
+            }
+        });
+        int n = hues.length;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = position[order[i]];
+            y[i] = scales[order[i]];
+            if (i > 0 && x[i] == x[i - 1]) {
+                throw new IllegalArgumentException("Two reference points with hue " +
+                        hues[order[i]]);
+            }
+            if (i > 0 && y[i] <= y[i - 1]) {
+                throw new IllegalArgumentException("Values must grow from yellow to blue");
+            }
+        }
+        double[] slopes = monotoneSlopes(x, y);
+
+        //Hues out of the points take the value of the nearest end, around the hue circle
+        double gapMiddle = (x[n - 1] + x[0] + 360) / 2;
+        int[] table = new int[TABLE_SIZE];
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            double u = unwrap((float) i / STEPS_PER_DEGREE);
+            double scale;
+            if (u <= x[0] || u > gapMiddle) {
+                scale = y[0];
+            } else if (u >= x[n - 1]) {
+                scale = y[n - 1];
+            } else {
+                int segment = 0;
+                while (x[segment + 1] < u) {
+                    segment++;
+                }
+                scale = hermite(x[segment], x[segment + 1], y[segment], y[segment + 1],
+                        slopes[segment], slopes[segment + 1], u);
+            }
+            table[i] = (int) Math.round(scale);
+        }
+        return new Calibration(name, table);
+    }
+
+    /**
+     * Method to read reference points and fit a calibration to them. Every line has the hue
+     * and the value of a standard separated by a comma; empty lines, lines starting with #
+     * and a header line are skipped.
+     *
+     * @param name String: name of the calibration
+     * @param in Reader: reference points, as CSV
+     * @return calibration {@link Calibration}
+     * @throws IOException if the points can't be read or are not valid
+     */
+    public static Calibration read(String name, Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        List<float[]> points = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            try {
+                if (fields.length != 2) {
+                    throw new NumberFormatException();
+                }
+                points.add(new float[]{Float.parseFloat(fields[0].trim()),
+                        Float.parseFloat(fields[1].trim())});
+            } catch (NumberFormatException e) {
+                if (lineNumber == 1) {
+                    //Header
+                    continue;
+                }
+                throw new IOException("Bad reference point at line " + lineNumber + ": " +
+                        line);
+            }
+        }
+
+        float[] hues = new float[points.size()];
+        float[] scales = new float[points.size()];
+        for (int i = 0; i < hues.length; i++) {
+            hues[i] = points.get(i)[0];
+            scales[i] = points.get(i)[1];
+        }
+        try {
+            return fit(name, hues, scales);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+
+    /**
+     * Method to get the position of a hue along our scale: 0 at yellow, 60 at red, 180 at
+     * blue and up to 360 through green back to yellow
+     *
+     * @param hue float: hue from 0 to 359
+     * @return position float: unwrapped hue, from 0 to 360
+     */
+    static float unwrap(float hue) {
+        float position = (SCALE_START_HUE - hue) % 360;
+        return position < 0 ? position + 360 : position;
+    }
+
+    /**
+     * Method to get the slopes at every point of a monotone cubic Hermite curve through the
+     * points (Fritsch-Carlson)
+     *
+     * @param x double[]: growing positions
+     * @param y double[]: growing values
+     * @return slopes double[]
+     */
+    private static double[] monotoneSlopes(double[] x, double[] y) {
+        int n = x.length;
+        double[] secants = new double[n - 1];
+        for (int i = 0; i < n - 1; i++) {
+            secants[i] = (y[i + 1] - y[i]) / (x[i + 1] - x[i]);
+        }
+        double[] slopes = new double[n];
+        slopes[0] = secants[0];
+        slopes[n - 1] = secants[n - 2];
+        for (int i = 1; i < n - 1; i++) {
+            slopes[i] = (secants[i - 1] + secants[i]) / 2;
+        }
+        //Limit slopes so the curve doesn't overshoot between points
+        for (int i = 0; i < n - 1; i++) {
+            double a = slopes[i] / secants[i];
+            double b = slopes[i + 1] / secants[i];
+            double length = a * a + b * b;
+            if (length > 9) {
+                double t = 3 / Math.sqrt(length);
+                slopes[i] = t * a * secants[i];
+                slopes[i + 1] = t * b * secants[i];
+            }
+        }
+        return slopes;
+    }
+
+    private static double hermite(double x0, double x1, double y0, double y1, double m0,
+                                  double m1, double x) {
+        double h = x1 - x0;
+        double t = (x - x0) / h;
+        double t2 = t * t;
+        double t3 = t2 * t;
+        return (2 * t3 - 3 * t2 + 1) * y0 + (t3 - 2 * t2 + t) * h * m0 +
+                (-2 * t3 + 3 * t2) * y1 + (t3 - t2) * h * m1;
+    }
+
+    private static Calibration defaultCalibration() {
+        int[] table = new int[TABLE_SIZE];
+        for (int i = 0; i < TABLE_SIZE; i++) {
+            table[i] = ColorAnalyzer.HueToScale(i / STEPS_PER_DEGREE);
+        }
+        return new Calibration("Default", table);
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import static java.lang.Math.abs;
+
+
+/**
+ * Color analysis of photo pixels.
+ *
+ * Works over plain ARGB pixel arrays so it can be run from any thread. Pixels are sampled
+ * every {@link #PIXEL_SPACING} positions and only the ones with every channel under
+ * {@link #THRESHOLD} are used, the rest are considered background or glare.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class ColorAnalyzer {
+
+    public static final int THRESHOLD = 150;
+    public static final int PIXEL_SPACING = 3;
+
+    //Number of pixels scanned between checks for cancellation. Multiple of the spacing so
+    //every chunk starts on a sampled pixel
+    private static final int CANCEL_CHECK_INTERVAL = PIXEL_SPACING << 15;
+
+    private ColorAnalyzer() {
+    }
+
+    /**
+     * Method to analyze pixels and get mean color and hue
+     *
+     * @param pixels int[]: ARGB pixels of the photo or selection rectangle
+     * @param length int: number of valid pixels in the array
+     * @return reading {@link ColorReading}
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public static ColorReading analyze(int[] pixels, int length) throws InterruptedException {
+        ColorSums sums = new ColorSums();
+
+        //Go over every pixel getting its color, checking now and then if we were cancelled
+        for (int start = 0; start < length; start += CANCEL_CHECK_INTERVAL) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            accumulate(pixels, start, Math.min(length, start + CANCEL_CHECK_INTERVAL), sums);
+        }
+
+        return sums.toReading();
+    }
+
+    /**
+     * Method to add to the sums the rows of a photo from firstRow to endRow. The pixels
+     * sampled are the same {@link #analyze} samples when it goes over the whole photo, so
+     * the sums of all the rows of a photo, in any order and split in any way, are exactly the
+     * sums of {@link #analyze}.
+     *
+     * @param pixels int[]: ARGB pixels of the photo or selection rectangle
+     * @param width int: photo width
+     * @param firstRow int: first row to add
+     * @param endRow int: row after the last row to add
+     * @param sums {@link ColorSums} to add to
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public static void accumulateRows(int[] pixels, int width, int firstRow, int endRow,
+                                      ColorSums sums) throws InterruptedException {
+        for (int y = firstRow; y < endRow; y++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int rowStart = y * width;
+            //First pixel of the row that falls on the sampling spacing
+            int phase = (PIXEL_SPACING - rowStart % PIXEL_SPACING) % PIXEL_SPACING;
+            accumulate(pixels, rowStart + phase, rowStart + width, sums);
+        }
+    }
+
+    /**
+     * Method to add to the sums a strip of rows of a photo read into a buffer. The pixels
+     * sampled are the ones {@link #accumulateRows} samples for the same rows of the whole
+     * photo, so scanning a photo strip by strip gives exactly the sums of {@link #analyze}.
+     *
+     * @param strip int[]: ARGB pixels of the rows, from index 0
+     * @param width int: photo width
+     * @param firstRow int: row of the photo the strip starts at
+     * @param rows int: number of rows in the strip
+     * @param sums {@link ColorSums} to add to
+     */
+    public static void accumulateStrip(int[] strip, int width, int firstRow, int rows,
+                                       ColorSums sums) {
+        for (int i = 0; i < rows; i++) {
+            long photoRowStart = (long) (firstRow + i) * width;
+            int phase = (int) ((PIXEL_SPACING - photoRowStart % PIXEL_SPACING) % PIXEL_SPACING);
+            int rowStart = i * width;
+            accumulate(strip, rowStart + phase, rowStart + width, sums);
+        }
+    }
+
+    /**
+     * Method to get the histogram of the pixels, to get statistics at any threshold up to the
+     * maximum threshold of the histogram
+     *
+     * @param pixels int[]: ARGB pixels of the photo or selection rectangle
+     * @param length int: number of valid pixels in the array
+     * @param maxThreshold int: highest threshold statistics will be asked for, up to 256
+     * @return histogram {@link ColorHistogram}
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public static ColorHistogram histogram(int[] pixels, int length, int maxThreshold)
+            throws InterruptedException {
+        ColorHistogram histogram = new ColorHistogram(maxThreshold);
+        for (int start = 0; start < length; start += CANCEL_CHECK_INTERVAL) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            histogram.accumulate(pixels, start, Math.min(length, start + CANCEL_CHECK_INTERVAL));
+        }
+        return histogram;
+    }
+
+    /**
+     * Method to add to a histogram the rows of a photo from firstRow to endRow, sampling the
+     * same pixels as {@link #accumulateRows}
+     *
+     * @param pixels int[]: ARGB pixels of the photo or selection rectangle
+     * @param width int: photo width
+     * @param firstRow int: first row to add
+     * @param endRow int: row after the last row to add
+     * @param histogram {@link ColorHistogram} to add to
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public static void histogramRows(int[] pixels, int width, int firstRow, int endRow,
+                                     ColorHistogram histogram) throws InterruptedException {
+        for (int y = firstRow; y < endRow; y++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int rowStart = y * width;
+            int phase = (PIXEL_SPACING - rowStart % PIXEL_SPACING) % PIXEL_SPACING;
+            histogram.accumulate(pixels, rowStart + phase, rowStart + width);
+        }
+    }
+
+    /**
+     * Method to add to the sums a row of a region of a photo, sampling the pixels
+     * {@link #analyze} samples when it goes over the region alone
+     *
+     * @param pixels int[]: ARGB pixels holding the row
+     * @param start int: first pixel of the row of the region in the array
+     * @param width int: region width
+     * @param regionRow int: row of the region, 0 for its top row
+     * @param sums {@link ColorSums} to add to
+     */
+    static void accumulateRegionRow(int[] pixels, int start, int width, int regionRow,
+                                    ColorSums sums) {
+        long regionRowStart = (long) regionRow * width;
+        int phase = (int) ((PIXEL_SPACING - regionRowStart % PIXEL_SPACING) % PIXEL_SPACING);
+        accumulate(pixels, start + phase, start + width, sums);
+    }
+
+    /**
+     * Method to add to the sums one every {@link #PIXEL_SPACING} pixels from start to end
+     *
+     * @param pixels int[]: ARGB pixels
+     * @param start int: first pixel to add
+     * @param end int: pixel after the last one that can be added
+     * @param sums {@link ColorSums} to add to
+     */
+    private static void accumulate(int[] pixels, int start, int end, ColorSums sums) {
+        //int is enough for one chunk or row, the totals are kept in long
+        int RED = 0; int GREEN = 0; int BLUE = 0; int totalPixels = 0;
+        for (int i = start; i < end; i += PIXEL_SPACING) {
+            int color = pixels[i];
+
+            int r = (color >> 16) & 0xFF;
+            int g = (color >> 8) & 0xFF;
+            int b = color & 0xFF;
+            if (r < THRESHOLD && g < THRESHOLD && b < THRESHOLD) {
+                RED += r;
+                GREEN += g;
+                BLUE += b;
+                totalPixels++;
+            }
+        }
+        sums.red += RED;
+        sums.green += GREEN;
+        sums.blue += BLUE;
+        sums.count += totalPixels;
+    }
+
+    /**
+     * Method to get the hue of a RGB color. Same conversion as android.graphics.Color.RGBToHSV
+     * so results do not depend on the platform.
+     *
+     * @param r int: red from 0 to 255
+     * @param g int: green from 0 to 255
+     * @param b int: blue from 0 to 255
+     * @return hue float: from 0 to 359, 0 for shades of gray
+     */
+    public static float rgbToHue(int r, int g, int b) {
+        int min = Math.min(r, Math.min(g, b));
+        int max = Math.max(r, Math.max(g, b));
+        int delta = max - min;
+
+        //We're a shade of gray
+        if (delta == 0) {
+            return 0;
+        }
+
+        float h;
+        if (r == max) {
+            h = (float) (g - b) / delta;
+        } else if (g == max) {
+            h = 2 + (float) (b - r) / delta;
+        } else {
+            h = 4 + (float) (r - g) / delta;
+        }
+        h *= 60;
+        if (h < 0) {
+            h += 360;
+        }
+        return h;
+    }
+
+    /**
+     * Method to make HUE <=> OZONE SCALE conversion.
+     *
+     * Hue values in a HSV representation can vary from 0 to 359. In our Ozone Scale
+     * the hue of the samples can move from the yellow (no ozone at all) to blue
+     * (max amount of ozone measurable). Hence our scale overlaps the HSV hue
+     * values, so we should map HSV hue values to our Ozone Scale value. This is
+     * values from 60 to 0 followed by values from 359 to 240 will be mapped to
+     * range values [0, 180].
+     *
+     * Hue: 0-359
+     * Scale: [60..0] & [359..240] ==> [0..180]
+     *
+     * @param hue int: hue value to convert
+     */
+    public static int HueToScale(int hue) {
+        if(hue <= 60) {
+            return abs(hue - 60);
+        }
+        return abs(hue - 359) + 61;
+    }
+}
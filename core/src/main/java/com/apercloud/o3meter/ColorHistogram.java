@@ -0,0 +1,190 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Histograms of the pixels of a photo, for statistics at any threshold.
+ *
+ * A pixel is under a threshold when all its channels are, that is, when its brightest channel
+ * is. So for every channel the histogram counts pixels by the value of the channel and by
+ * the value of their brightest channel (the level). The histogram of a channel at any
+ * threshold up to the one it was built with is the sum of the levels under that threshold,
+ * and changing the threshold doesn't need to scan the photo again. Counts are 64-bit, and
+ * histograms of different parts of a photo can be merged in any order.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class ColorHistogram {
+
+    //Values of a channel
+    static final int BINS = 256;
+
+    private final int mMaxThreshold;
+    //Counts by [level][value], value <= level, so only a triangle is stored
+    private final long[] mRed;
+    private final long[] mGreen;
+    private final long[] mBlue;
+
+    /**
+     * Constructor of a histogram that can give statistics up to the analysis threshold
+     */
+    public ColorHistogram() {
+        this(ColorAnalyzer.THRESHOLD);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param maxThreshold int: highest threshold statistics will be asked for, up to 256
+     */
+    public ColorHistogram(int maxThreshold) {
+        if (maxThreshold < 1 || maxThreshold > BINS) {
+            throw new IllegalArgumentException("Threshold out of range: " + maxThreshold);
+        }
+        mMaxThreshold = maxThreshold;
+        int size = levelOffset(maxThreshold);
+        mRed = new long[size];
+        mGreen = new long[size];
+        mBlue = new long[size];
+    }
+
+    /**
+     * Method to get the highest threshold statistics can be asked for
+     *
+     * @return threshold int
+     */
+    public int getMaxThreshold() {
+        return mMaxThreshold;
+    }
+
+    /**
+     * Method to add one every {@link ColorAnalyzer#PIXEL_SPACING} pixels from start to end
+     *
+     * @param pixels int[]: ARGB pixels
+     * @param start int: first pixel to add
+     * @param end int: pixel after the last one that can be added
+     */
+    void accumulate(int[] pixels, int start, int end) {
+        long[] red = mRed;
+        long[] green = mGreen;
+        long[] blue = mBlue;
+        int maxThreshold = mMaxThreshold;
+        for (int i = start; i < end; i += ColorAnalyzer.PIXEL_SPACING) {
+            int color = pixels[i];
+
+            int r = (color >> 16) & 0xFF;
+            int g = (color >> 8) & 0xFF;
+            int b = color & 0xFF;
+            int level = Math.max(r, Math.max(g, b));
+            if (level < maxThreshold) {
+                int offset = levelOffset(level);
+                red[offset + r]++;
+                green[offset + g]++;
+                blue[offset + b]++;
+            }
+        }
+    }
+
+    /**
+     * Method to add a strip of rows of a photo read into a buffer, sampling the pixels
+     * {@link ColorAnalyzer#accumulateStrip} samples
+     *
+     * @param strip int[]: ARGB pixels of the rows, from index 0
+     * @param width int: photo width
+     * @param firstRow int: row of the photo the strip starts at
+     * @param rows int: number of rows in the strip
+     */
+    void accumulateStrip(int[] strip, int width, int firstRow, int rows) {
+        int spacing = ColorAnalyzer.PIXEL_SPACING;
+        for (int i = 0; i < rows; i++) {
+            long photoRowStart = (long) (firstRow + i) * width;
+            int phase = (int) ((spacing - photoRowStart % spacing) % spacing);
+            int rowStart = i * width;
+            accumulate(strip, rowStart + phase, rowStart + width);
+        }
+    }
+
+    /**
+     * Method to add the histogram of another part of the photo
+     *
+     * @param other {@link ColorHistogram} to add, built with the same maximum threshold
+     */
+    public void merge(ColorHistogram other) {
+        if (other.mMaxThreshold != mMaxThreshold) {
+            throw new IllegalArgumentException("Histograms of different thresholds: " +
+                    mMaxThreshold + ", " + other.mMaxThreshold);
+        }
+        for (int i = 0; i < mRed.length; i++) {
+            mRed[i] += other.mRed[i];
+            mGreen[i] += other.mGreen[i];
+            mBlue[i] += other.mBlue[i];
+        }
+    }
+
+    /**
+     * Method to get the statistics of the pixels under the analysis threshold
+     *
+     * @return statistics {@link ColorStatistics}
+     */
+    public ColorStatistics getStatistics() {
+        return getStatistics(Math.min(ColorAnalyzer.THRESHOLD, mMaxThreshold));
+    }
+
+    /**
+     * Method to get the statistics of the pixels with every channel under a threshold
+     *
+     * @param threshold int: from 1 to the maximum threshold of the histogram
+     * @return statistics {@link ColorStatistics}
+     */
+    public ColorStatistics getStatistics(int threshold) {
+        if (threshold < 1 || threshold > mMaxThreshold) {
+            throw new IllegalArgumentException("Threshold out of range: " + threshold);
+        }
+        return new ColorStatistics(channel(mRed, threshold), channel(mGreen, threshold),
+                channel(mBlue, threshold));
+    }
+
+    /**
+     * Method to get the histogram of a channel of the pixels under a threshold
+     *
+     * @param counts long[]: counts of the channel by level and value
+     * @param threshold int: threshold
+     * @return histogram long[]: counts by value
+     */
+    private static long[] channel(long[] counts, int threshold) {
+        long[] histogram = new long[BINS];
+        for (int level = 0; level < threshold; level++) {
+            int offset = levelOffset(level);
+            for (int value = 0; value <= level; value++) {
+                histogram[value] += counts[offset + value];
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Method to get where the counts of a level start
+     *
+     * @param level int: value of the brightest channel
+     * @return offset int: 1 + 2 + ... + level
+     */
+    private static int levelOffset(int level) {
+        return level * (level + 1) / 2;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Summed-area table of a photo for constant time readings.
+ *
+ * For every position of a proxy of the photo (one pixel every {@link #getStep()} pixels in
+ * both directions) the table stores the sums of red, green and blue of the pixels under the
+ * threshold above and to the left of it, and how many they are. The reading of any rectangle
+ * is then computed from its four corners, without going over its pixels.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class ColorIndex {
+
+    //Maximum number of proxy pixels. Keeps sums inside int and the tables around 8 MB
+    static final int INDEX_PIXEL_BUDGET = 512 * 1024;
+
+    private final int mStep;
+    private final int mWidth;
+    private final int mHeight;
+    private final int[] mRed;
+    private final int[] mGreen;
+    private final int[] mBlue;
+    private final int[] mCount;
+
+    private ColorIndex(Builder builder) {
+        mStep = builder.mStep;
+        mWidth = builder.mProxyWidth;
+        mHeight = builder.mProxyHeight;
+        mRed = builder.mRed;
+        mGreen = builder.mGreen;
+        mBlue = builder.mBlue;
+        mCount = builder.mCount;
+    }
+
+    /**
+     * Method to get the distance between proxy pixels, in photo pixels
+     *
+     * @return step int
+     */
+    public int getStep() {
+        return mStep;
+    }
+
+    /**
+     * Method to get the reading of a rectangle of the photo. Rectangles smaller than the
+     * step still cover one proxy pixel.
+     *
+     * @param left int: rect coordinates from left, in photo pixels
+     * @param top int: rect coordinates from top, in photo pixels
+     * @param right int: rect coordinates from right, in photo pixels
+     * @param bottom int: rect coordinates from bottom, in photo pixels
+     * @return reading {@link ColorReading}
+     */
+    public ColorReading query(int left, int top, int right, int bottom) {
+        //Proxy pixels inside the rectangle
+        int x0 = clamp((left + mStep - 1) / mStep, 0, mWidth - 1);
+        int y0 = clamp((top + mStep - 1) / mStep, 0, mHeight - 1);
+        int x1 = clamp((right + mStep - 1) / mStep, x0 + 1, mWidth);
+        int y1 = clamp((bottom + mStep - 1) / mStep, y0 + 1, mHeight);
+
+        int stride = mWidth + 1;
+        int a = y0 * stride + x0;
+        int b = y0 * stride + x1;
+        int c = y1 * stride + x0;
+        int d = y1 * stride + x1;
+
+        //Same as ColorAnalyzer, one extra pixel so empty rectangles don't divide by zero
+        int totalPixels = mCount[d] - mCount[b] - mCount[c] + mCount[a] + 1;
+        int red = (mRed[d] - mRed[b] - mRed[c] + mRed[a]) / totalPixels;
+        int green = (mGreen[d] - mGreen[b] - mGreen[c] + mGreen[a]) / totalPixels;
+        int blue = (mBlue[d] - mBlue[b] - mBlue[c] + mBlue[a]) / totalPixels;
+        return new ColorReading(red, green, blue, ColorAnalyzer.rgbToHue(red, green, blue));
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(value, max));
+    }
+
+    /**
+     * Builder of the index from the rows of a photo, so the photo never has to be copied to a
+     * single pixel array. Only rows 0, step, 2 * step... have to be added, in order.
+     */
+    public static final class Builder {
+
+        private final int mStep;
+        private final int mProxyWidth;
+        private final int mProxyHeight;
+        private final int[] mRed;
+        private final int[] mGreen;
+        private final int[] mBlue;
+        private final int[] mCount;
+        private int mRows = 0;
+
+        /**
+         * Constructor
+         *
+         * @param width int: photo width
+         * @param height int: photo height
+         */
+        public Builder(int width, int height) {
+            int step = 1;
+            while ((long) ((width + step - 1) / step) * ((height + step - 1) / step) >
+                    INDEX_PIXEL_BUDGET) {
+                step++;
+            }
+            mStep = step;
+            mProxyWidth = (width + step - 1) / step;
+            mProxyHeight = (height + step - 1) / step;
+
+            int size = (mProxyWidth + 1) * (mProxyHeight + 1);
+            mRed = new int[size];
+            mGreen = new int[size];
+            mBlue = new int[size];
+            mCount = new int[size];
+        }
+
+        public int getStep() {
+            return mStep;
+        }
+
+        /**
+         * Method to add the next sampled row of the photo
+         *
+         * @param row int[]: ARGB pixels of the row
+         */
+        public void addRow(int[] row) {
+            int stride = mProxyWidth + 1;
+            int above = mRows * stride;
+            int here = above + stride;
+            int red = 0; int green = 0; int blue = 0; int count = 0;
+            for (int x = 0; x < mProxyWidth; x++) {
+                int color = row[x * mStep];
+
+                int r = (color >> 16) & 0xFF;
+                int g = (color >> 8) & 0xFF;
+                int b = color & 0xFF;
+                if (r < ColorAnalyzer.THRESHOLD && g < ColorAnalyzer.THRESHOLD &&
+                        b < ColorAnalyzer.THRESHOLD) {
+                    red += r;
+                    green += g;
+                    blue += b;
+                    count++;
+                }
+                mRed[here + x + 1] = mRed[above + x + 1] + red;
+                mGreen[here + x + 1] = mGreen[above + x + 1] + green;
+                mBlue[here + x + 1] = mBlue[above + x + 1] + blue;
+                mCount[here + x + 1] = mCount[above + x + 1] + count;
+            }
+            mRows++;
+        }
+
+        /**
+         * Method to finish the index
+         *
+         * @return index {@link ColorIndex}
+         * @throws IllegalStateException if not all the sampled rows were added
+         */
+        public ColorIndex build() {
+            if (mRows != mProxyHeight) {
+                throw new IllegalStateException("Added " + mRows + " rows of " + mProxyHeight);
+            }
+            return new ColorIndex(this);
+        }
+    }
+}
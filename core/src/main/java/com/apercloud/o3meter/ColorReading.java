@@ -0,0 +1,110 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Result of analyzing a photo or a part of it.
+ *
+ * Holds the mean color of the analyzed pixels, its hue and the corresponding value in our
+ * Ozone Scale. Instances are immutable so they can be handed from the analysis thread to
+ * the UI thread without copying.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class ColorReading {
+
+    private final int mRed;
+    private final int mGreen;
+    private final int mBlue;
+    private final float mHue;
+
+    /**
+     * Constructor
+     *
+     * @param red int: mean red of the analyzed pixels
+     * @param green int: mean green of the analyzed pixels
+     * @param blue int: mean blue of the analyzed pixels
+     * @param hue float: hue of the mean color, from 0 to 359
+     */
+    public ColorReading(int red, int green, int blue, float hue) {
+        mRed = red;
+        mGreen = green;
+        mBlue = blue;
+        mHue = hue;
+    }
+
+    public int getRed() {
+        return mRed;
+    }
+
+    public int getGreen() {
+        return mGreen;
+    }
+
+    public int getBlue() {
+        return mBlue;
+    }
+
+    public float getHue() {
+        return mHue;
+    }
+
+    /**
+     * Method to know if the reading has a value in our Ozone Scale. If hue equals to 0 the
+     * mean color is a shade of gray (or nothing passed the threshold) and there is no value.
+     *
+     * @return <code>true</code> if there is a value;
+     *         <code>false</code> otherwise
+     */
+    public boolean hasValue() {
+        return mHue != 0.0f;
+    }
+
+    /**
+     * Method to get the reading in our Ozone Scale, with the active {@link Calibration}
+     *
+     * @return scale int: value from 0 to 180, or -1 if the reading has no value
+     */
+    public int getScale() {
+        return getScale(Calibration.getActive());
+    }
+
+    /**
+     * Method to get the reading in our Ozone Scale
+     *
+     * @param calibration {@link Calibration} of the indicator paper
+     * @return scale int: value from 0 to 180, or -1 if the reading has no value
+     */
+    public int getScale(Calibration calibration) {
+        if (!hasValue()) {
+            return -1;
+        }
+        return calibration.toScale(mHue);
+    }
+
+    /**
+     * Method to get the hue to display in colorView and gradientView. Readings without value
+     * are shown as the first color of our scale (yellow).
+     *
+     * @return hue float: display hue
+     */
+    public float getDisplayHue() {
+        return hasValue() ? mHue : 60;
+    }
+}
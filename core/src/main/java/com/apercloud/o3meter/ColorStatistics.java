@@ -0,0 +1,198 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Statistics of the pixels of a photo under a threshold.
+ *
+ * Computed from the histogram of every channel, so the mean, median, trimmed mean and
+ * variance of the pixels come from the same single scan of the photo.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class ColorStatistics {
+
+    public static final int RED = 0;
+    public static final int GREEN = 1;
+    public static final int BLUE = 2;
+
+    private final long[][] mHistograms;
+    private final long mCount;
+
+    /**
+     * Constructor
+     *
+     * @param red long[]: counts of red values
+     * @param green long[]: counts of green values
+     * @param blue long[]: counts of blue values
+     */
+    ColorStatistics(long[] red, long[] green, long[] blue) {
+        mHistograms = new long[][] {red, green, blue};
+        long count = 0;
+        for (long bin : red) {
+            count += bin;
+        }
+        mCount = count;
+    }
+
+    /**
+     * Method to get how many pixels are under the threshold
+     *
+     * @return count long
+     */
+    public long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Method to get the sum of the values of a channel
+     *
+     * @param channel int: {@link #RED}, {@link #GREEN} or {@link #BLUE}
+     * @return sum long
+     */
+    public long getSum(int channel) {
+        long[] histogram = mHistograms[channel];
+        long sum = 0;
+        for (int value = 0; value < histogram.length; value++) {
+            sum += value * histogram[value];
+        }
+        return sum;
+    }
+
+    /**
+     * Method to get the mean of a channel
+     *
+     * @param channel int: {@link #RED}, {@link #GREEN} or {@link #BLUE}
+     * @return mean double, 0 if there are no pixels
+     */
+    public double getMean(int channel) {
+        return mCount == 0 ? 0 : (double) getSum(channel) / mCount;
+    }
+
+    /**
+     * Method to get the variance of a channel
+     *
+     * @param channel int: {@link #RED}, {@link #GREEN} or {@link #BLUE}
+     * @return variance double, 0 if there are no pixels
+     */
+    public double getVariance(int channel) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long[] histogram = mHistograms[channel];
+        double mean = getMean(channel);
+        double squares = 0;
+        for (int value = 0; value < histogram.length; value++) {
+            double deviation = value - mean;
+            squares += deviation * deviation * histogram[value];
+        }
+        return squares / mCount;
+    }
+
+    /**
+     * Method to get the median of a channel, the lower one if the count is even
+     *
+     * @param channel int: {@link #RED}, {@link #GREEN} or {@link #BLUE}
+     * @return median int, 0 if there are no pixels
+     */
+    public int getMedian(int channel) {
+        long[] histogram = mHistograms[channel];
+        long half = (mCount + 1) / 2;
+        long seen = 0;
+        for (int value = 0; value < histogram.length; value++) {
+            seen += histogram[value];
+            if (seen >= half && seen > 0) {
+                return value;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Method to get the mean of a channel leaving out the darkest and brightest pixels, so a
+     * few pixels of glare or shadow don't move the reading
+     *
+     * @param channel int: {@link #RED}, {@link #GREEN} or {@link #BLUE}
+     * @param fraction double: fraction of pixels left out at each end, from 0 to 0.5
+     * @return mean double, the median if nothing is left, 0 if there are no pixels
+     */
+    public double getTrimmedMean(int channel, double fraction) {
+        if (fraction < 0 || fraction > 0.5) {
+            throw new IllegalArgumentException("Trim fraction out of range: " + fraction);
+        }
+        long[] histogram = mHistograms[channel];
+        double low = mCount * fraction;
+        double high = mCount - low;
+        if (high <= low) {
+            return getMedian(channel);
+        }
+
+        //Weight every bin by how much of it falls between the cuts
+        double sum = 0;
+        long before = 0;
+        for (int value = 0; value < histogram.length; value++) {
+            long after = before + histogram[value];
+            double weight = Math.min(after, high) - Math.max(before, low);
+            if (weight > 0) {
+                sum += weight * value;
+            }
+            before = after;
+        }
+        return sum / (high - low);
+    }
+
+    /**
+     * Method to get the same reading {@link ColorAnalyzer#analyze} gives
+     *
+     * @return reading {@link ColorReading}
+     */
+    public ColorReading toReading() {
+        //Same as ColorSums, one extra pixel so nothing under the threshold doesn't divide by zero
+        long totalPixels = mCount + 1;
+        int r = (int) (getSum(RED) / totalPixels);
+        int g = (int) (getSum(GREEN) / totalPixels);
+        int b = (int) (getSum(BLUE) / totalPixels);
+        return new ColorReading(r, g, b, ColorAnalyzer.rgbToHue(r, g, b));
+    }
+
+    /**
+     * Method to get a reading of the median color, which glare spots don't skew
+     *
+     * @return reading {@link ColorReading}
+     */
+    public ColorReading toMedianReading() {
+        int r = getMedian(RED);
+        int g = getMedian(GREEN);
+        int b = getMedian(BLUE);
+        return new ColorReading(r, g, b, ColorAnalyzer.rgbToHue(r, g, b));
+    }
+
+    /**
+     * Method to get a reading of the trimmed mean color
+     *
+     * @param fraction double: fraction of pixels left out at each end, from 0 to 0.5
+     * @return reading {@link ColorReading}
+     */
+    public ColorReading toTrimmedReading(double fraction) {
+        int r = (int) getTrimmedMean(RED, fraction);
+        int g = (int) getTrimmedMean(GREEN, fraction);
+        int b = (int) getTrimmedMean(BLUE, fraction);
+        return new ColorReading(r, g, b, ColorAnalyzer.rgbToHue(r, g, b));
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Sums of the pixels under the threshold.
+ *
+ * Accumulator of the analysis. Sums of different parts of a photo can be merged, in any
+ * order, to get the same sums as scanning the whole photo at once.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class ColorSums {
+
+    //64-bit so big photos and regions can't overflow
+    long red = 0;
+    long green = 0;
+    long blue = 0;
+    long count = 0;
+
+    /**
+     * Method to add the sums of another part of the photo
+     *
+     * @param other {@link ColorSums} to add
+     */
+    public void merge(ColorSums other) {
+        red += other.red;
+        green += other.green;
+        blue += other.blue;
+        count += other.count;
+    }
+
+    /**
+     * Method to get the mean color and hue of the summed pixels
+     *
+     * @return reading {@link ColorReading}
+     */
+    public ColorReading toReading() {
+        //One extra pixel so nothing under the threshold doesn't divide by zero
+        long totalPixels = count + 1;
+        int r = (int) (red / totalPixels);
+        int g = (int) (green / totalPixels);
+        int b = (int) (blue / totalPixels);
+        return new ColorReading(r, g, b, ColorAnalyzer.rgbToHue(r, g, b));
+    }
+}
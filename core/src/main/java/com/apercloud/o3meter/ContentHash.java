@@ -0,0 +1,104 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * Fast 64-bit hash of the bytes of a file, to know if two photos are the same photo without
+ * decoding them.
+ *
+ * Bytes are mixed 8 at a time with the round and finalization of xxHash64, so hashing is
+ * limited by reading the file. It is not a cryptographic hash.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class ContentHash {
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ContentHash() {
+    }
+
+    /**
+     * Method to hash everything left in a stream. The stream is not closed.
+     *
+     * @param in InputStream: bytes to hash
+     * @return hash long
+     * @throws IOException if the stream can't be read
+     * @throws InterruptedException if the thread is interrupted while hashing
+     */
+    public static long of(InputStream in) throws IOException, InterruptedException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long hash = PRIME5;
+        long length = 0;
+        while (true) {
+            //Fill the whole buffer, so only the last one has bytes left after the words
+            int filled = 0;
+            int read = 0;
+            while (filled < buffer.length && (read = in.read(buffer, filled,
+                    buffer.length - filled)) > 0) {
+                filled += read;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int words = filled & ~7;
+            for (int i = 0; i < words; i += 8) {
+                hash ^= round(readLong(buffer, i));
+                hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+            }
+            for (int i = words; i < filled; i++) {
+                hash ^= (buffer[i] & 0xFF) * PRIME5;
+                hash = Long.rotateLeft(hash, 11) * PRIME1;
+            }
+            length += filled;
+            if (read < 0 || filled < buffer.length) {
+                break;
+            }
+        }
+        return avalanche(hash ^ length);
+    }
+
+    private static long round(long word) {
+        return Long.rotateLeft(word * PRIME2, 31) * PRIME1;
+    }
+
+    private static long avalanche(long hash) {
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+        return hash;
+    }
+
+    private static long readLong(byte[] buffer, int i) {
+        return (buffer[i] & 0xFFL) | (buffer[i + 1] & 0xFFL) << 8 |
+                (buffer[i + 2] & 0xFFL) << 16 | (buffer[i + 3] & 0xFFL) << 24 |
+                (buffer[i + 4] & 0xFFL) << 32 | (buffer[i + 5] & 0xFFL) << 40 |
+                (buffer[i + 6] & 0xFFL) << 48 | (buffer[i + 7] & 0xFFL) << 56;
+    }
+}
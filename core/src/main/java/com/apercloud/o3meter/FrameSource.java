@@ -0,0 +1,50 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import java.io.IOException;
+
+
+/**
+ * Source of camera frames, like the camera preview or synthetic frames in tests.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public interface FrameSource {
+
+    /**
+     * Receiver of the frames, called from the thread of the source. The frame and its planes
+     * are only valid during the call.
+     */
+    interface Listener {
+        void onFrame(YuvFrame frame);
+    }
+
+    /**
+     * Method to start sending frames
+     *
+     * @param listener {@link Listener} to send the frames to
+     * @throws IOException if the source can't be started
+     */
+    void start(Listener listener) throws IOException;
+
+    /**
+     * Method to stop sending frames. No frame is sent after it returns.
+     */
+    void stop();
+}
@@ -0,0 +1,267 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Histogram of the hue of every pixel under the threshold, for circular hue statistics.
+ *
+ * Hue is circular, so the hue of the mean color is biased when the pixels are spread around
+ * red, like strips between red and magenta. Here every sampled pixel is given its own hue
+ * with a table over colors quantised to {@link #BITS} bits per channel, built once, so the
+ * scan only reads the table and counts the hue in a histogram of one degree bins, with no
+ * floating point. The sine and cosine sums of the circular mean come from the histogram
+ * afterwards. The color sums are added in the same pass, so the reading keeps the mean color.
+ * Histograms of different parts of a photo can be merged in any order.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class HueHistogram {
+
+    //Bits per channel of the quantised colors of the hue table
+    public static final int BITS = 6;
+    //One degree bins
+    public static final int HUE_BINS = 360;
+
+    private static final int SHIFT = 8 - BITS;
+    //Bin of the quantised shades of gray, which have no hue
+    private static final int GRAY = HUE_BINS;
+    //Hue bin of every quantised color
+    private static final short[] HUE_TABLE = buildHueTable();
+    //Direction of the center of every bin
+    private static final double[] COS = new double[HUE_BINS];
+    private static final double[] SIN = new double[HUE_BINS];
+
+    static {
+        for (int bin = 0; bin < HUE_BINS; bin++) {
+            double angle = Math.toRadians(bin + 0.5);
+            COS[bin] = Math.cos(angle);
+            SIN[bin] = Math.sin(angle);
+        }
+    }
+
+    private final ColorSums mSums = new ColorSums();
+    //Pixels by hue bin, gray ones in the last bin
+    private final long[] mCounts = new long[HUE_BINS + 1];
+
+    /**
+     * Method to add one every {@link ColorAnalyzer#PIXEL_SPACING} pixels from start to end
+     *
+     * @param pixels int[]: ARGB pixels
+     * @param start int: first pixel to add
+     * @param end int: pixel after the last one that can be added
+     */
+    void accumulate(int[] pixels, int start, int end) {
+        short[] hues = HUE_TABLE;
+        long[] counts = mCounts;
+        //int is enough for one row, the totals are kept in long
+        int RED = 0; int GREEN = 0; int BLUE = 0; int totalPixels = 0;
+        for (int i = start; i < end; i += ColorAnalyzer.PIXEL_SPACING) {
+            int color = pixels[i];
+
+            int r = (color >> 16) & 0xFF;
+            int g = (color >> 8) & 0xFF;
+            int b = color & 0xFF;
+            if (r < ColorAnalyzer.THRESHOLD && g < ColorAnalyzer.THRESHOLD &&
+                    b < ColorAnalyzer.THRESHOLD) {
+                RED += r;
+                GREEN += g;
+                BLUE += b;
+                totalPixels++;
+                counts[hues[(r >> SHIFT) << (2 * BITS) | (g >> SHIFT) << BITS |
+                        (b >> SHIFT)]]++;
+            }
+        }
+        mSums.red += RED;
+        mSums.green += GREEN;
+        mSums.blue += BLUE;
+        mSums.count += totalPixels;
+    }
+
+    /**
+     * Method to add a strip of rows of a photo read into a buffer, sampling the pixels
+     * {@link ColorAnalyzer#accumulateStrip} samples
+     *
+     * @param strip int[]: ARGB pixels of the rows, from index 0
+     * @param width int: photo width
+     * @param firstRow int: row of the photo the strip starts at
+     * @param rows int: number of rows in the strip
+     */
+    void accumulateStrip(int[] strip, int width, int firstRow, int rows) {
+        int spacing = ColorAnalyzer.PIXEL_SPACING;
+        for (int i = 0; i < rows; i++) {
+            long photoRowStart = (long) (firstRow + i) * width;
+            int phase = (int) ((spacing - photoRowStart % spacing) % spacing);
+            int rowStart = i * width;
+            accumulate(strip, rowStart + phase, rowStart + width);
+        }
+    }
+
+    /**
+     * Method to add the histogram of another part of the photo
+     *
+     * @param other {@link HueHistogram} to add
+     */
+    public void merge(HueHistogram other) {
+        mSums.merge(other.mSums);
+        for (int bin = 0; bin < mCounts.length; bin++) {
+            mCounts[bin] += other.mCounts[bin];
+        }
+    }
+
+    /**
+     * Method to get the sums of the pixels under the threshold
+     *
+     * @return sums {@link ColorSums}
+     */
+    public ColorSums getSums() {
+        return mSums;
+    }
+
+    /**
+     * Method to get how many pixels under the threshold have a hue, that is, are not shades
+     * of gray
+     *
+     * @return count long
+     */
+    public long getCount() {
+        return mSums.count - mCounts[GRAY];
+    }
+
+    /**
+     * Method to get how many pixels have a hue
+     *
+     * @param bin int: hue from 0 to 359, one degree bins
+     * @return count long
+     */
+    public long getCount(int bin) {
+        return mCounts[bin];
+    }
+
+    /**
+     * Method to get the circular mean of the hue of the pixels
+     *
+     * @return hue double: from 0 to 360, 0 if no pixel has a hue
+     */
+    public double getMeanHue() {
+        double[] sums = directionSums();
+        if (sums[0] == 0 && sums[1] == 0) {
+            return 0;
+        }
+        double hue = Math.toDegrees(Math.atan2(sums[1], sums[0]));
+        return hue < 0 ? hue + 360 : hue;
+    }
+
+    /**
+     * Method to get how concentrated the hue of the pixels is, the length of the mean of
+     * their directions
+     *
+     * @return length double: from 0 (spread all around) to 1 (every pixel the same hue)
+     */
+    public double getResultantLength() {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        double[] sums = directionSums();
+        return Math.min(1, Math.hypot(sums[0], sums[1]) / count);
+    }
+
+    /**
+     * Method to get the sums of the cosine and sine of the hue of the pixels
+     *
+     * @return sums double[]: cosine sum and sine sum
+     */
+    private double[] directionSums() {
+        double cos = 0;
+        double sin = 0;
+        for (int bin = 0; bin < HUE_BINS; bin++) {
+            cos += mCounts[bin] * COS[bin];
+            sin += mCounts[bin] * SIN[bin];
+        }
+        return new double[]{cos, sin};
+    }
+
+    /**
+     * Method to get the circular standard deviation of the hue of the pixels
+     *
+     * @return deviation double: in degrees, infinite if the hue is spread evenly
+     */
+    public double getStandardDeviation() {
+        return Math.toDegrees(Math.sqrt(-2 * Math.log(getResultantLength())));
+    }
+
+    /**
+     * Method to get the most common hue of the pixels
+     *
+     * @return hue int: bin with the most pixels, 0 if no pixel has a hue
+     */
+    public int getModeHue() {
+        int mode = 0;
+        for (int bin = 1; bin < HUE_BINS; bin++) {
+            if (mCounts[bin] > mCounts[mode]) {
+                mode = bin;
+            }
+        }
+        return mode;
+    }
+
+    /**
+     * Method to get a reading of the mean color with the circular mean hue of the pixels
+     *
+     * @return reading {@link ColorReading}
+     */
+    public ColorReading toReading() {
+        ColorReading mean = mSums.toReading();
+        float hue = (float) getMeanHue();
+        if (hue >= 360) {
+            hue = 0;
+        }
+        //Hue 0 means no value, a mean exactly at red still has one
+        if (hue == 0 && getCount() > 0) {
+            hue = Float.MIN_VALUE;
+        }
+        return new ColorReading(mean.getRed(), mean.getGreen(), mean.getBlue(), hue);
+    }
+
+    /**
+     * Method to build the hue bin of every quantised color, from the center of its cell
+     *
+     * @return table short[]: bins indexed by red, green and blue, {@link #BITS} bits each
+     */
+    private static short[] buildHueTable() {
+        int levels = 1 << BITS;
+        int half = (1 << SHIFT) >> 1;
+        short[] table = new short[levels * levels * levels];
+        for (int r = 0; r < levels; r++) {
+            for (int g = 0; g < levels; g++) {
+                for (int b = 0; b < levels; b++) {
+                    int index = r << (2 * BITS) | g << BITS | b;
+                    if (r == g && g == b) {
+                        table[index] = GRAY;
+                    } else {
+                        int hue = (int) ColorAnalyzer.rgbToHue((r << SHIFT) + half,
+                                (g << SHIFT) + half, (b << SHIFT) + half);
+                        table[index] = (short) Math.min(hue, HUE_BINS - 1);
+                    }
+                }
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Native vector kernels of the masked color sums of {@link ColorAnalyzer}.
+ *
+ * The kernels, in the o3meter library built from src/main/cpp, add the same pixels with the
+ * same threshold as {@link ColorAnalyzer#accumulateStrip}, four to sixteen pixels at a time
+ * with SSE2, AVX2 or NEON. When the library can't be loaded, or it is disabled, callers fall
+ * back to {@link ColorAnalyzer}, which stays the reference implementation.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class NativeSums {
+
+    //Kernels, the best one the CPU supports by default
+    public static final int KERNEL_BEST = -1;
+    public static final int KERNEL_SCALAR = 0;
+    public static final int KERNEL_SSE2 = 1;
+    public static final int KERNEL_AVX2 = 2;
+    public static final int KERNEL_NEON = 3;
+
+    private static final boolean AVAILABLE = loadLibrary();
+
+    private static volatile boolean sEnabled = AVAILABLE;
+    private static volatile int sKernel = KERNEL_BEST;
+
+    private NativeSums() {
+    }
+
+    private static boolean loadLibrary() {
+        try {
+            System.loadLibrary("o3meter");
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        } catch (SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Method to know if the native library is loaded
+     *
+     * @return true if the library is loaded
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Method to know if the analysis uses the native kernels
+     *
+     * @return true if they are available and enabled
+     */
+    public static boolean isEnabled() {
+        return AVAILABLE && sEnabled;
+    }
+
+    /**
+     * Method to enable or disable the native kernels
+     *
+     * @param enabled boolean: false to use {@link ColorAnalyzer} even if the library is loaded
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    /**
+     * Method to get the kernel used
+     *
+     * @return kernel, one of the KERNEL_ constants
+     */
+    public static int getKernel() {
+        return sKernel;
+    }
+
+    /**
+     * Method to choose the kernel used. A kernel the CPU can't run makes
+     * {@link #accumulateStrip(int[], int, int, int, ColorSums, long[])} fall back to {@link ColorAnalyzer}.
+     *
+     * @param kernel int: one of the KERNEL_ constants
+     */
+    public static void setKernel(int kernel) {
+        sKernel = kernel;
+    }
+
+    /**
+     * Method to know if a kernel can run on this CPU
+     *
+     * @param kernel int: one of the KERNEL_ constants
+     * @return true if the library is loaded and the CPU supports the kernel
+     */
+    public static boolean isSupported(int kernel) {
+        return AVAILABLE && kernelName(kernel) != null;
+    }
+
+    /**
+     * Method to get the name of the kernel a KERNEL_ constant runs
+     *
+     * @param kernel int: one of the KERNEL_ constants
+     * @return name, as "avx2", or null if the kernel can't run or the library isn't loaded
+     */
+    public static String getKernelName(int kernel) {
+        return AVAILABLE ? kernelName(kernel) : null;
+    }
+
+    /**
+     * Method to add to the sums the rows of a strip of a photo, exactly like
+     * {@link ColorAnalyzer#accumulateStrip}, with the native kernel if it is enabled
+     *
+     * @param strip int[]: ARGB pixels of the rows, one after another
+     * @param width int: photo width
+     * @param firstRow int: row of the photo of the first row of the strip
+     * @param rows int: rows in the strip
+     * @param sums {@link ColorSums} to add to
+     * @param totals long[]: 4 longs the kernel writes the totals of the strip to, owned by the
+     *               caller so strips don't allocate
+     */
+    public static void accumulateStrip(int[] strip, int width, int firstRow, int rows,
+                                       ColorSums sums, long[] totals) {
+        if (!isEnabled() || !accumulateStrip(sKernel, strip, width, firstRow, rows,
+                ColorAnalyzer.PIXEL_SPACING, ColorAnalyzer.THRESHOLD, sums, totals)) {
+            ColorAnalyzer.accumulateStrip(strip, width, firstRow, rows, sums);
+        }
+    }
+
+    /**
+     * Method to add to the sums the rows of a strip with a kernel, spacing and threshold
+     *
+     * @param kernel int: one of the KERNEL_ constants
+     * @param strip int[]: ARGB pixels of the rows, one after another
+     * @param width int: photo width
+     * @param firstRow int: row of the photo of the first row of the strip
+     * @param rows int: rows in the strip
+     * @param spacing int: pixel spacing
+     * @param threshold int: channels must be under it
+     * @param sums {@link ColorSums} to add to
+     * @param totals long[]: 4 longs the kernel writes the totals of the strip to
+     * @return false, leaving the sums untouched, if the kernel can't run
+     */
+    static boolean accumulateStrip(int kernel, int[] strip, int width, int firstRow, int rows,
+                                   int spacing, int threshold, ColorSums sums,
+                                   long[] totals) {
+        if (!AVAILABLE || (long) rows * width > strip.length || totals.length < 4) {
+            return false;
+        }
+        if (!accumulateStrip(kernel, strip, width, firstRow, rows, spacing, threshold, totals)) {
+            return false;
+        }
+        sums.red += totals[0];
+        sums.green += totals[1];
+        sums.blue += totals[2];
+        sums.count += totals[3];
+        return true;
+    }
+
+    private static native boolean accumulateStrip(int kernel, int[] strip, int width,
+                                                  int firstRow, int rows, int spacing,
+                                                  int threshold, long[] totals);
+
+    private static native String kernelName(int kernel);
+}
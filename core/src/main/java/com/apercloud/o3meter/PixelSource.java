@@ -0,0 +1,39 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Pixels of a photo or selection rectangle that can be read a rectangle at a time, like a
+ * bitmap, so they never have to be copied whole.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public interface PixelSource {
+
+    /**
+     * Method to read a rectangle of pixels, row after row, from the start of the buffer
+     *
+     * @param buffer int[]: where the ARGB pixels are stored, width * height of them
+     * @param x int: rectangle left
+     * @param y int: rectangle top
+     * @param width int: rectangle width
+     * @param height int: rectangle height
+     */
+    void getPixels(int[] buffer, int x, int y, int width, int height);
+}
@@ -0,0 +1,99 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Continuous metering of camera frames.
+ *
+ * Every frame of a {@link FrameSource} is analyzed in the thread of the source, as soon as it
+ * arrives, and its reading is given to the listener. Sources drop the frames that arrive
+ * while the previous one is analyzed, so the meter keeps up with the frame rate.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class PreviewMeter implements FrameSource.Listener {
+
+    //Weight of the last frame in the frame rate, to smooth it
+    private static final float FRAME_RATE_SMOOTHING = 0.1f;
+
+    public interface Listener {
+        void onReading(ColorReading reading, long timestamp);
+    }
+
+    private final YuvAnalyzer mAnalyzer = new YuvAnalyzer();
+    private final Listener mListener;
+    private volatile float mLeft = 0;
+    private volatile float mTop = 0;
+    private volatile float mRight = 1;
+    private volatile float mBottom = 1;
+    private long mLastTimestamp = 0;
+    private volatile float mFramesPerSecond = 0;
+
+    /**
+     * Constructor
+     *
+     * @param listener {@link Listener} called from the thread of the source with every reading
+     */
+    public PreviewMeter(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Method to set the part of the frames to analyze, as fractions of the frame size, so it
+     * doesn't depend on the size the source chooses. Default is the whole frame.
+     *
+     * @param left float: from 0 to 1
+     * @param top float: from 0 to 1
+     * @param right float: from 0 to 1
+     * @param bottom float: from 0 to 1
+     */
+    public void setRegion(float left, float top, float right, float bottom) {
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+    }
+
+    /**
+     * Method to know how many frames per second are being analyzed
+     *
+     * @return framesPerSecond float: smoothed frame rate, 0 until two frames are analyzed
+     */
+    public float getFramesPerSecond() {
+        return mFramesPerSecond;
+    }
+
+    @Override
+    public void onFrame(YuvFrame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        ColorReading reading = mAnalyzer.analyze(frame, Math.round(mLeft * width),
+                Math.round(mTop * height), Math.round(mRight * width),
+                Math.round(mBottom * height));
+
+        long timestamp = frame.getTimestamp();
+        if (mLastTimestamp != 0 && timestamp > mLastTimestamp) {
+            float framesPerSecond = 1e9f / (timestamp - mLastTimestamp);
+            mFramesPerSecond = mFramesPerSecond == 0 ? framesPerSecond : mFramesPerSecond +
+                    FRAME_RATE_SMOOTHING * (framesPerSecond - mFramesPerSecond);
+        }
+        mLastTimestamp = timestamp;
+        mListener.onReading(reading, timestamp);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+
+/**
+ * Cache of analysis results, kept between runs of the app.
+ *
+ * Results are keyed by the {@link ContentHash} of the photo, the analyzed region and the
+ * analysis parameters, so a photo opened again gets its reading without decoding or scanning
+ * it, and changing the analysis never returns old readings. When the cache is full the least
+ * recently used result is evicted.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class ResultCache {
+
+    //Changes when the file format or the analysis change, dropping cached results
+    static final int VERSION = 1;
+
+    private final int mMaxEntries;
+    private final LinkedHashMap<String, ColorReading> mEntries;
+    private boolean mDirty = false;
+
+    /**
+     * Constructor
+     *
+     * @param maxEntries int: maximum number of results kept
+     */
+    public ResultCache(final int maxEntries) {
+        mMaxEntries = maxEntries;
+        //Access order, so the eldest entry is the least recently used
+        mEntries = new LinkedHashMap<String, ColorReading>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ColorReading> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    /**
+     * Method to get the key of the reading of a whole photo. The photo is analyzed subsampled
+     * to the display size, so the size is part of the key.
+     *
+     * @param contentHash long: {@link ContentHash} of the photo file
+     * @param reqWidth int: width the photo was decoded for
+     * @param reqHeight int: height the photo was decoded for
+     * @return key String
+     */
+    public static String photoKey(long contentHash, int reqWidth, int reqHeight) {
+        return String.format(Locale.US, "%016x/photo/%dx%d/%d/%d", contentHash, reqWidth,
+                reqHeight, ColorAnalyzer.THRESHOLD, ColorAnalyzer.PIXEL_SPACING);
+    }
+
+    /**
+     * Method to get the key of the reading of a region of a photo
+     *
+     * @param contentHash long: {@link ContentHash} of the photo file
+     * @param left int: region left in original image coordinates
+     * @param top int: region top in original image coordinates
+     * @param right int: region right in original image coordinates
+     * @param bottom int: region bottom in original image coordinates
+     * @return key String
+     */
+    public static String regionKey(long contentHash, int left, int top, int right,
+                                   int bottom) {
+        return String.format(Locale.US, "%016x/region/%d,%d,%d,%d/%d/%d", contentHash, left,
+                top, right, bottom, ColorAnalyzer.THRESHOLD, ColorAnalyzer.PIXEL_SPACING);
+    }
+
+    /**
+     * Method to get a cached reading, making it the most recently used
+     *
+     * @param key String: key of the reading
+     * @return reading {@link ColorReading}, null if it is not cached
+     */
+    public synchronized ColorReading get(String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * Method to cache a reading
+     *
+     * @param key String: key of the reading
+     * @param reading {@link ColorReading} to cache
+     */
+    public synchronized void put(String key, ColorReading reading) {
+        mEntries.put(key, reading);
+        mDirty = true;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Method to read the results saved by {@link #save}. Results read are older than the
+     * ones already cached. A missing, old or damaged file leaves the cache as it is.
+     *
+     * @param file File: cache file
+     */
+    public void load(File file) {
+        List<String> keys = new ArrayList<>();
+        List<ColorReading> readings = new ArrayList<>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                //Added only once the whole entry is read, so a cut file keeps them paired
+                String key = in.readUTF();
+                ColorReading reading = new ColorReading(in.readInt(), in.readInt(),
+                        in.readInt(), in.readFloat());
+                keys.add(key);
+                readings.add(reading);
+            }
+        } catch (IOException e) {
+            //Nothing to load, or only the entries read before the damage
+        } finally {
+            closeQuietly(in);
+        }
+
+        synchronized (this) {
+            LinkedHashMap<String, ColorReading> newer = new LinkedHashMap<>(mEntries);
+            mEntries.clear();
+            for (int i = Math.max(0, keys.size() - mMaxEntries); i < keys.size(); i++) {
+                mEntries.put(keys.get(i), readings.get(i));
+            }
+            mEntries.putAll(newer);
+        }
+    }
+
+    /**
+     * Method to save the results, from least to most recently used, if they changed since
+     * they were last saved. The file is replaced only once it is completely written.
+     *
+     * @param file File: cache file
+     * @throws IOException if the file can't be written
+     */
+    public void save(File file) throws IOException {
+        List<Map.Entry<String, ColorReading>> entries;
+        synchronized (this) {
+            if (!mDirty) {
+                return;
+            }
+            entries = new ArrayList<Map.Entry<String, ColorReading>>(mEntries.entrySet());
+            mDirty = false;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)));
+        try {
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, ColorReading> entry : entries) {
+                ColorReading reading = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(reading.getRed());
+                out.writeInt(reading.getGreen());
+                out.writeInt(reading.getBlue());
+                out.writeFloat(reading.getHue());
+            }
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            synchronized (this) {
+                mDirty = true;
+            }
+            throw new IOException("Can't replace " + file);
+        }
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
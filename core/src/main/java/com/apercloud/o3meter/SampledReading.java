@@ -0,0 +1,89 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Reading of an {@link AdaptiveSampler}, with how much of the photo it took.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class SampledReading {
+
+    private final ColorReading mReading;
+    private final long mSamples;
+    private final long mPixels;
+    private final int mRounds;
+    private final boolean mConverged;
+
+    /**
+     * Constructor
+     *
+     * @param reading {@link ColorReading}: result
+     * @param samples long: pixels read
+     * @param pixels long: pixels of the photo or selection rectangle
+     * @param rounds int: sampling rounds done
+     * @param converged boolean: <code>true</code> if the mean got stable before the last
+     *                  round, <code>false</code> if the photo was scanned as usual
+     */
+    SampledReading(ColorReading reading, long samples, long pixels, int rounds,
+                   boolean converged) {
+        mReading = reading;
+        mSamples = samples;
+        mPixels = pixels;
+        mRounds = rounds;
+        mConverged = converged;
+    }
+
+    public ColorReading getReading() {
+        return mReading;
+    }
+
+    public long getSamples() {
+        return mSamples;
+    }
+
+    public long getPixels() {
+        return mPixels;
+    }
+
+    public int getRounds() {
+        return mRounds;
+    }
+
+    public boolean isConverged() {
+        return mConverged;
+    }
+
+    /**
+     * Method to get the part of the photo that was read
+     *
+     * @return fraction float: samples over pixels, above 1/{@link ColorAnalyzer#PIXEL_SPACING}
+     *         if the photo had to be scanned
+     */
+    public float getSampledFraction() {
+        return mPixels == 0 ? 0 : (float) mSamples / mPixels;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(java.util.Locale.US, "%d of %d pixels (%.2f%%) in %d rounds%s",
+                mSamples, mPixels, 100f * getSampledFraction(), mRounds,
+                mConverged ? "" : ", not converged");
+    }
+}
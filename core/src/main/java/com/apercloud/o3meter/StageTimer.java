@@ -0,0 +1,155 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+
+/**
+ * Durations of one stage of the analysis, like decoding or scanning.
+ *
+ * The last samples are kept in a ring buffer of fixed size, so recording a duration is a
+ * couple of array writes and never allocates. Percentiles sort a copy of the samples, which
+ * is only done when they are shown or exported. Timers can be recorded from any thread.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class StageTimer {
+
+    //Default samples kept per stage
+    public static final int DEFAULT_CAPACITY = 256;
+
+    static final String CSV_HEADER = "device,stage,sample,ms";
+
+    private final String mName;
+    private final long[] mSamples;
+    private long mCount = 0;
+
+    /**
+     * Constructor
+     *
+     * @param name String: name of the stage
+     * @param capacity int: samples kept, older ones are dropped
+     */
+    public StageTimer(String name, int capacity) {
+        mName = name;
+        mSamples = new long[capacity];
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Method to add a duration of the stage
+     *
+     * @param nanos long: duration in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        mSamples[(int) (mCount % mSamples.length)] = nanos;
+        mCount++;
+    }
+
+    /**
+     * Method to get how many durations were recorded, including the dropped ones
+     *
+     * @return count long
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Method to get the last duration
+     *
+     * @return nanos long: last duration in nanoseconds, 0 if none was recorded
+     */
+    public synchronized long getLatest() {
+        return mCount == 0 ? 0 : mSamples[(int) ((mCount - 1) % mSamples.length)];
+    }
+
+    /**
+     * Method to get the kept durations, from oldest to newest
+     *
+     * @return samples long[]: durations in nanoseconds
+     */
+    public synchronized long[] getSamples() {
+        int kept = (int) Math.min(mCount, mSamples.length);
+        long[] samples = new long[kept];
+        long first = mCount - kept;
+        for (int i = 0; i < kept; i++) {
+            samples[i] = mSamples[(int) ((first + i) % mSamples.length)];
+        }
+        return samples;
+    }
+
+    /**
+     * Method to get a percentile of the kept durations, nearest-rank
+     *
+     * @param percent double: percentile from 0 to 100
+     * @return nanos long: duration in nanoseconds, 0 if none was recorded
+     */
+    public long percentile(double percent) {
+        long[] samples = getSamples();
+        if (samples.length == 0) {
+            return 0;
+        }
+        Arrays.sort(samples);
+        int rank = (int) Math.ceil(percent / 100 * samples.length);
+        return samples[Math.max(0, Math.min(samples.length - 1, rank - 1))];
+    }
+
+    /**
+     * Method to forget every recorded duration
+     */
+    public synchronized void clear() {
+        mCount = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%-12s %7.1f %7.1f %7.1f ms  n=%d", mName,
+                getLatest() / 1e6, percentile(50) / 1e6, percentile(90) / 1e6, getCount());
+    }
+
+    /**
+     * Method to write the kept durations of some stages as CSV, one row per sample, so files
+     * of several devices can be joined and compared
+     *
+     * @param out Writer: where to write
+     * @param device String: device the durations were measured on
+     * @param timers {@link StageTimer}: stages to write
+     * @throws IOException if writing fails
+     */
+    public static void writeCsv(Writer out, String device, StageTimer... timers)
+            throws IOException {
+        String quoted = "\"" + device.replace("\"", "\"\"") + "\"";
+        out.write(CSV_HEADER);
+        out.write('\n');
+        for (StageTimer timer : timers) {
+            long[] samples = timer.getSamples();
+            for (int i = 0; i < samples.length; i++) {
+                out.write(String.format(Locale.US, "%s,%s,%d,%.3f\n", quoted, timer.getName(),
+                        i, samples[i] / 1e6));
+            }
+        }
+    }
+}
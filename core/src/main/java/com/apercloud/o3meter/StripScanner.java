@@ -0,0 +1,289 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Color analysis of a {@link PixelSource} in strips of rows.
+ *
+ * The rows are read a strip at a time into a single buffer that is reused for every strip
+ * and every analysis, so the memory used doesn't depend on the size of the photo or the
+ * selection rectangle. Readings are exactly the ones of {@link ColorAnalyzer#analyze} over
+ * the same pixels, added with the {@link NativeSums} kernels when they are available. A
+ * scanner must only be used from one thread.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class StripScanner {
+
+    //Default buffer size, 256 KB, enough rows per strip to make reading them cheap
+    public static final int DEFAULT_STRIP_PIXELS = 64 * 1024;
+
+    private final int mStripPixels;
+    private int[] mBuffer = new int[0];
+    //Totals of a strip from the native kernels, reused like the buffer
+    private final long[] mTotals = new long[4];
+
+    /**
+     * Constructor
+     *
+     * @param stripPixels int: pixels per strip. Strips are one row at least, so wider photos
+     *                    use a buffer of one row.
+     */
+    public StripScanner(int stripPixels) {
+        mStripPixels = stripPixels;
+    }
+
+    /**
+     * Method to wrap a pixel array as a source
+     *
+     * @param pixels int[]: ARGB pixels
+     * @param width int: photo width
+     * @return source {@link PixelSource}
+     */
+    public static PixelSource wrap(final int[] pixels, final int width) {
+        return new PixelSource() {
+            @Override
+            public void getPixels(int[] buffer, int x, int y, int w, int h) {
+                for (int row = 0; row < h; row++) {
+                    System.arraycopy(pixels, (y + row) * width + x, buffer, row * w, w);
+                }
+            }
+        };
+    }
+
+    /**
+     * Method to analyze pixels and get mean color and hue
+     *
+     * @param source {@link PixelSource}: photo or selection rectangle
+     * @param width int: photo width
+     * @param height int: photo height
+     * @return reading {@link ColorReading}
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public ColorReading analyze(PixelSource source, int width, int height)
+            throws InterruptedException {
+        ColorSums sums = new ColorSums();
+        accumulateRows(source, width, 0, height, sums);
+        return sums.toReading();
+    }
+
+    /**
+     * Method to get the hue histogram of the pixels, with their sums
+     *
+     * @param source {@link PixelSource}: photo or selection rectangle
+     * @param width int: photo width
+     * @param height int: photo height
+     * @return histogram {@link HueHistogram}
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public HueHistogram hueHistogram(PixelSource source, int width, int height)
+            throws InterruptedException {
+        HueHistogram histogram = new HueHistogram();
+        hueHistogramRows(source, width, 0, height, histogram);
+        return histogram;
+    }
+
+    /**
+     * Method to add to a hue histogram the rows of a photo from firstRow to endRow, sampling
+     * the pixels {@link #accumulateRows} samples
+     *
+     * @param source {@link PixelSource}: photo or selection rectangle
+     * @param width int: photo width
+     * @param firstRow int: first row to add
+     * @param endRow int: row after the last row to add
+     * @param histogram {@link HueHistogram} to add to
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public void hueHistogramRows(PixelSource source, int width, int firstRow, int endRow,
+                                 HueHistogram histogram) throws InterruptedException {
+        if (width < 1) {
+            return;
+        }
+        int stripRows = Math.max(1, mStripPixels / width);
+        int[] buffer = buffer(stripRows * width);
+        for (int row = firstRow; row < endRow; row += stripRows) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int rows = Math.min(stripRows, endRow - row);
+            source.getPixels(buffer, 0, row, width, rows);
+            histogram.accumulateStrip(buffer, width, row, rows);
+        }
+    }
+
+    /**
+     * Method to get the histogram of the pixels
+     *
+     * @param source {@link PixelSource}: photo or selection rectangle
+     * @param width int: photo width
+     * @param height int: photo height
+     * @param maxThreshold int: highest threshold statistics will be asked for, up to 256
+     * @return histogram {@link ColorHistogram}
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public ColorHistogram histogram(PixelSource source, int width, int height,
+                                    int maxThreshold) throws InterruptedException {
+        ColorHistogram histogram = new ColorHistogram(maxThreshold);
+        histogramRows(source, width, 0, height, histogram);
+        return histogram;
+    }
+
+    /**
+     * Method to add to a histogram the rows of a photo from firstRow to endRow, sampling the
+     * pixels {@link #accumulateRows} samples
+     *
+     * @param source {@link PixelSource}: photo or selection rectangle
+     * @param width int: photo width
+     * @param firstRow int: first row to add
+     * @param endRow int: row after the last row to add
+     * @param histogram {@link ColorHistogram} to add to
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public void histogramRows(PixelSource source, int width, int firstRow, int endRow,
+                              ColorHistogram histogram) throws InterruptedException {
+        if (width < 1) {
+            return;
+        }
+        int stripRows = Math.max(1, mStripPixels / width);
+        int[] buffer = buffer(stripRows * width);
+        for (int row = firstRow; row < endRow; row += stripRows) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int rows = Math.min(stripRows, endRow - row);
+            source.getPixels(buffer, 0, row, width, rows);
+            histogram.accumulateStrip(buffer, width, row, rows);
+        }
+    }
+
+    /**
+     * Method to add to the sums the rows of a photo from firstRow to endRow, sampling the
+     * pixels {@link ColorAnalyzer#accumulateRows} samples
+     *
+     * @param source {@link PixelSource}: photo or selection rectangle
+     * @param width int: photo width
+     * @param firstRow int: first row to add
+     * @param endRow int: row after the last row to add
+     * @param sums {@link ColorSums} to add to
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public void accumulateRows(PixelSource source, int width, int firstRow, int endRow,
+                               ColorSums sums) throws InterruptedException {
+        if (width < 1) {
+            return;
+        }
+        int stripRows = Math.max(1, mStripPixels / width);
+        int[] buffer = buffer(stripRows * width);
+        for (int row = firstRow; row < endRow; row += stripRows) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int rows = Math.min(stripRows, endRow - row);
+            source.getPixels(buffer, 0, row, width, rows);
+            NativeSums.accumulateStrip(buffer, width, row, rows, sums, mTotals);
+        }
+    }
+
+    /**
+     * Method to analyze several regions of a photo in a single scan. The rows under the
+     * regions are read once, also where regions overlap, and every region gets exactly the
+     * reading {@link #analyze} gives for its pixels alone.
+     *
+     * @param source {@link PixelSource}: photo
+     * @param regions int[]: left, top, right and bottom of every region, inside the photo
+     * @return readings {@link ColorReading}[]: one per region, in the same order
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public ColorReading[] analyzeRegions(PixelSource source, int[] regions)
+            throws InterruptedException {
+        ColorSums[] sums = new ColorSums[regions.length / 4];
+        for (int i = 0; i < sums.length; i++) {
+            sums[i] = new ColorSums();
+        }
+        accumulateRegions(source, regions, sums);
+        ColorReading[] readings = new ColorReading[sums.length];
+        for (int i = 0; i < sums.length; i++) {
+            readings[i] = sums[i].toReading();
+        }
+        return readings;
+    }
+
+    /**
+     * Method to add to the sums of every region its pixels, reading the strips of rows of
+     * the box around all of them once
+     *
+     * @param source {@link PixelSource}: photo
+     * @param regions int[]: left, top, right and bottom of every region, inside the photo
+     * @param sums {@link ColorSums}[]: sums of every region to add to
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public void accumulateRegions(PixelSource source, int[] regions, ColorSums[] sums)
+            throws InterruptedException {
+        //Box around the regions that have pixels
+        int left = Integer.MAX_VALUE; int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE; int bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < sums.length; i++) {
+            if (regions[4 * i + 2] > regions[4 * i] && regions[4 * i + 3] > regions[4 * i + 1]) {
+                left = Math.min(left, regions[4 * i]);
+                top = Math.min(top, regions[4 * i + 1]);
+                right = Math.max(right, regions[4 * i + 2]);
+                bottom = Math.max(bottom, regions[4 * i + 3]);
+            }
+        }
+        if (right <= left) {
+            return;
+        }
+        int width = right - left;
+        int stripRows = Math.max(1, mStripPixels / width);
+        int[] buffer = buffer(stripRows * width);
+        for (int row = top; row < bottom; row += stripRows) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            int endRow = Math.min(bottom, row + stripRows);
+            boolean read = false;
+            for (int i = 0; i < sums.length; i++) {
+                int regionLeft = regions[4 * i];
+                int regionTop = regions[4 * i + 1];
+                int regionWidth = regions[4 * i + 2] - regionLeft;
+                int first = Math.max(row, regionTop);
+                int end = Math.min(endRow, regions[4 * i + 3]);
+                if (regionWidth < 1 || first >= end) {
+                    continue;
+                }
+                //Strips between the regions are not read
+                if (!read) {
+                    source.getPixels(buffer, left, row, width, endRow - row);
+                    read = true;
+                }
+                for (int y = first; y < end; y++) {
+                    ColorAnalyzer.accumulateRegionRow(buffer, (y - row) * width +
+                            regionLeft - left, regionWidth, y - regionTop, sums[i]);
+                }
+            }
+        }
+    }
+
+    private int[] buffer(int size) {
+        if (mBuffer.length < size) {
+            mBuffer = new int[Math.max(size, mStripPixels)];
+        }
+        return mBuffer;
+    }
+}
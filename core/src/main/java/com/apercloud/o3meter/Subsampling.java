@@ -0,0 +1,71 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Subsampling of photos for analysis.
+ *
+ * Photos are analyzed with as many pixels as needed for a stable reading, not with all the
+ * megapixels of the camera. The app and the batch runner decode photos with the same
+ * subsampling so they read the same values.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class Subsampling {
+
+    //Pixels the analysis needs to give a stable reading (about 700k sampled pixels)
+    public static final int ANALYSIS_PIXEL_BUDGET = 2 * 1024 * 1024;
+    //Memory of a photo being analyzed: decoded with about twice the pixel budget. Pixels are
+    //read in strips, so there is no copy of them
+    public static final long BYTES_PER_ANALYZED_PHOTO = 2L * ANALYSIS_PIXEL_BUDGET * 4;
+
+    private Subsampling() {
+    }
+
+    /**
+     * Method to calculate the largest power of 2 subsampling that keeps the photo at least as
+     * big as the required size and with at least the pixels the analysis needs. Sizes are
+     * compared side by side (long with long, short with short) so photos are not decoded
+     * bigger just because the camera was rotated.
+     *
+     * @param width int: photo width
+     * @param height int: photo height
+     * @param reqWidth int: required width
+     * @param reqHeight int: required height
+     * @param pixelBudget int: required number of pixels
+     * @return inSampleSize int: 1, 2, 4...
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight,
+                                            int pixelBudget) {
+        int longSide = Math.max(width, height);
+        int shortSide = Math.min(width, height);
+        int reqLongSide = Math.max(reqWidth, reqHeight);
+        int reqShortSide = Math.min(reqWidth, reqHeight);
+        int inSampleSize = 1;
+        while (true) {
+            int halfLong = longSide / (inSampleSize * 2);
+            int halfShort = shortSide / (inSampleSize * 2);
+            if (halfLong < reqLongSide || halfShort < reqShortSide ||
+                    (long) halfLong * halfShort < pixelBudget) {
+                return inSampleSize;
+            }
+            inSampleSize *= 2;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+
+/**
+ * Grid of tiles of a photo at every sample level.
+ *
+ * A zoomed photo is drawn from tiles decoded from the original image, only as sharp as the
+ * screen can show: at sample size s a tile covers s times the tile size of original pixels
+ * and is decoded with inSampleSize s, so every tile has about the same number of pixels at
+ * any zoom. Tiles are in original image coordinates, before the EXIF orientation.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class TileGrid {
+
+    //Pixels per side of a decoded tile, 1 MB tiles
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private final int mSourceWidth;
+    private final int mSourceHeight;
+    private final int mTileSize;
+
+    /**
+     * Constructor
+     *
+     * @param sourceWidth int: width of the original image
+     * @param sourceHeight int: height of the original image
+     * @param tileSize int: pixels per side of a decoded tile
+     */
+    public TileGrid(int sourceWidth, int sourceHeight, int tileSize) {
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        mTileSize = tileSize;
+    }
+
+    public int getSourceWidth() {
+        return mSourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return mSourceHeight;
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    /**
+     * Method to calculate the sample size of the tiles for a zoom: the largest power of 2
+     * that is not more original pixels per screen pixel than the zoom shows, so tiles are
+     * never blurrier than the screen
+     *
+     * @param sourcePixelsPerScreenPixel float: original image pixels under a screen pixel
+     * @return sampleSize int: 1, 2, 4...
+     */
+    public static int sampleSize(float sourcePixelsPerScreenPixel) {
+        int sampleSize = 1;
+        while (sampleSize <= (1 << 29) && sampleSize * 2 <= sourcePixelsPerScreenPixel) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Method to get the original image pixels per side of a tile
+     *
+     * @param sampleSize int: sample size of the tiles
+     * @return size int
+     */
+    public int getTileSourceSize(int sampleSize) {
+        return mTileSize * sampleSize;
+    }
+
+    /**
+     * Method to get the number of columns of tiles
+     *
+     * @param sampleSize int: sample size of the tiles
+     * @return columns int
+     */
+    public int getColumns(int sampleSize) {
+        return divideRoundingUp(mSourceWidth, getTileSourceSize(sampleSize));
+    }
+
+    /**
+     * Method to get the number of rows of tiles
+     *
+     * @param sampleSize int: sample size of the tiles
+     * @return rows int
+     */
+    public int getRows(int sampleSize) {
+        return divideRoundingUp(mSourceHeight, getTileSourceSize(sampleSize));
+    }
+
+    /**
+     * Method to get the column of tiles of an original image x coordinate, clamped to the
+     * columns of the image
+     *
+     * @param sampleSize int: sample size of the tiles
+     * @param x float: x coordinate in the original image
+     * @return column int
+     */
+    public int getColumn(int sampleSize, float x) {
+        return clamp((int) Math.floor(x / getTileSourceSize(sampleSize)), getColumns(sampleSize));
+    }
+
+    /**
+     * Method to get the row of tiles of an original image y coordinate, clamped to the rows
+     * of the image
+     *
+     * @param sampleSize int: sample size of the tiles
+     * @param y float: y coordinate in the original image
+     * @return row int
+     */
+    public int getRow(int sampleSize, float y) {
+        return clamp((int) Math.floor(y / getTileSourceSize(sampleSize)), getRows(sampleSize));
+    }
+
+    public int getTileLeft(int sampleSize, int column) {
+        return column * getTileSourceSize(sampleSize);
+    }
+
+    public int getTileTop(int sampleSize, int row) {
+        return row * getTileSourceSize(sampleSize);
+    }
+
+    /**
+     * Method to get the right edge of a tile, the edge of the image for the last column
+     *
+     * @param sampleSize int: sample size of the tiles
+     * @param column int: column of the tile
+     * @return right int: x coordinate in the original image
+     */
+    public int getTileRight(int sampleSize, int column) {
+        return Math.min(mSourceWidth, (column + 1) * getTileSourceSize(sampleSize));
+    }
+
+    /**
+     * Method to get the bottom edge of a tile, the edge of the image for the last row
+     *
+     * @param sampleSize int: sample size of the tiles
+     * @param row int: row of the tile
+     * @return bottom int: y coordinate in the original image
+     */
+    public int getTileBottom(int sampleSize, int row) {
+        return Math.min(mSourceHeight, (row + 1) * getTileSourceSize(sampleSize));
+    }
+
+    /**
+     * Method to get the width of a decoded tile, smaller for the last column
+     *
+     * @param sampleSize int: sample size of the tiles
+     * @param column int: column of the tile
+     * @return width int: width of the tile bitmap
+     */
+    public int getTileWidth(int sampleSize, int column) {
+        return divideRoundingUp(getTileRight(sampleSize, column) -
+                getTileLeft(sampleSize, column), sampleSize);
+    }
+
+    /**
+     * Method to get the height of a decoded tile, smaller for the last row
+     *
+     * @param sampleSize int: sample size of the tiles
+     * @param row int: row of the tile
+     * @return height int: height of the tile bitmap
+     */
+    public int getTileHeight(int sampleSize, int row) {
+        return divideRoundingUp(getTileBottom(sampleSize, row) -
+                getTileTop(sampleSize, row), sampleSize);
+    }
+
+    /**
+     * Method to get a key that identifies a tile of the photo at any sample size
+     *
+     * @param sampleSize int: sample size of the tile, a power of 2
+     * @param column int: column of the tile
+     * @param row int: row of the tile
+     * @return key long
+     */
+    public static long key(int sampleSize, int column, int row) {
+        return ((long) Integer.numberOfTrailingZeros(sampleSize) << 48) |
+                ((long) column << 24) | row;
+    }
+
+    private static int divideRoundingUp(int size, int tileSize) {
+        return (size + tileSize - 1) / tileSize;
+    }
+
+    private static int clamp(int index, int count) {
+        return Math.max(0, Math.min(index, count - 1));
+    }
+}
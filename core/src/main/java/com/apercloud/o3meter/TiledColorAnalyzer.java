@@ -0,0 +1,289 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Parallel color analysis of photo pixels.
+ *
+ * The photo is split in bands of rows that are scanned at the same time in an executor, and
+ * the sums or histograms of every band are merged in order. Readings are exactly the ones of
+ * {@link ColorAnalyzer#analyze}. Photos smaller than the cutoff are scanned sequentially, as
+ * splitting them costs more than it saves. Photos given as a {@link PixelSource} are read in
+ * strips, with one {@link StripScanner} buffer per thread.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public class TiledColorAnalyzer {
+
+    //Default number of pixels under which photos are scanned sequentially
+    public static final int DEFAULT_SEQUENTIAL_CUTOFF = 256 * 1024;
+
+    //Bands per thread, so threads that finish early can take more work
+    private static final int BANDS_PER_THREAD = 4;
+
+    private final ExecutorService mExecutor;
+    private final int mParallelism;
+    private final int mSequentialCutoff;
+
+    //Strip buffer of every thread that scans a pixel source
+    private final ThreadLocal<StripScanner> mScanners = new ThreadLocal<StripScanner>() {
+        @Override
+        protected StripScanner initialValue() {
+            return new StripScanner(StripScanner.DEFAULT_STRIP_PIXELS);
+        }
+    };
+
+    /**
+     * Constructor
+     *
+     * @param executor ExecutorService: where bands are scanned
+     * @param parallelism int: number of threads of the executor used for scanning
+     * @param sequentialCutoff int: number of pixels under which photos are scanned sequentially
+     */
+    public TiledColorAnalyzer(ExecutorService executor, int parallelism, int sequentialCutoff) {
+        mExecutor = executor;
+        mParallelism = parallelism;
+        mSequentialCutoff = sequentialCutoff;
+    }
+
+    /**
+     * Method to analyze pixels and get mean color and hue
+     *
+     * @param pixels int[]: ARGB pixels of the photo or selection rectangle
+     * @param width int: photo width
+     * @param height int: photo height
+     * @return reading {@link ColorReading}
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public ColorReading analyze(final int[] pixels, final int width, int height)
+            throws InterruptedException {
+        if (mParallelism <= 1 || (long) width * height < mSequentialCutoff) {
+            return ColorAnalyzer.analyze(pixels, width * height);
+        }
+
+        List<ColorSums> bands = scanBands(height, mParallelism * BANDS_PER_THREAD,
+                new Band<ColorSums>() {
+                    @Override
+                    public ColorSums scan(int firstRow, int endRow)
+                            throws InterruptedException {
+                        ColorSums sums = new ColorSums();
+                        ColorAnalyzer.accumulateRows(pixels, width, firstRow, endRow, sums);
+                        return sums;
+                    }
+                });
+        ColorSums total = new ColorSums();
+        for (ColorSums sums : bands) {
+            total.merge(sums);
+        }
+        return total.toReading();
+    }
+
+    /**
+     * Method to analyze pixels read in strips and get mean color and hue, without copying the
+     * whole photo
+     *
+     * @param source {@link PixelSource}: photo or selection rectangle
+     * @param width int: photo width
+     * @param height int: photo height
+     * @return reading {@link ColorReading}
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public ColorReading analyze(final PixelSource source, final int width, int height)
+            throws InterruptedException {
+        if (mParallelism <= 1 || (long) width * height < mSequentialCutoff) {
+            return mScanners.get().analyze(source, width, height);
+        }
+
+        List<ColorSums> bands = scanBands(height, mParallelism * BANDS_PER_THREAD,
+                new Band<ColorSums>() {
+                    @Override
+                    public ColorSums scan(int firstRow, int endRow)
+                            throws InterruptedException {
+                        ColorSums sums = new ColorSums();
+                        mScanners.get().accumulateRows(source, width, firstRow, endRow, sums);
+                        return sums;
+                    }
+                });
+        ColorSums total = new ColorSums();
+        for (ColorSums sums : bands) {
+            total.merge(sums);
+        }
+        return total.toReading();
+    }
+
+    /**
+     * Method to get the hue histogram of pixels read in strips, with their sums
+     *
+     * @param source {@link PixelSource}: photo or selection rectangle
+     * @param width int: photo width
+     * @param height int: photo height
+     * @return histogram {@link HueHistogram}
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public HueHistogram hueHistogram(final PixelSource source, final int width, int height)
+            throws InterruptedException {
+        if (mParallelism <= 1 || (long) width * height < mSequentialCutoff) {
+            return mScanners.get().hueHistogram(source, width, height);
+        }
+
+        List<HueHistogram> bands = scanBands(height, mParallelism * BANDS_PER_THREAD,
+                new Band<HueHistogram>() {
+                    @Override
+                    public HueHistogram scan(int firstRow, int endRow)
+                            throws InterruptedException {
+                        HueHistogram histogram = new HueHistogram();
+                        mScanners.get().hueHistogramRows(source, width, firstRow, endRow,
+                                histogram);
+                        return histogram;
+                    }
+                });
+        HueHistogram total = new HueHistogram();
+        for (HueHistogram histogram : bands) {
+            total.merge(histogram);
+        }
+        return total;
+    }
+
+    /**
+     * Method to get the histogram of the pixels. Histograms are much bigger than sums, so
+     * there is a single band per thread.
+     *
+     * @param pixels int[]: ARGB pixels of the photo or selection rectangle
+     * @param width int: photo width
+     * @param height int: photo height
+     * @param maxThreshold int: highest threshold statistics will be asked for, up to 256
+     * @return histogram {@link ColorHistogram}
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public ColorHistogram histogram(final int[] pixels, final int width, int height,
+                                    final int maxThreshold) throws InterruptedException {
+        if (mParallelism <= 1 || (long) width * height < mSequentialCutoff) {
+            return ColorAnalyzer.histogram(pixels, width * height, maxThreshold);
+        }
+
+        List<ColorHistogram> bands = scanBands(height, mParallelism,
+                new Band<ColorHistogram>() {
+                    @Override
+                    public ColorHistogram scan(int firstRow, int endRow)
+                            throws InterruptedException {
+                        ColorHistogram histogram = new ColorHistogram(maxThreshold);
+                        ColorAnalyzer.histogramRows(pixels, width, firstRow, endRow, histogram);
+                        return histogram;
+                    }
+                });
+        ColorHistogram total = bands.get(0);
+        for (int i = 1; i < bands.size(); i++) {
+            total.merge(bands.get(i));
+        }
+        return total;
+    }
+
+    /**
+     * Method to get the histogram of the pixels, reading them in strips. Histograms are much
+     * bigger than sums, so there is a single band per thread.
+     *
+     * @param source {@link PixelSource}: photo or selection rectangle
+     * @param width int: photo width
+     * @param height int: photo height
+     * @param maxThreshold int: highest threshold statistics will be asked for, up to 256
+     * @return histogram {@link ColorHistogram}
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    public ColorHistogram histogram(final PixelSource source, final int width, int height,
+                                    final int maxThreshold) throws InterruptedException {
+        if (mParallelism <= 1 || (long) width * height < mSequentialCutoff) {
+            return mScanners.get().histogram(source, width, height, maxThreshold);
+        }
+
+        List<ColorHistogram> bands = scanBands(height, mParallelism,
+                new Band<ColorHistogram>() {
+                    @Override
+                    public ColorHistogram scan(int firstRow, int endRow)
+                            throws InterruptedException {
+                        ColorHistogram histogram = new ColorHistogram(maxThreshold);
+                        mScanners.get().histogramRows(source, width, firstRow, endRow,
+                                histogram);
+                        return histogram;
+                    }
+                });
+        ColorHistogram total = bands.get(0);
+        for (int i = 1; i < bands.size(); i++) {
+            total.merge(bands.get(i));
+        }
+        return total;
+    }
+
+    /**
+     * Scan of a band of rows
+     */
+    private interface Band<T> {
+        T scan(int firstRow, int endRow) throws InterruptedException;
+    }
+
+    /**
+     * Method to scan the photo in bands in the executor
+     *
+     * @param height int: photo height
+     * @param maxBands int: number of bands, if the photo has that many rows
+     * @param band Band: scan of every band
+     * @return results List: result of every band, in band order so merging them never depends
+     *         on scheduling
+     * @throws InterruptedException if the thread is interrupted while analyzing
+     */
+    private <T> List<T> scanBands(int height, int maxBands, final Band<T> band)
+            throws InterruptedException {
+        int bands = Math.min(height, maxBands);
+        List<Future<T>> futures = new ArrayList<>(bands);
+        try {
+            for (int i = 0; i < bands; i++) {
+                final int firstRow = (int) ((long) height * i / bands);
+                final int endRow = (int) ((long) height * (i + 1) / bands);
+                futures.add(mExecutor.submit(new Callable<T>() {
+                    @Override
+                    public T call() throws InterruptedException {
+                        return band.scan(firstRow, endRow);
+                    }
+                }));
+            }
+
+            List<T> results = new ArrayList<>(bands);
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InterruptedException) {
+                throw new InterruptedException();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            //Stop bands still running if we were cancelled or one of them failed
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Color analysis of camera frames straight from their YUV planes.
+ *
+ * Only the sampled pixels are converted to RGB, with lookup tables of the full range BT.601
+ * conversion cameras use for JPEG photos, and they are masked and summed like
+ * {@link ColorAnalyzer} does with the pixels of a photo. No RGB frame is ever built, and the
+ * row buffers are reused from frame to frame, so analyzing a frame allocates nothing but the
+ * reading. An analyzer must only be used from one thread.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class YuvAnalyzer {
+
+    //Chroma contribution to each channel, for every chroma value
+    private static final int[] RED_V = new int[256];
+    private static final int[] GREEN_U = new int[256];
+    private static final int[] GREEN_V = new int[256];
+    private static final int[] BLUE_U = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i - 128;
+            RED_V[i] = (int) Math.round(1.402 * c);
+            GREEN_U[i] = (int) Math.round(-0.344136 * c);
+            GREEN_V[i] = (int) Math.round(-0.714136 * c);
+            BLUE_U[i] = (int) Math.round(1.772 * c);
+        }
+    }
+
+    //Rows of the frame being analyzed, kept for the next frames
+    private byte[] mYRow = new byte[0];
+    private byte[] mURow = new byte[0];
+    private byte[] mVRow = new byte[0];
+
+    /**
+     * Method to convert a pixel to ARGB, with the same conversion the analysis uses
+     *
+     * @param y int: luma
+     * @param u int: Cb
+     * @param v int: Cr
+     * @return color int: ARGB color
+     */
+    static int toArgb(int y, int u, int v) {
+        int r = clamp(y + RED_V[v]);
+        int g = clamp(y + GREEN_U[u] + GREEN_V[v]);
+        int b = clamp(y + BLUE_U[u]);
+        return 0xFF000000 | r << 16 | g << 8 | b;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    /**
+     * Method to analyze a region of a frame and get mean color and hue. The pixels sampled
+     * are the ones {@link ColorAnalyzer#analyze} samples when the region is given as an array
+     * of its pixels, so the reading is the same as analyzing the region converted to RGB.
+     *
+     * @param frame {@link YuvFrame} to analyze
+     * @param left int: region left
+     * @param top int: region top
+     * @param right int: region right
+     * @param bottom int: region bottom
+     * @return reading {@link ColorReading}
+     */
+    public ColorReading analyze(YuvFrame frame, int left, int top, int right, int bottom) {
+        ColorSums sums = new ColorSums();
+        int width = right - left;
+        if (width < 1 || bottom - top < 1) {
+            return sums.toReading();
+        }
+        int pixelStride = frame.getUvPixelStride();
+        int chromaLeft = left >> 1;
+        int chromaLength = (((right - 1) >> 1) - chromaLeft) * pixelStride + 1;
+        if (mYRow.length < width) {
+            mYRow = new byte[width];
+        }
+        if (mURow.length < chromaLength) {
+            mURow = new byte[chromaLength];
+            mVRow = new byte[chromaLength];
+        }
+        byte[] yRow = mYRow;
+        byte[] uRow = mURow;
+        byte[] vRow = mVRow;
+        ByteBuffer yPlane = frame.getY();
+        ByteBuffer uPlane = frame.getU();
+        ByteBuffer vPlane = frame.getV();
+        int threshold = ColorAnalyzer.THRESHOLD;
+        int spacing = ColorAnalyzer.PIXEL_SPACING;
+
+        long red = 0; long green = 0; long blue = 0; long count = 0;
+        for (int row = top; row < bottom; row++) {
+            //Bulk copies of the rows, reading bytes one by one from a buffer is much slower
+            yPlane.position(row * frame.getYRowStride() + left);
+            yPlane.get(yRow, 0, width);
+            if (row == top || (row & 1) == 0) {
+                int chromaStart = (row >> 1) * frame.getUvRowStride() + chromaLeft * pixelStride;
+                uPlane.position(chromaStart);
+                uPlane.get(uRow, 0, chromaLength);
+                vPlane.position(chromaStart);
+                vPlane.get(vRow, 0, chromaLength);
+            }
+
+            //Same sampling phase as the region copied to an array of its own width
+            long regionIndex = (long) (row - top) * width;
+            int first = (int) ((spacing - regionIndex % spacing) % spacing);
+            for (int x = first; x < width; x += spacing) {
+                int luma = yRow[x] & 0xFF;
+                int chroma = (((left + x) >> 1) - chromaLeft) * pixelStride;
+                int u = uRow[chroma] & 0xFF;
+                int v = vRow[chroma] & 0xFF;
+
+                int r = luma + RED_V[v];
+                int g = luma + GREEN_U[u] + GREEN_V[v];
+                int b = luma + BLUE_U[u];
+                if (r < threshold && g < threshold && b < threshold) {
+                    red += r < 0 ? 0 : r;
+                    green += g < 0 ? 0 : g;
+                    blue += b < 0 ? 0 : b;
+                    count++;
+                }
+            }
+        }
+        sums.red = red;
+        sums.green = green;
+        sums.blue = blue;
+        sums.count = count;
+        return sums.toReading();
+    }
+}
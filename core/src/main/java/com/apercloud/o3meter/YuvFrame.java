@@ -0,0 +1,106 @@
+/*
+ *   This file is part of O₃METER.
+ *
+ *   O₃METER is free software: you can redistribute it and/or modify
+ *   it under the terms of the GNU General Public License as published by
+ *   the Free Software Foundation, either version 3 of the License, or
+ *   (at your option) any later version.
+ *
+ *   O₃METER is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU General Public License for more details.
+ *
+ *   You should have received a copy of the GNU General Public License
+ *   along with O₃METER.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.apercloud.o3meter;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ * Camera frame in YUV 4:2:0 format, like Android YUV_420_888 images.
+ *
+ * The luma plane has one byte per pixel, and the two chroma planes one byte for every 2x2
+ * pixels, with their own row stride and pixel stride, so planar (I420) and semi-planar
+ * (NV12, NV21) frames are described the same way. The frame only points to the planes of
+ * the frame source, and is set again for every frame.
+ *
+ * @author AperCloud
+ * @version 2018.0226
+ */
+public final class YuvFrame {
+
+    private int mWidth;
+    private int mHeight;
+    private ByteBuffer mY;
+    private int mYRowStride;
+    private ByteBuffer mU;
+    private ByteBuffer mV;
+    private int mUvRowStride;
+    private int mUvPixelStride;
+    private long mTimestamp;
+
+    /**
+     * Method to point the frame to the planes of a new frame
+     *
+     * @param width int: frame width
+     * @param height int: frame height
+     * @param y ByteBuffer: luma plane
+     * @param yRowStride int: bytes between luma rows
+     * @param u ByteBuffer: Cb plane
+     * @param v ByteBuffer: Cr plane
+     * @param uvRowStride int: bytes between chroma rows
+     * @param uvPixelStride int: bytes between chroma pixels of a row, 2 if interleaved
+     * @param timestamp long: when the frame was captured, in nanoseconds
+     */
+    public void set(int width, int height, ByteBuffer y, int yRowStride, ByteBuffer u,
+                    ByteBuffer v, int uvRowStride, int uvPixelStride, long timestamp) {
+        mWidth = width;
+        mHeight = height;
+        mY = y;
+        mYRowStride = yRowStride;
+        mU = u;
+        mV = v;
+        mUvRowStride = uvRowStride;
+        mUvPixelStride = uvPixelStride;
+        mTimestamp = timestamp;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public ByteBuffer getY() {
+        return mY;
+    }
+
+    public int getYRowStride() {
+        return mYRowStride;
+    }
+
+    public ByteBuffer getU() {
+        return mU;
+    }
+
+    public ByteBuffer getV() {
+        return mV;
+    }
+
+    public int getUvRowStride() {
+        return mUvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return mUvPixelStride;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+}
@@ -0,0 +1,143 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link AdaptiveSampler}, executed on the development machine (host).
+ */
+public class AdaptiveSamplerTest {
+
+    private static int[] strip(int width, int height, int noise, long seed) {
+        //Dark strip in the middle of white paper
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (x > width / 3 && x < 2 * width / 3) {
+                    int r = 100 + random.nextInt(noise + 1) - noise / 2;
+                    int g = 40 + random.nextInt(noise + 1) - noise / 2;
+                    int b = 90 + random.nextInt(noise + 1) - noise / 2;
+                    pixels[y * width + x] = 0xFF000000 | r << 16 | g << 8 | b;
+                } else {
+                    pixels[y * width + x] = 0xFFF0F0F0;
+                }
+            }
+        }
+        return pixels;
+    }
+
+    @Test
+    public void analyze_uniformStripReadsFewPixels() throws Exception {
+        int[] pixels = strip(1600, 1200, 0, 1);
+        SampledReading sampled = new AdaptiveSampler(AdaptiveSampler.DEFAULT_TOLERANCE)
+                .analyze(pixels, 1600, 1200);
+        ColorReading full = ColorAnalyzer.analyze(pixels, pixels.length);
+
+        assertTrue(sampled.isConverged());
+        assertTrue(sampled.toString(), sampled.getSampledFraction() < 0.01f);
+        assertEquals(full.getRed(), sampled.getReading().getRed(), 1);
+        assertEquals(full.getGreen(), sampled.getReading().getGreen(), 1);
+        assertEquals(full.getBlue(), sampled.getReading().getBlue(), 1);
+    }
+
+    @Test
+    public void analyze_noisyStripWithinTolerance() throws Exception {
+        int[] pixels = strip(1600, 1200, 40, 2);
+        SampledReading sampled = new AdaptiveSampler(1).analyze(pixels, 1600, 1200);
+        ColorReading full = ColorAnalyzer.analyze(pixels, pixels.length);
+
+        assertTrue(sampled.isConverged());
+        assertTrue(sampled.getSampledFraction() < 1f / ColorAnalyzer.PIXEL_SPACING);
+        assertEquals(full.getRed(), sampled.getReading().getRed(), 3);
+        assertEquals(full.getGreen(), sampled.getReading().getGreen(), 3);
+        assertEquals(full.getBlue(), sampled.getReading().getBlue(), 3);
+    }
+
+    @Test
+    public void analyze_edgeCellsWeighTheirArea() throws Exception {
+        //A dark last column and row only one pixel wide, cut from the cells of every round
+        int width = 1025;
+        int height = 769;
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = x == width - 1 || y == height - 1 ?
+                        0xFF000000 : 0xFF64285A;
+            }
+        }
+        SampledReading sampled = new AdaptiveSampler(AdaptiveSampler.DEFAULT_TOLERANCE)
+                .analyze(pixels, width, height);
+        ColorReading full = ColorAnalyzer.analyze(pixels, pixels.length);
+
+        assertTrue(sampled.isConverged());
+        assertEquals(full.getRed(), sampled.getReading().getRed(), 1);
+        assertEquals(full.getGreen(), sampled.getReading().getGreen(), 1);
+        assertEquals(full.getBlue(), sampled.getReading().getBlue(), 1);
+    }
+
+    @Test
+    public void analyze_fullScanWithTheGivenScanner() throws Exception {
+        int[] pixels = strip(400, 300, 40, 3);
+        final int[] strips = new int[1];
+        final PixelSource array = StripScanner.wrap(pixels, 400);
+        PixelSource source = new PixelSource() {
+            @Override
+            public void getPixels(int[] buffer, int x, int y, int width, int height) {
+                if (height > 1) {
+                    strips[0]++;
+                }
+                array.getPixels(buffer, x, y, width, height);
+            }
+        };
+        //Strips of 100 rows, so the full scan reads the photo in 3
+        SampledReading sampled = new AdaptiveSampler(0, new StripScanner(400 * 100))
+                .analyze(source, 400, 300);
+
+        assertFalse(sampled.isConverged());
+        assertEquals(3, strips[0]);
+    }
+
+    @Test
+    public void analyze_fallsBackToFullScan() throws Exception {
+        int[] pixels = strip(400, 300, 40, 3);
+        SampledReading sampled = new AdaptiveSampler(0).analyze(pixels, 400, 300);
+        ColorReading full = ColorAnalyzer.analyze(pixels, pixels.length);
+
+        assertFalse(sampled.isConverged());
+        assertEquals(full.getRed(), sampled.getReading().getRed());
+        assertEquals(full.getHue(), sampled.getReading().getHue(), 0);
+    }
+
+    @Test
+    public void analyze_readsRowsNotSinglePixels() throws Exception {
+        final int[] pixels = strip(1600, 1200, 40, 4);
+        final PixelSource array = StripScanner.wrap(pixels, 1600);
+        final long[] rowReads = new long[1];
+        PixelSource rows = new PixelSource() {
+            @Override
+            public void getPixels(int[] buffer, int x, int y, int width, int height) {
+                //Strips of the full scan are taller
+                if (height == 1) {
+                    rowReads[0]++;
+                }
+                array.getPixels(buffer, x, y, width, height);
+            }
+        };
+        //Never stable, so every round is sampled
+        SampledReading sampled = new AdaptiveSampler(0).analyze(rows, 1600, 1200);
+        SampledReading expected = new AdaptiveSampler(0).analyze(pixels, 1600, 1200);
+
+        long fullScan = (pixels.length + ColorAnalyzer.PIXEL_SPACING - 1) /
+                ColorAnalyzer.PIXEL_SPACING;
+        //At most one read of every row each round, far fewer than the pixels sampled
+        assertTrue(rowReads[0] <= (long) sampled.getRounds() * 1200);
+        assertTrue(rowReads[0] < (sampled.getSamples() - fullScan) / 10);
+        assertEquals(expected.getSamples(), sampled.getSamples());
+        assertEquals(expected.getReading().getRed(), sampled.getReading().getRed());
+        assertEquals(expected.getReading().getHue(), sampled.getReading().getHue(), 0);
+    }
+}
@@ -0,0 +1,161 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link BatchPipeline}, executed on the development machine (host).
+ */
+public class BatchPipelineTest {
+
+    @Test
+    public void sizeStages_withinMemoryBudget() throws Exception {
+        int[] stages = BatchPipeline.sizeStages(8, 128, 32);
+        assertEquals(4, stages[0] + stages[1] + stages[2]);
+        //Every stage has at least one worker even without memory
+        stages = BatchPipeline.sizeStages(1, 0, 32);
+        assertArrayEquals(new int[] {1, 1, 1}, stages);
+        //Plenty of memory, decoders are limited by the cores
+        stages = BatchPipeline.sizeStages(4, 1000, 1);
+        assertEquals(4, stages[0]);
+    }
+
+    @Test
+    public void start_recordsEveryPhotoWithBoundedMemory() throws Exception {
+        final int decoders = 3;
+        final int analyzers = 2;
+        final int capacity = 2;
+        final AtomicInteger inMemory = new AtomicInteger();
+        final AtomicInteger maxInMemory = new AtomicInteger();
+        final List<BatchResult<Integer>> results = new ArrayList<>();
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        BatchPipeline<Integer, int[]> pipeline = new BatchPipeline<>(
+                new BatchPipeline.Decoder<Integer, int[]>() {
+                    @Override
+                    public int[] decode(Integer key) throws IOException {
+                        if (key == 7) {
+                            throw new IOException("Broken photo");
+                        }
+                        int now = inMemory.incrementAndGet();
+                        synchronized (maxInMemory) {
+                            maxInMemory.set(Math.max(maxInMemory.get(), now));
+                        }
+                        int[] pixels = new int[300];
+                        Arrays.fill(pixels, 0xFF000000 | key);
+                        return pixels;
+                    }
+                }, new BatchPipeline.Analyzer<int[]>() {
+                    @Override
+                    public ColorReading analyze(int[] pixels) throws InterruptedException {
+                        Thread.sleep(2);
+                        return ColorAnalyzer.analyze(pixels, pixels.length);
+                    }
+
+                    @Override
+                    public void release(int[] pixels) {
+                        inMemory.decrementAndGet();
+                    }
+                }, new BatchPipeline.Listener<Integer>() {
+                    @Override
+                    public void onRecorded(BatchResult<Integer> result, int done, int total) {
+                        results.add(result);
+                        assertEquals(results.size(), done);
+                        assertEquals(40, total);
+                    }
+
+                    @Override
+                    public void onFinished(int total, long elapsedNanos) {
+                        finished.countDown();
+                    }
+                }, Executors.defaultThreadFactory(), decoders, analyzers, capacity);
+
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            keys.add(i);
+        }
+        pipeline.start(keys);
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+
+        assertEquals(40, results.size());
+        assertTrue(maxInMemory.get() <= decoders + analyzers + capacity);
+        boolean[] seen = new boolean[40];
+        for (BatchResult<Integer> result : results) {
+            int key = result.getKey();
+            seen[key] = true;
+            if (key == 7) {
+                assertNull(result.getReading());
+                assertNotNull(result.getError());
+            } else {
+                //Blue channel is the key
+                assertEquals(key * 100 / 101, result.getReading().getBlue());
+            }
+        }
+        for (boolean photo : seen) {
+            assertTrue(photo);
+        }
+    }
+
+    @Test
+    public void start_finishesWhenStagesThrowErrors() throws Exception {
+        final List<BatchResult<Integer>> results = new ArrayList<>();
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        BatchPipeline<Integer, int[]> pipeline = new BatchPipeline<>(
+                new BatchPipeline.Decoder<Integer, int[]>() {
+                    @Override
+                    public int[] decode(Integer key) {
+                        if (key == 2) {
+                            throw new OutOfMemoryError("Photo too big");
+                        }
+                        return new int[] {0xFF000000 | key};
+                    }
+                }, new BatchPipeline.Analyzer<int[]>() {
+                    @Override
+                    public ColorReading analyze(int[] pixels) throws InterruptedException {
+                        if ((pixels[0] & 0xFF) == 4) {
+                            throw new Error("Analysis failed");
+                        }
+                        return ColorAnalyzer.analyze(pixels, pixels.length);
+                    }
+
+                    @Override
+                    public void release(int[] pixels) {
+                    }
+                }, new BatchPipeline.Listener<Integer>() {
+                    @Override
+                    public void onRecorded(BatchResult<Integer> result, int done, int total) {
+                        results.add(result);
+                    }
+
+                    @Override
+                    public void onFinished(int total, long elapsedNanos) {
+                        finished.countDown();
+                    }
+                }, Executors.defaultThreadFactory(), 1, 1, 1);
+
+        pipeline.start(Arrays.asList(0, 1, 2, 3, 4, 5));
+        assertTrue(finished.await(10, TimeUnit.SECONDS));
+
+        assertEquals(6, results.size());
+        for (BatchResult<Integer> result : results) {
+            int key = result.getKey();
+            if (key == 2 || key == 4) {
+                assertNull(result.getReading());
+                assertNotNull(result.getError());
+            } else {
+                assertNotNull(result.getReading());
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.apercloud.o3meter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link BatchRunner}, executed on the development machine (host).
+ */
+public class BatchRunnerTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = Files.createTempDirectory("photos").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDirectory.listFiles()) {
+            file.delete();
+        }
+        mDirectory.delete();
+    }
+
+    private File writePng(String name, int color) throws Exception {
+        BufferedImage image = new BufferedImage(30, 20, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 20; y++) {
+            for (int x = 0; x < 30; x++) {
+                image.setRGB(x, y, color);
+            }
+        }
+        File file = new File(mDirectory, name);
+        ImageIO.write(image, "png", file);
+        return file;
+    }
+
+    @Test
+    public void run_sameReadingsAsColorAnalyzer() throws Exception {
+        int[] colors = {0x6432C8, 0x1E8C28, 0xC8C8C8};
+        for (int i = 0; i < colors.length; i++) {
+            writePng("photo" + i + ".png", colors[i]);
+        }
+        //Not a photo, skipped
+        new File(mDirectory, "notes.txt").createNewFile();
+        //Broken photo, reported in the CSV
+        FileOutputStream broken = new FileOutputStream(new File(mDirectory, "zbroken.jpg"));
+        broken.write(new byte[] {1, 2, 3});
+        broken.close();
+
+        List<File> photos = BatchRunner.listPhotos(mDirectory);
+        assertEquals(4, photos.size());
+        StringWriter out = new StringWriter();
+        assertEquals(1, BatchRunner.run(photos, out, 2, null));
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(BatchRunner.CSV_HEADER, lines[0]);
+        assertEquals(5, lines.length);
+        for (int i = 0; i < colors.length; i++) {
+            int[] pixels = new int[30 * 20];
+            Arrays.fill(pixels, 0xFF000000 | colors[i]);
+            ColorReading reading = ColorAnalyzer.analyze(pixels, pixels.length);
+            assertTrue(lines[i + 1].startsWith("photo" + i + ".png," + reading.getRed() + "," +
+                    reading.getGreen() + "," + reading.getBlue() + ","));
+        }
+        //Nothing under the threshold, no value
+        assertTrue(lines[3].endsWith(",,"));
+        assertTrue(lines[4].startsWith("zbroken.jpg,,,,,,"));
+    }
+}
@@ -0,0 +1,90 @@
+package com.apercloud.o3meter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link Calibration}, executed on the development machine (host).
+ */
+public class CalibrationTest {
+
+    //Standards of a batch of paper: yellow, orange, red, magenta and blue
+    private static final float[] HUES = {58, 30, 2, 330, 245};
+    private static final float[] SCALES = {0, 20, 50, 100, 180};
+
+    @After
+    public void tearDown() {
+        Calibration.setActive(Calibration.DEFAULT);
+    }
+
+    @Test
+    public void default_sameAsHueToScale() {
+        for (int hue = 0; hue < 360; hue++) {
+            assertEquals(ColorAnalyzer.HueToScale(hue), Calibration.DEFAULT.toScale(hue));
+            assertEquals(ColorAnalyzer.HueToScale(hue),
+                    Calibration.DEFAULT.toScale(hue + 0.95f));
+        }
+    }
+
+    @Test
+    public void fit_passesThroughPoints() {
+        Calibration calibration = Calibration.fit("batch", HUES, SCALES);
+        for (int i = 0; i < HUES.length; i++) {
+            assertEquals((int) SCALES[i], calibration.toScale(HUES[i]));
+        }
+    }
+
+    @Test
+    public void fit_growsAlongScale() {
+        Calibration calibration = Calibration.fit("batch", HUES, SCALES);
+        int previous = calibration.toScale(58);
+        for (float position = 2; position <= 175; position += 0.1f) {
+            float hue = (420 - position) % 360;
+            int scale = calibration.toScale(hue);
+            assertTrue(scale >= previous);
+            assertTrue(scale <= 180);
+            previous = scale;
+        }
+    }
+
+    @Test
+    public void fit_clampsOutsidePoints() {
+        Calibration calibration = Calibration.fit("batch", HUES, SCALES);
+        //Yellower than the first standard and greener, closer to yellow than to blue
+        assertEquals(0, calibration.toScale(59.5f));
+        assertEquals(0, calibration.toScale(100));
+        //Bluer than the last standard
+        assertEquals(180, calibration.toScale(200));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fit_rejectsValuesNotGrowing() {
+        Calibration.fit("batch", new float[]{58, 30, 2}, new float[]{0, 50, 40});
+    }
+
+    @Test
+    public void read_skipsHeaderAndComments() throws Exception {
+        String csv = "hue,scale\n# Batch 2018-03\n58,0\n\n30, 20\n2,50\n330,100\n245,180\n";
+        Calibration calibration = Calibration.read("batch", new StringReader(csv));
+        assertEquals("batch", calibration.getName());
+        assertEquals(100, calibration.toScale(330));
+    }
+
+    @Test(expected = IOException.class)
+    public void read_rejectsBadLines() throws Exception {
+        Calibration.read("batch", new StringReader("58,0\n30;20\n2,50\n"));
+    }
+
+    @Test
+    public void reading_usesActiveCalibration() {
+        ColorReading reading = new ColorReading(200, 20, 100, 330);
+        assertEquals(ColorAnalyzer.HueToScale(330), reading.getScale());
+        Calibration.setActive(Calibration.fit("batch", HUES, SCALES));
+        assertEquals(100, reading.getScale());
+    }
+}
@@ -0,0 +1,73 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ColorAnalyzer}, executed on the development machine (host).
+ */
+public class ColorAnalyzerTest {
+
+    @Test
+    public void hueToScale_coversWholeScale() throws Exception {
+        assertEquals(0, ColorAnalyzer.HueToScale(60));
+        assertEquals(60, ColorAnalyzer.HueToScale(0));
+        assertEquals(61, ColorAnalyzer.HueToScale(359));
+        assertEquals(180, ColorAnalyzer.HueToScale(240));
+    }
+
+    @Test
+    public void rgbToHue_primaryColors() throws Exception {
+        assertEquals(0, ColorAnalyzer.rgbToHue(128, 128, 128), 0);
+        assertEquals(0, ColorAnalyzer.rgbToHue(255, 0, 0), 0);
+        assertEquals(60, ColorAnalyzer.rgbToHue(255, 255, 0), 0);
+        assertEquals(240, ColorAnalyzer.rgbToHue(0, 0, 255), 0);
+        assertEquals(300, ColorAnalyzer.rgbToHue(255, 0, 255), 0);
+    }
+
+    @Test
+    public void analyze_ignoresPixelsOverThreshold() throws Exception {
+        int[] pixels = new int[300];
+        Arrays.fill(pixels, 0xFF641400);
+        //Glare every other sampled pixel must not change the mean
+        for (int i = 0; i < pixels.length; i += 6) {
+            pixels[i] = 0xFFFFFFFF;
+        }
+        ColorReading reading = ColorAnalyzer.analyze(pixels, pixels.length);
+        assertTrue(reading.getRed() > 90 && reading.getRed() <= 100);
+        assertTrue(reading.getGreen() > 18 && reading.getGreen() <= 20);
+        assertEquals(0, reading.getBlue());
+        assertTrue(reading.getScale() >= 48 && reading.getScale() <= 49);
+    }
+
+    @Test
+    public void analyze_grayHasNoValue() throws Exception {
+        int[] pixels = new int[90];
+        Arrays.fill(pixels, 0xFF505050);
+        ColorReading reading = ColorAnalyzer.analyze(pixels, pixels.length);
+        assertFalse(reading.hasValue());
+        assertEquals(-1, reading.getScale());
+    }
+
+    @Test
+    public void analyze_samplesSamePixelsAsPlainLoop() throws Exception {
+        //Longer than one cancellation chunk; only the pixels a plain loop samples are red
+        int[] pixels = new int[200000];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i % ColorAnalyzer.PIXEL_SPACING == 0 ? 0xFF640000 : 0xFF006400;
+        }
+        int red = 0; int green = 0; int totalPixels = 1;
+        for (int i = 0; i < pixels.length; i += ColorAnalyzer.PIXEL_SPACING) {
+            red += (pixels[i] >> 16) & 0xFF;
+            green += (pixels[i] >> 8) & 0xFF;
+            totalPixels++;
+        }
+        ColorReading reading = ColorAnalyzer.analyze(pixels, pixels.length);
+        assertEquals(red / totalPixels, reading.getRed());
+        assertEquals(green / totalPixels, reading.getGreen());
+        assertEquals(0, reading.getBlue());
+    }
+}
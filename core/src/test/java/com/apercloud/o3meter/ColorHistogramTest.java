@@ -0,0 +1,131 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ColorHistogram}, executed on the development machine (host).
+ */
+public class ColorHistogramTest {
+
+    private static int[] randomPixels(int length) {
+        int[] pixels = new int[length];
+        Random random = new Random(11);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    private static void assertSameStatistics(ColorStatistics expected, ColorStatistics actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        for (int channel = ColorStatistics.RED; channel <= ColorStatistics.BLUE; channel++) {
+            assertEquals(expected.getSum(channel), actual.getSum(channel));
+            assertEquals(expected.getMedian(channel), actual.getMedian(channel));
+        }
+    }
+
+    @Test
+    public void toReading_identicalToAnalyze() throws Exception {
+        int[] pixels = randomPixels(100000);
+        ColorReading expected = ColorAnalyzer.analyze(pixels, pixels.length);
+        ColorReading actual = ColorAnalyzer.histogram(pixels, pixels.length,
+                ColorAnalyzer.THRESHOLD).getStatistics().toReading();
+        assertEquals(expected.getRed(), actual.getRed());
+        assertEquals(expected.getGreen(), actual.getGreen());
+        assertEquals(expected.getBlue(), actual.getBlue());
+        assertEquals(expected.getHue(), actual.getHue(), 0);
+    }
+
+    @Test
+    public void getStatistics_lowerThresholdWithoutRescan() throws Exception {
+        int[] pixels = randomPixels(30000);
+        ColorHistogram full = ColorAnalyzer.histogram(pixels, pixels.length, 256);
+        for (int threshold : new int[] {1, 100, 150, 256}) {
+            ColorHistogram scanned = ColorAnalyzer.histogram(pixels, pixels.length, threshold);
+            assertSameStatistics(scanned.getStatistics(threshold),
+                    full.getStatistics(threshold));
+        }
+    }
+
+    @Test
+    public void merge_sameAsWholeAndTiled() throws Exception {
+        int width = 301;
+        int height = 200;
+        int[] pixels = randomPixels(width * height);
+        ColorHistogram whole = ColorAnalyzer.histogram(pixels, pixels.length, 200);
+
+        ColorHistogram merged = new ColorHistogram(200);
+        ColorHistogram bottom = new ColorHistogram(200);
+        ColorAnalyzer.histogramRows(pixels, width, 0, 77, merged);
+        ColorAnalyzer.histogramRows(pixels, width, 77, height, bottom);
+        merged.merge(bottom);
+        assertSameStatistics(whole.getStatistics(200), merged.getStatistics(200));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ColorHistogram tiled = new TiledColorAnalyzer(executor, 4, 0)
+                    .histogram(pixels, width, height, 200);
+            assertSameStatistics(whole.getStatistics(200), tiled.getStatistics(200));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void strips_sameAsWholeAndTiled() throws Exception {
+        //Small strips and a width that is no multiple of the spacing, so rows change phase
+        int width = 301;
+        int height = 200;
+        int[] pixels = randomPixels(width * height);
+        ColorHistogram whole = ColorAnalyzer.histogram(pixels, pixels.length, 200);
+        PixelSource source = StripScanner.wrap(pixels, width);
+
+        ColorHistogram strips = new StripScanner(width * 7).histogram(source, width, height,
+                200);
+        assertSameStatistics(whole.getStatistics(200), strips.getStatistics(200));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ColorHistogram tiled = new TiledColorAnalyzer(executor, 4, 0)
+                    .histogram(source, width, height, 200);
+            assertSameStatistics(whole.getStatistics(200), tiled.getStatistics(200));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void statistics_ignoreGlare() throws Exception {
+        //Sampled pixels: 90 of red 100, 10 of red 10 and glare that is over the threshold
+        int[] pixels = new int[ColorAnalyzer.PIXEL_SPACING * 110];
+        Arrays.fill(pixels, 0xFF641400);
+        for (int i = 0; i < 10; i++) {
+            pixels[i * ColorAnalyzer.PIXEL_SPACING] = 0xFF0A1400;
+            pixels[(100 + i) * ColorAnalyzer.PIXEL_SPACING] = 0xFFFFFFFF;
+        }
+        ColorStatistics statistics = ColorAnalyzer.histogram(pixels, pixels.length,
+                ColorAnalyzer.THRESHOLD).getStatistics();
+        assertEquals(100, statistics.getCount());
+        assertEquals(91, statistics.getMean(ColorStatistics.RED), 1e-9);
+        assertEquals(100, statistics.getMedian(ColorStatistics.RED));
+        assertEquals(100, statistics.getTrimmedMean(ColorStatistics.RED, 0.1), 1e-9);
+        assertEquals(729, statistics.getVariance(ColorStatistics.RED), 1e-9);
+        assertEquals(0, statistics.getVariance(ColorStatistics.GREEN), 1e-9);
+    }
+
+    @Test
+    public void statistics_emptyHistogram() throws Exception {
+        ColorStatistics statistics = new ColorHistogram().getStatistics();
+        assertEquals(0, statistics.getCount());
+        assertEquals(0, statistics.getMedian(ColorStatistics.RED));
+        assertEquals(0, statistics.getMean(ColorStatistics.RED), 0);
+        assertFalse(statistics.toReading().hasValue());
+    }
+}
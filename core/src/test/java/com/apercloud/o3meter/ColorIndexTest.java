@@ -0,0 +1,66 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ColorIndex}, executed on the development machine (host).
+ */
+public class ColorIndexTest {
+
+    private static ColorIndex build(int[] pixels, int width, int height) {
+        ColorIndex.Builder builder = new ColorIndex.Builder(width, height);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y += builder.getStep()) {
+            System.arraycopy(pixels, y * width, row, 0, width);
+            builder.addRow(row);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void query_matchesBruteForce() throws Exception {
+        int width = 64;
+        int height = 48;
+        int[] pixels = new int[width * height];
+        Random random = new Random(42);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        ColorIndex index = build(pixels, width, height);
+        assertEquals(1, index.getStep());
+
+        int left = 5, top = 7, right = 40, bottom = 30;
+        int red = 0, green = 0, blue = 0, total = 1;
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
+                int color = pixels[y * width + x];
+                int r = (color >> 16) & 0xFF;
+                int g = (color >> 8) & 0xFF;
+                int b = color & 0xFF;
+                if (r < ColorAnalyzer.THRESHOLD && g < ColorAnalyzer.THRESHOLD &&
+                        b < ColorAnalyzer.THRESHOLD) {
+                    red += r;
+                    green += g;
+                    blue += b;
+                    total++;
+                }
+            }
+        }
+        ColorReading reading = index.query(left, top, right, bottom);
+        assertEquals(red / total, reading.getRed());
+        assertEquals(green / total, reading.getGreen());
+        assertEquals(blue / total, reading.getBlue());
+    }
+
+    @Test
+    public void builder_staysInsideBudget() throws Exception {
+        ColorIndex.Builder builder = new ColorIndex.Builder(4000, 3000);
+        int step = builder.getStep();
+        long proxyPixels = (long) ((4000 + step - 1) / step) * ((3000 + step - 1) / step);
+        assertTrue(proxyPixels <= ColorIndex.INDEX_PIXEL_BUDGET);
+    }
+}
@@ -0,0 +1,32 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ContentHash}, executed on the development machine (host).
+ */
+public class ContentHashTest {
+
+    @Test
+    public void of_independentOfReadSizes() throws Exception {
+        final byte[] bytes = new byte[200003];
+        new Random(7).nextBytes(bytes);
+        //Stream that returns a few bytes at a time
+        InputStream slow = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 13));
+            }
+        };
+        long hash = ContentHash.of(new ByteArrayInputStream(bytes));
+        assertEquals(hash, ContentHash.of(slow));
+        bytes[100000] ^= 1;
+        assertNotEquals(hash, ContentHash.of(new ByteArrayInputStream(bytes)));
+    }
+}
@@ -0,0 +1,93 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link HueHistogram}, executed on the development machine (host).
+ */
+public class HueHistogramTest {
+
+    private static HueHistogram histogram(int[] pixels, int width) throws Exception {
+        return new StripScanner(StripScanner.DEFAULT_STRIP_PIXELS).hueHistogram(
+                StripScanner.wrap(pixels, width), width, pixels.length / width);
+    }
+
+    @Test
+    public void sums_identicalToAnalyze() throws Exception {
+        int[] pixels = new int[301 * 257];
+        Random random = new Random(5);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        ColorReading expected = ColorAnalyzer.analyze(pixels, pixels.length);
+        ColorReading actual = histogram(pixels, 301).getSums().toReading();
+        assertEquals(expected.getRed(), actual.getRed());
+        assertEquals(expected.getGreen(), actual.getGreen());
+        assertEquals(expected.getBlue(), actual.getBlue());
+        assertEquals(expected.getHue(), actual.getHue(), 0);
+    }
+
+    @Test
+    public void meanHue_circularAroundRed() throws Exception {
+        //Half the pixels magenta-red (hue 340), half orange-red (hue 20)
+        int[] pixels = new int[300 * 100];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = (i / 300) % 2 == 0 ? 0xFF8C002F : 0xFF8C2F00;
+        }
+        HueHistogram histogram = histogram(pixels, 300);
+        double hue = histogram.getMeanHue();
+        assertTrue(hue < 2 || hue > 358);
+        assertEquals(20, histogram.getStandardDeviation(), 2);
+        ColorReading reading = histogram.toReading();
+        assertTrue(reading.hasValue());
+        assertEquals(60, reading.getScale(Calibration.DEFAULT), 2);
+    }
+
+    @Test
+    public void meanHue_sameAsPixelHue() throws Exception {
+        int[] pixels = new int[90];
+        Arrays.fill(pixels, 0xFF203C80);
+        HueHistogram histogram = histogram(pixels, 30);
+        assertEquals(ColorAnalyzer.rgbToHue(0x20, 0x3C, 0x80), histogram.getMeanHue(), 3);
+        assertEquals(1, histogram.getResultantLength(), 1e-9);
+        assertEquals(30, histogram.getCount());
+    }
+
+    @Test
+    public void gray_hasNoValue() throws Exception {
+        int[] pixels = new int[90];
+        Arrays.fill(pixels, 0xFF505050);
+        HueHistogram histogram = histogram(pixels, 30);
+        assertEquals(0, histogram.getCount());
+        assertFalse(histogram.toReading().hasValue());
+    }
+
+    @Test
+    public void tiled_identicalToStrips() throws Exception {
+        int[] pixels = new int[997 * 203];
+        Random random = new Random(9);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            HueHistogram expected = histogram(pixels, 997);
+            HueHistogram actual = new TiledColorAnalyzer(executor, 4, 0).hueHistogram(
+                    StripScanner.wrap(pixels, 997), 997, 203);
+            assertEquals(expected.getCount(), actual.getCount());
+            for (int bin = 0; bin < HueHistogram.HUE_BINS; bin++) {
+                assertEquals(expected.getCount(bin), actual.getCount(bin));
+            }
+            assertEquals(expected.getMeanHue(), actual.getMeanHue(), 1e-9);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link NativeSums}, executed on the development machine (host).
+ *
+ * The parity tests only check something when the native library is built, with
+ * ./gradlew :core:test -Pnative
+ */
+public class NativeSumsTest {
+
+    private static final int[] KERNELS = {NativeSums.KERNEL_BEST, NativeSums.KERNEL_SCALAR,
+            NativeSums.KERNEL_SSE2, NativeSums.KERNEL_AVX2, NativeSums.KERNEL_NEON};
+
+    private static int[] randomPixels(Random random, int length) {
+        int[] pixels = new int[length];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    private static void assertSameSums(String message, ColorSums expected, ColorSums actual) {
+        assertEquals(message, expected.red, actual.red);
+        assertEquals(message, expected.green, actual.green);
+        assertEquals(message, expected.blue, actual.blue);
+        assertEquals(message, expected.count, actual.count);
+    }
+
+    @Test
+    public void accumulateStrip_sameAsJava() {
+        if (!NativeSums.isAvailable()) {
+            return;
+        }
+        Random random = new Random(23);
+        //Odd widths and row phases, and tails shorter than a vector
+        int[][] sizes = {{1, 5}, {7, 3}, {17, 9}, {301, 13}, {1024, 4}};
+        int[] firstRows = {0, 1, 2, 1001};
+        int[] spacings = {1, 2, 3, 5, 8, 127, 200};
+        int[] thresholds = {0, 1, 100, 150, 255, 256, 300};
+        //Reused by every strip, like a scanner does
+        long[] totals = new long[4];
+        for (int kernel : KERNELS) {
+            if (!NativeSums.isSupported(kernel)) {
+                continue;
+            }
+            for (int[] size : sizes) {
+                int[] strip = randomPixels(random, size[0] * size[1]);
+                for (int firstRow : firstRows) {
+                    for (int spacing : spacings) {
+                        for (int threshold : thresholds) {
+                            ColorSums expected = new ColorSums();
+                            accumulateJava(strip, size[0], firstRow, size[1], spacing,
+                                    threshold, expected);
+                            ColorSums actual = new ColorSums();
+                            assertTrue(NativeSums.accumulateStrip(kernel, strip, size[0],
+                                    firstRow, size[1], spacing, threshold, actual, totals));
+                            assertSameSums(NativeSums.getKernelName(kernel) + " " + size[0]
+                                    + "x" + size[1] + " row " + firstRow + " spacing "
+                                    + spacing + " threshold " + threshold, expected, actual);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void accumulateStrip_sameAsColorAnalyzer() {
+        //Also without the library, through the Java fallback
+        int[] strip = randomPixels(new Random(5), 333 * 21);
+        ColorSums expected = new ColorSums();
+        ColorAnalyzer.accumulateStrip(strip, 333, 7, 21, expected);
+        ColorSums actual = new ColorSums();
+        NativeSums.accumulateStrip(strip, 333, 7, 21, actual, new long[4]);
+        assertSameSums("default kernel", expected, actual);
+    }
+
+    @Test
+    public void accumulateStrip_longRowsDontOverflowLanes() {
+        if (!NativeSums.isAvailable()) {
+            return;
+        }
+        //Every pixel counted, over several flushes of the lane sums
+        int width = 3 << 20;
+        int[] strip = new int[width];
+        Arrays.fill(strip, 0xFF8F8F8F);
+        for (int kernel : KERNELS) {
+            if (!NativeSums.isSupported(kernel)) {
+                continue;
+            }
+            ColorSums sums = new ColorSums();
+            assertTrue(NativeSums.accumulateStrip(kernel, strip, width, 0, 1, 1, 150, sums,
+                    new long[4]));
+            assertEquals(width, sums.count);
+            assertEquals(0x8FL * width, sums.red);
+        }
+    }
+
+    @Test
+    public void accumulateStrip_unknownKernelLeavesSumsUntouched() {
+        ColorSums sums = new ColorSums();
+        assertFalse(NativeSums.accumulateStrip(99, new int[9], 3, 0, 3, 3, 150, sums,
+                new long[4]));
+        assertEquals(0, sums.count);
+    }
+
+    private static void accumulateJava(int[] strip, int width, int firstRow, int rows,
+                                       int spacing, int threshold, ColorSums sums) {
+        //Same loop as ColorAnalyzer.accumulateStrip with parameters instead of constants
+        for (int i = 0; i < rows; i++) {
+            long photoRowStart = (long) (firstRow + i) * width;
+            int phase = (int) ((spacing - photoRowStart % spacing) % spacing);
+            for (int p = i * width + phase; p < (i + 1) * width; p += spacing) {
+                int color = strip[p];
+                int r = (color >> 16) & 0xFF;
+                int g = (color >> 8) & 0xFF;
+                int b = color & 0xFF;
+                if (r < threshold && g < threshold && b < threshold) {
+                    sums.red += r;
+                    sums.green += g;
+                    sums.blue += b;
+                    sums.count++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ResultCache}, executed on the development machine (host).
+ */
+public class ResultCacheTest {
+
+    @Test
+    public void put_evictsLeastRecentlyUsed() throws Exception {
+        ResultCache cache = new ResultCache(2);
+        ColorReading reading = new ColorReading(10, 20, 30, 210);
+        cache.put("a", reading);
+        cache.put("b", reading);
+        //Reading "a" makes "b" the least recently used
+        assertSame(reading, cache.get("a"));
+        cache.put("c", reading);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void save_loadKeepsReadingsAndOrder() throws Exception {
+        File file = File.createTempFile("results", ".cache");
+        try {
+            ResultCache cache = new ResultCache(10);
+            cache.put("a", new ColorReading(1, 2, 3, 200));
+            cache.put("b", new ColorReading(4, 5, 6, 0));
+            cache.get("a");
+            cache.save(file);
+
+            //Only the most recently used fits
+            ResultCache loaded = new ResultCache(1);
+            loaded.load(file);
+            assertEquals(1, loaded.size());
+            ColorReading reading = loaded.get("a");
+            assertEquals(1, reading.getRed());
+            assertEquals(3, reading.getBlue());
+            assertEquals(200, reading.getHue(), 0);
+
+            //Damaged file loads nothing
+            file.delete();
+            file.createNewFile();
+            ResultCache empty = new ResultCache(10);
+            empty.load(file);
+            assertEquals(0, empty.size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void load_truncatedFileKeepsWholeEntries() throws Exception {
+        File file = File.createTempFile("results", ".cache");
+        try {
+            ResultCache cache = new ResultCache(10);
+            cache.put("a", new ColorReading(1, 2, 3, 200));
+            cache.put("b", new ColorReading(4, 5, 6, 0));
+            cache.save(file);
+
+            //Cut in the middle of the reading of "b", after its key
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(raf.length() - 6);
+            } finally {
+                raf.close();
+            }
+            ResultCache loaded = new ResultCache(10);
+            loaded.load(file);
+            assertEquals(1, loaded.size());
+            assertEquals(1, loaded.get("a").getRed());
+            assertNull(loaded.get("b"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void keys_dependOnPhotoAndRegion() throws Exception {
+        assertNotEquals(ResultCache.photoKey(1, 1080, 1920), ResultCache.photoKey(2, 1080, 1920));
+        assertNotEquals(ResultCache.photoKey(1, 1080, 1920), ResultCache.photoKey(1, 720, 1280));
+        assertNotEquals(ResultCache.regionKey(1, 0, 0, 10, 10),
+                ResultCache.regionKey(1, 0, 0, 10, 11));
+    }
+}
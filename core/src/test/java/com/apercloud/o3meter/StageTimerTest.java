@@ -0,0 +1,60 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StageTimer}, executed on the development machine (host).
+ */
+public class StageTimerTest {
+
+    @Test
+    public void empty_reportsZero() {
+        StageTimer timer = new StageTimer("scan", 4);
+        assertEquals(0, timer.getCount());
+        assertEquals(0, timer.getLatest());
+        assertEquals(0, timer.percentile(50));
+        assertEquals(0, timer.getSamples().length);
+    }
+
+    @Test
+    public void record_keepsLastSamplesInOrder() {
+        StageTimer timer = new StageTimer("scan", 4);
+        for (int i = 1; i <= 6; i++) {
+            timer.record(i);
+        }
+        assertEquals(6, timer.getCount());
+        assertEquals(6, timer.getLatest());
+        assertArrayEquals(new long[]{3, 4, 5, 6}, timer.getSamples());
+    }
+
+    @Test
+    public void percentile_nearestRank() {
+        StageTimer timer = new StageTimer("decode", 100);
+        for (int i = 100; i >= 1; i--) {
+            timer.record(i);
+        }
+        assertEquals(1, timer.percentile(0));
+        assertEquals(50, timer.percentile(50));
+        assertEquals(90, timer.percentile(90));
+        assertEquals(100, timer.percentile(100));
+    }
+
+    @Test
+    public void writeCsv_oneRowPerSample() throws Exception {
+        StageTimer decode = new StageTimer("decode", 4);
+        decode.record(1500000);
+        StageTimer scan = new StageTimer("scan", 4);
+        scan.record(250000);
+        scan.record(500000);
+        StringWriter out = new StringWriter();
+        StageTimer.writeCsv(out, "Acme \"X\"", decode, scan);
+        assertEquals(StageTimer.CSV_HEADER + "\n" +
+                "\"Acme \"\"X\"\"\",decode,0,1.500\n" +
+                "\"Acme \"\"X\"\"\",scan,0,0.250\n" +
+                "\"Acme \"\"X\"\"\",scan,1,0.500\n", out.toString());
+    }
+}
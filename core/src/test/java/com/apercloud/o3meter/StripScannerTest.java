@@ -0,0 +1,101 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StripScanner}, executed on the development machine (host).
+ */
+public class StripScannerTest {
+
+    private static int[] randomPixels(int length) {
+        int[] pixels = new int[length];
+        Random random = new Random(11);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    private static void assertSameReading(ColorReading expected, ColorReading actual) {
+        assertEquals(expected.getRed(), actual.getRed());
+        assertEquals(expected.getGreen(), actual.getGreen());
+        assertEquals(expected.getBlue(), actual.getBlue());
+        assertEquals(expected.getHue(), actual.getHue(), 0);
+    }
+
+    @Test
+    public void analyze_identicalToWholeArray() throws Exception {
+        //Strips that split rows unevenly, and photos wider than a strip
+        int[] stripSizes = {1, 7, 100, 1000};
+        int[][] sizes = {{301, 257}, {300, 200}, {1, 1000}, {997, 3}};
+        for (int stripPixels : stripSizes) {
+            StripScanner scanner = new StripScanner(stripPixels);
+            for (int[] size : sizes) {
+                int[] pixels = randomPixels(size[0] * size[1]);
+                assertSameReading(ColorAnalyzer.analyze(pixels, pixels.length),
+                        scanner.analyze(StripScanner.wrap(pixels, size[0]), size[0], size[1]));
+            }
+        }
+    }
+
+    @Test
+    public void tiledAnalyze_identicalToWholeArray() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TiledColorAnalyzer tiled = new TiledColorAnalyzer(executor, 4, 0);
+            int[] pixels = randomPixels(301 * 257);
+            assertSameReading(ColorAnalyzer.analyze(pixels, pixels.length),
+                    tiled.analyze(StripScanner.wrap(pixels, 301), 301, 257));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void analyzeRegions_identicalToEachRegionAlone() throws Exception {
+        //Overlapping, far apart, one pixel wide, empty, and touching the edges
+        int width = 301;
+        int height = 257;
+        int[] pixels = randomPixels(width * height);
+        int[] regions = {10, 10, 50, 40, 30, 20, 120, 90, 200, 5, 201, 250, 0, 0, 0, 0,
+                250, 200, 301, 257, 0, 0, 301, 257};
+        for (int stripPixels : new int[]{1, 100, StripScanner.DEFAULT_STRIP_PIXELS}) {
+            ColorReading[] readings = new StripScanner(stripPixels)
+                    .analyzeRegions(StripScanner.wrap(pixels, width), regions);
+            assertEquals(regions.length / 4, readings.length);
+            for (int i = 0; i < readings.length; i++) {
+                int regionWidth = regions[4 * i + 2] - regions[4 * i];
+                int regionHeight = regions[4 * i + 3] - regions[4 * i + 1];
+                int[] region = new int[regionWidth * regionHeight];
+                for (int y = 0; y < regionHeight; y++) {
+                    System.arraycopy(pixels, (regions[4 * i + 1] + y) * width + regions[4 * i],
+                            region, y * regionWidth, regionWidth);
+                }
+                assertSameReading(ColorAnalyzer.analyze(region, region.length), readings[i]);
+            }
+        }
+    }
+
+    @Test
+    public void analyzeRegions_readsOnlyRowsUnderRegions() throws Exception {
+        final int[] rowsRead = {0};
+        final PixelSource pixels = StripScanner.wrap(randomPixels(100 * 1000), 100);
+        PixelSource counting = new PixelSource() {
+            @Override
+            public void getPixels(int[] buffer, int x, int y, int w, int h) {
+                rowsRead[0] += h;
+                pixels.getPixels(buffer, x, y, w, h);
+            }
+        };
+        //Two bands of 10 rows far apart, read in strips of 5 rows
+        new StripScanner(500).analyzeRegions(counting, new int[]{0, 100, 100, 110,
+                20, 900, 40, 910});
+        assertEquals(20, rowsRead[0]);
+    }
+}
@@ -0,0 +1,33 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link Subsampling}, executed on the development machine (host).
+ */
+public class SubsamplingTest {
+
+    @Test
+    public void inSampleSize_keepsScreenSize() throws Exception {
+        //48 MP photo on a 1080x1920 screen, in both orientations
+        assertEquals(4, Subsampling.calculateInSampleSize(8000, 6000, 1080, 1920, 0));
+        assertEquals(4, Subsampling.calculateInSampleSize(6000, 8000, 1080, 1920, 0));
+        assertEquals(2, Subsampling.calculateInSampleSize(8000, 6000, 2160, 3840, 0));
+    }
+
+    @Test
+    public void inSampleSize_keepsPixelBudget() throws Exception {
+        assertEquals(2, Subsampling.calculateInSampleSize(4000, 3000, 100, 100,
+                Subsampling.ANALYSIS_PIXEL_BUDGET));
+        assertEquals(4, Subsampling.calculateInSampleSize(8000, 6000, 100, 100,
+                Subsampling.ANALYSIS_PIXEL_BUDGET));
+    }
+
+    @Test
+    public void inSampleSize_smallPhotoIsNotSubsampled() throws Exception {
+        assertEquals(1, Subsampling.calculateInSampleSize(640, 480, 1080, 1920,
+                Subsampling.ANALYSIS_PIXEL_BUDGET));
+    }
+}
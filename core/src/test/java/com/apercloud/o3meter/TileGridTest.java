@@ -0,0 +1,80 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TileGrid}, executed on the development machine (host).
+ */
+public class TileGridTest {
+
+    @Test
+    public void sampleSize_neverBlurrierThanScreen() {
+        assertEquals(1, TileGrid.sampleSize(0.25f));
+        assertEquals(1, TileGrid.sampleSize(1f));
+        assertEquals(1, TileGrid.sampleSize(1.9f));
+        assertEquals(2, TileGrid.sampleSize(2f));
+        assertEquals(4, TileGrid.sampleSize(7.9f));
+        assertEquals(8, TileGrid.sampleSize(8f));
+    }
+
+    @Test
+    public void tiles_coverImageWithoutOverlap() {
+        //48 MP photo, edges that don't fall on a tile
+        TileGrid grid = new TileGrid(8000, 6000, 512);
+        for (int sampleSize = 1; sampleSize <= 16; sampleSize *= 2) {
+            long area = 0;
+            for (int column = 0; column < grid.getColumns(sampleSize); column++) {
+                for (int row = 0; row < grid.getRows(sampleSize); row++) {
+                    int width = grid.getTileRight(sampleSize, column) -
+                            grid.getTileLeft(sampleSize, column);
+                    int height = grid.getTileBottom(sampleSize, row) -
+                            grid.getTileTop(sampleSize, row);
+                    assertTrue(width > 0 && width <= 512 * sampleSize);
+                    assertTrue(height > 0 && height <= 512 * sampleSize);
+                    area += (long) width * height;
+                }
+            }
+            assertEquals(8000L * 6000, area);
+        }
+        assertEquals(16, grid.getColumns(1));
+        assertEquals(8000, grid.getTileRight(1, 15));
+    }
+
+    @Test
+    public void columnAndRow_clampedToImage() {
+        TileGrid grid = new TileGrid(1000, 700, 256);
+        assertEquals(0, grid.getColumn(1, -50f));
+        assertEquals(1, grid.getColumn(1, 256f));
+        assertEquals(3, grid.getColumn(1, 5000f));
+        assertEquals(2, grid.getRow(1, 699.5f));
+        assertEquals(1, grid.getRow(2, 699.5f));
+    }
+
+    @Test
+    public void tileSize_smallerAtImageEdges() {
+        TileGrid grid = new TileGrid(1000, 700, 256);
+        assertEquals(256, grid.getTileWidth(1, 0));
+        assertEquals(1000 - 3 * 256, grid.getTileWidth(1, 3));
+        assertEquals(256, grid.getTileHeight(2, 0));
+        //700 - 512 rows of the image at half resolution, rounding up
+        assertEquals(94, grid.getTileHeight(2, 1));
+        assertEquals(125, grid.getTileWidth(8, 0));
+    }
+
+    @Test
+    public void key_uniqueAcrossLevels() {
+        Set<Long> keys = new HashSet<>();
+        for (int sampleSize = 1; sampleSize <= 64; sampleSize *= 2) {
+            for (int column = 0; column < 20; column++) {
+                for (int row = 0; row < 20; row++) {
+                    assertTrue(keys.add(TileGrid.key(sampleSize, column, row)));
+                }
+            }
+        }
+    }
+}
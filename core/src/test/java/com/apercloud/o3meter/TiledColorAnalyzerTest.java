@@ -0,0 +1,45 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TiledColorAnalyzer}, executed on the development machine (host).
+ */
+public class TiledColorAnalyzerTest {
+
+    private static int[] randomPixels(int length) {
+        int[] pixels = new int[length];
+        Random random = new Random(7);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    @Test
+    public void analyze_identicalToSequential() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            TiledColorAnalyzer tiled = new TiledColorAnalyzer(executor, 4, 0);
+            //Widths that are and are not multiples of the pixel spacing
+            int[][] sizes = {{301, 257}, {300, 200}, {1, 1000}, {997, 3}};
+            for (int[] size : sizes) {
+                int[] pixels = randomPixels(size[0] * size[1]);
+                ColorReading expected = ColorAnalyzer.analyze(pixels, pixels.length);
+                ColorReading actual = tiled.analyze(pixels, size[0], size[1]);
+                assertEquals(expected.getRed(), actual.getRed());
+                assertEquals(expected.getGreen(), actual.getGreen());
+                assertEquals(expected.getBlue(), actual.getBlue());
+                assertEquals(expected.getHue(), actual.getHue(), 0);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.apercloud.o3meter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link YuvAnalyzer}, executed on the development machine (host).
+ */
+public class YuvAnalyzerTest {
+
+    /**
+     * Synthetic frame source with random planes, interleaved like NV21 and with padded rows
+     */
+    private static final class SyntheticSource implements FrameSource {
+        final int mWidth;
+        final int mHeight;
+        final int mYRowStride;
+        final int mUvRowStride;
+        final byte[] mY;
+        final byte[] mUv;
+
+        SyntheticSource(int width, int height, long seed) {
+            mWidth = width;
+            mHeight = height;
+            mYRowStride = width + 5;
+            mUvRowStride = width + 3;
+            mY = new byte[mYRowStride * height];
+            mUv = new byte[mUvRowStride * ((height + 1) / 2)];
+            Random random = new Random(seed);
+            random.nextBytes(mY);
+            random.nextBytes(mUv);
+        }
+
+        int argb(int x, int y) {
+            int chroma = (y >> 1) * mUvRowStride + (x >> 1) * 2;
+            return YuvAnalyzer.toArgb(mY[y * mYRowStride + x] & 0xFF, mUv[chroma + 1] & 0xFF,
+                    mUv[chroma] & 0xFF);
+        }
+
+        YuvFrame frame(long timestamp) {
+            YuvFrame frame = new YuvFrame();
+            //NV21: V first, U right after it
+            ByteBuffer v = ByteBuffer.wrap(mUv);
+            ByteBuffer u = ByteBuffer.wrap(mUv, 1, mUv.length - 1).slice();
+            frame.set(mWidth, mHeight, ByteBuffer.wrap(mY), mYRowStride, u, v, mUvRowStride, 2,
+                    timestamp);
+            return frame;
+        }
+
+        @Override
+        public void start(Listener listener) {
+            for (int i = 1; i <= 3; i++) {
+                listener.onFrame(frame(i * 33333333L));
+            }
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    private static ColorReading analyzeRgb(SyntheticSource source, int left, int top, int right,
+                                           int bottom) throws Exception {
+        int width = right - left;
+        int[] pixels = new int[width * (bottom - top)];
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
+                pixels[(y - top) * width + x - left] = source.argb(x, y);
+            }
+        }
+        return ColorAnalyzer.analyze(pixels, pixels.length);
+    }
+
+    private static void assertReading(ColorReading expected, ColorReading actual) {
+        assertEquals(expected.getRed(), actual.getRed());
+        assertEquals(expected.getGreen(), actual.getGreen());
+        assertEquals(expected.getBlue(), actual.getBlue());
+        assertEquals(expected.getHue(), actual.getHue(), 0);
+    }
+
+    @Test
+    public void analyze_sameAsRgbAnalysis() throws Exception {
+        SyntheticSource source = new SyntheticSource(37, 23, 5);
+        YuvAnalyzer analyzer = new YuvAnalyzer();
+        assertReading(analyzeRgb(source, 0, 0, 37, 23), analyzer.analyze(source.frame(0),
+                0, 0, 37, 23));
+        //Odd region, buffers reused from the previous frame
+        assertReading(analyzeRgb(source, 3, 5, 30, 20), analyzer.analyze(source.frame(0),
+                3, 5, 30, 20));
+    }
+
+    @Test
+    public void previewMeter_readsEveryFrameOfSource() throws Exception {
+        SyntheticSource source = new SyntheticSource(40, 30, 9);
+        final List<ColorReading> readings = new ArrayList<>();
+        PreviewMeter meter = new PreviewMeter(new PreviewMeter.Listener() {
+            @Override
+            public void onReading(ColorReading reading, long timestamp) {
+                readings.add(reading);
+            }
+        });
+        meter.setRegion(0.25f, 0.25f, 0.75f, 0.75f);
+        source.start(meter);
+        source.stop();
+
+        assertEquals(3, readings.size());
+        assertReading(analyzeRgb(source, 10, 8, 30, 23), readings.get(2));
+        assertEquals(30, meter.getFramesPerSecond(), 0.01);
+    }
+}